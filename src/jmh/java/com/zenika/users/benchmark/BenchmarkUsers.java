@@ -0,0 +1,108 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.EmployeeSalaryManagementApplication;
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.testutils.UsersCsvGenerator;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic data sets generated on the fly for the benchmarks. The same row count always
+ * produces the same users, so results of two commits are comparable.
+ */
+public final class BenchmarkUsers {
+
+  private static final long SEED = 42;
+  private static final int SAVE_CHUNK_SIZE = 10_000;
+
+  private BenchmarkUsers() {}
+
+  /**
+   * Starts the application without a web server on a private embedded H2 database. Properties are
+   * passed as command line arguments so that they override {@code application.yaml}.
+   */
+  public static ConfigurableApplicationContext startApplication(String... properties) {
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:h2:mem:benchmark",
+                "--logging.level.root=warn"));
+    for (String property : properties) {
+      arguments.add("--" + property);
+    }
+    return new SpringApplicationBuilder(EmployeeSalaryManagementApplication.class)
+        .web(WebApplicationType.NONE)
+        .run(arguments.toArray(String[]::new));
+  }
+
+  public static List<UsersCsvDto> usersCsvDtos(int count) {
+    Random random = new Random(SEED);
+    List<UsersCsvDto> usersCsvDtos = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      usersCsvDtos.add(
+          new UsersCsvDto(
+              id(i),
+              "login" + i,
+              "name" + random.nextInt(1000),
+              salary(random),
+              LocalDate.ofEpochDay(random.nextInt(20_000))));
+    }
+    return usersCsvDtos;
+  }
+
+  public static List<Users> users(int count) {
+    Random random = new Random(SEED);
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(
+          new Users(
+              id(i),
+              "login" + i,
+              "name" + random.nextInt(1000),
+              salary(random),
+              new Date(random.nextInt(20_000) * 86_400_000L)));
+    }
+    return users;
+  }
+
+  /** Upload file content with both date formats and a comment line every 100 rows or so. */
+  public static byte[] csv(int count) {
+    try {
+      return UsersCsvGenerator.builder()
+          .seed(SEED)
+          .rows(count)
+          .build()
+          .toInputStream()
+          .readAllBytes();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  public static void saveUsers(UsersRepository usersRepository, int count) {
+    List<Users> users = users(count);
+    for (int from = 0; from < count; from += SAVE_CHUNK_SIZE) {
+      usersRepository.upsertAll(users.subList(from, Math.min(count, from + SAVE_CHUNK_SIZE)));
+    }
+  }
+
+  private static String id(int i) {
+    return String.format("b%08d", i);
+  }
+
+  private static double salary(Random random) {
+    return 2000 + random.nextInt(200_000) / 100.0;
+  }
+}
@@ -0,0 +1,167 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.EmployeeSalaryManagementApplication;
+import com.zenika.users.testutils.UsersCsvGenerator;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares raw, gzip and deflate uploads of the same files to {@code POST /v2/users/upload} over
+ * the loopback interface.
+ *
+ * <p>The application is started on a random port with the embedded H2 database. Every round
+ * uploads one file of {@code rows} new users per encoding, in turns so that the growing table
+ * slows all encodings alike. Files are compressed before the request starts, as a client sending a
+ * stored archive would. The first {@code warmupRounds} rounds are left out of the report, which
+ * gives the bytes sent and the rows ingested per second for each encoding.
+ *
+ * <p>Options, all {@code --name=value}: {@code rows} (200000), {@code rounds} (5), {@code
+ * warmupRounds} (2), {@code seed} (42). Other options are passed to the application.
+ */
+public class CompressedUploadLoadTest {
+
+  private static final List<String> LOAD_TEST_OPTIONS =
+      List.of("rows", "rounds", "warmupRounds", "seed");
+  private static final List<String> ENCODINGS = List.of("identity", "gzip", "deflate");
+
+  private final Map<String, String> options;
+  private final HttpClient httpClient =
+      HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofSeconds(10))
+          .build();
+  private URI baseUri;
+
+  private CompressedUploadLoadTest(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      String[] nameAndValue = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "true");
+    }
+    new CompressedUploadLoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    try (ConfigurableApplicationContext applicationContext = startApplication()) {
+      baseUri =
+          URI.create(
+              "http://localhost:"
+                  + ((ServletWebServerApplicationContext) applicationContext)
+                      .getWebServer()
+                      .getPort());
+      long rows = longOption("rows", 200_000);
+      long rounds = longOption("rounds", 5);
+      long warmupRounds = longOption("warmupRounds", 2);
+      Map<String, long[]> totals = new LinkedHashMap<>();
+      long firstNewId = 0;
+      for (long round = 0; round < warmupRounds + rounds; round++) {
+        for (String encoding : ENCODINGS) {
+          byte[] body = encode(generate(rows, firstNewId), encoding);
+          firstNewId += rows;
+          long elapsedNanos = upload(body, encoding);
+          if (round >= warmupRounds) {
+            long[] total = totals.computeIfAbsent(encoding, key -> new long[2]);
+            total[0] += body.length;
+            total[1] += elapsedNanos;
+          }
+        }
+      }
+      System.out.printf("%-9s %14s %12s %12s%n", "encoding", "MB per file", "rows/s", "wire MB/s");
+      totals.forEach(
+          (encoding, total) ->
+              System.out.printf(
+                  "%-9s %14.2f %12d %12.2f%n",
+                  encoding,
+                  total[0] / (double) rounds / 1_000_000,
+                  rows * rounds * 1_000_000_000L / total[1],
+                  total[0] * 1_000.0 / total[1]));
+    }
+  }
+
+  private ConfigurableApplicationContext startApplication() {
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:h2:mem:compressed-uploads",
+                "--logging.level.root=warn"));
+    options.forEach(
+        (name, value) -> {
+          if (!LOAD_TEST_OPTIONS.contains(name)) {
+            arguments.add("--" + name + "=" + value);
+          }
+        });
+    return new SpringApplicationBuilder(EmployeeSalaryManagementApplication.class)
+        .run(arguments.toArray(String[]::new));
+  }
+
+  private byte[] generate(long rows, long firstNewId) throws IOException {
+    ByteArrayOutputStream csv = new ByteArrayOutputStream();
+    UsersCsvGenerator.builder()
+        .seed(longOption("seed", 42) + firstNewId)
+        .rows(rows)
+        .firstNewId(firstNewId)
+        .build()
+        .writeTo(csv);
+    return csv.toByteArray();
+  }
+
+  private static byte[] encode(byte[] csv, String encoding) throws IOException {
+    if (encoding.equals("identity")) {
+      return csv;
+    }
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(csv.length / 4);
+    try (OutputStream outputStream =
+        encoding.equals("gzip")
+            ? new GZIPOutputStream(encoded)
+            : new DeflaterOutputStream(encoded)) {
+      outputStream.write(csv);
+    }
+    return encoded.toByteArray();
+  }
+
+  /** Returns the time from sending the request to reading the response. */
+  private long upload(byte[] body, String encoding) throws IOException, InterruptedException {
+    long startTime = System.nanoTime();
+    HttpResponse<String> response =
+        httpClient.send(
+            HttpRequest.newBuilder(baseUri.resolve("/v2/users/upload"))
+                .header("Content-Type", "text/csv")
+                .header("Content-Encoding", encoding)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    long elapsedNanos = System.nanoTime() - startTime;
+    if (response.statusCode() != 201) {
+      throw new IllegalStateException(
+          encoding + " upload failed with " + response.statusCode() + ": " + response.body());
+    }
+    return elapsedNanos;
+  }
+
+  private long longOption(String name, long defaultValue) {
+    return Long.parseLong(options.getOrDefault(name, String.valueOf(defaultValue)));
+  }
+}
@@ -0,0 +1,207 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.EmployeeSalaryManagementApplication;
+import com.zenika.users.repository.UsersRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows how the streamed {@code GET /v1/users?stream=true} and {@code GET /v2/users} responses
+ * behave as the number of slow concurrent clients grows.
+ *
+ * <p>The application is started on a random port with {@code containerThreads} servlet container
+ * threads and {@code seedUsers} users. For every level of {@code connections} and both APIs, that
+ * many clients download every user while reading {@code readBytes} bytes every {@code
+ * readDelayMillis} ms, and one client sends short {@code GET /v1/users?limit=10} probes. Once the
+ * container threads are all held by v1 streams, probes queue behind them; v2 streams run on the
+ * {@code spring.task.execution} pool and leave the container threads to the probes.
+ *
+ * <p>Options, all {@code --name=value}: {@code connections} (8,32,128), {@code durationSeconds}
+ * (20), {@code containerThreads} (16), {@code seedUsers} (100000), {@code readBytes} (8192), {@code
+ * readDelayMillis} (10). Other options are passed to the application.
+ */
+public class ConcurrentStreamsLoadTest {
+
+  private static final List<String> LOAD_TEST_OPTIONS =
+      List.of(
+          "connections",
+          "durationSeconds",
+          "containerThreads",
+          "seedUsers",
+          "readBytes",
+          "readDelayMillis");
+  private static final Map<String, String> STREAM_PATHS =
+      Map.of(
+          "v1", "/v1/users?minSalary=0&maxSalary=1000000000&stream=true",
+          "v2", "/v2/users?minSalary=0&maxSalary=1000000000");
+  private static final String PROBE_PATH = "/v1/users?minSalary=0&maxSalary=1000000000&limit=10";
+
+  private final Map<String, String> options;
+  private final HttpClient httpClient =
+      HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofSeconds(10))
+          .build();
+  private URI baseUri;
+
+  private ConcurrentStreamsLoadTest(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      String[] nameAndValue = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "true");
+    }
+    new ConcurrentStreamsLoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    try (ConfigurableApplicationContext applicationContext = startApplication()) {
+      baseUri =
+          URI.create(
+              "http://localhost:"
+                  + ((ServletWebServerApplicationContext) applicationContext)
+                      .getWebServer()
+                      .getPort());
+      BenchmarkUsers.saveUsers(
+          applicationContext.getBean(UsersRepository.class), (int) longOption("seedUsers", 100_000));
+      System.out.printf(
+          "%-4s %12s %10s %10s %10s %14s %10s%n",
+          "api", "connections", "probes/s", "p50 ms", "p99 ms", "streamed MB/s", "failures");
+      for (String connections : options.getOrDefault("connections", "8,32,128").split(",")) {
+        for (String api : List.of("v1", "v2")) {
+          runLevel(api, Integer.parseInt(connections));
+        }
+      }
+    }
+  }
+
+  private ConfigurableApplicationContext startApplication() {
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                "--server.port=0",
+                "--server.tomcat.threads.max=" + longOption("containerThreads", 16),
+                "--server.tomcat.threads.min-spare=" + longOption("containerThreads", 16),
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:h2:mem:streams",
+                "--logging.level.root=warn",
+                // dropped slow clients are expected, not worth a stack trace each
+                "--logging.level.org.apache.catalina=off"));
+    options.forEach(
+        (name, value) -> {
+          if (!LOAD_TEST_OPTIONS.contains(name)) {
+            arguments.add("--" + name + "=" + value);
+          }
+        });
+    return new SpringApplicationBuilder(EmployeeSalaryManagementApplication.class)
+        .run(arguments.toArray(String[]::new));
+  }
+
+  private void runLevel(String api, int connections) throws InterruptedException {
+    long durationNanos = TimeUnit.SECONDS.toNanos(longOption("durationSeconds", 20));
+    long deadline = System.nanoTime() + durationNanos;
+    AtomicLong streamedBytes = new AtomicLong();
+    AtomicLong failures = new AtomicLong();
+    ExecutorService executorService = Executors.newFixedThreadPool(connections + 1);
+    for (int connection = 0; connection < connections; connection++) {
+      executorService.execute(
+          () -> {
+            while (System.nanoTime() < deadline) {
+              try {
+                streamedBytes.addAndGet(slowlyDownload(STREAM_PATHS.get(api), deadline));
+              } catch (IOException ex) {
+                failures.incrementAndGet();
+              } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+            }
+          });
+    }
+    long[] latencies = new long[1024];
+    int probes = 0;
+    while (System.nanoTime() < deadline) {
+      long startTime = System.nanoTime();
+      try {
+        httpClient.send(
+            HttpRequest.newBuilder(baseUri.resolve(PROBE_PATH))
+                .timeout(Duration.ofNanos(Math.max(1, deadline - startTime)))
+                .build(),
+            HttpResponse.BodyHandlers.discarding());
+      } catch (IOException ex) {
+        failures.incrementAndGet();
+      }
+      if (probes == latencies.length) {
+        latencies = Arrays.copyOf(latencies, probes * 2);
+      }
+      latencies[probes++] = System.nanoTime() - startTime;
+    }
+    executorService.shutdown();
+    executorService.awaitTermination(1, TimeUnit.MINUTES);
+    long[] sorted = Arrays.copyOf(latencies, probes);
+    Arrays.sort(sorted);
+    double durationSeconds = durationNanos / 1e9;
+    System.out.printf(
+        "%-4s %12d %10.1f %10.2f %10.2f %14.2f %10d%n",
+        api,
+        connections,
+        probes / durationSeconds,
+        percentile(sorted, 0.5),
+        percentile(sorted, 0.99),
+        streamedBytes.get() / durationSeconds / 1_000_000,
+        failures.get());
+  }
+
+  /** Reads the response slowly until it ends or the deadline, then drops the connection. */
+  private long slowlyDownload(String path, long deadline)
+      throws IOException, InterruptedException {
+    HttpResponse<InputStream> response =
+        httpClient.send(
+            HttpRequest.newBuilder(baseUri.resolve(path)).build(),
+            HttpResponse.BodyHandlers.ofInputStream());
+    byte[] buffer = new byte[(int) longOption("readBytes", 8192)];
+    long readDelayMillis = longOption("readDelayMillis", 10);
+    long bytes = 0;
+    try (InputStream inputStream = response.body()) {
+      int read;
+      while (System.nanoTime() < deadline && (read = inputStream.read(buffer)) >= 0) {
+        bytes += read;
+        Thread.sleep(readDelayMillis);
+      }
+    }
+    return bytes;
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1_000_000.0;
+  }
+
+  private long longOption(String name, long defaultValue) {
+    return Long.parseLong(options.getOrDefault(name, String.valueOf(defaultValue)));
+  }
+}
@@ -0,0 +1,51 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.utils.CsvToBeanConverter;
+import com.zenika.users.utils.UsersCsvParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Parses a whole upload file in memory with the OpenCSV binding and with {@link UsersCsvParser}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+  @Param({"1000", "100000", "1000000", "5000000"})
+  private int rows;
+
+  private byte[] csv;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    csv = BenchmarkUsers.csv(rows);
+  }
+
+  @Benchmark
+  public List<UsersCsvDto> convertCsvToBean() {
+    return CsvToBeanConverter.convertCsvToBean(new ByteArrayInputStream(csv), UsersCsvDto.class);
+  }
+
+  @Benchmark
+  public List<UsersCsvDto> usersCsvParser() {
+    return UsersCsvParser.parse(new ByteArrayInputStream(csv));
+  }
+}
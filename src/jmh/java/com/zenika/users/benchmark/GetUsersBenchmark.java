@@ -0,0 +1,69 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts and pages a salary range through {@link UserService#getUsers} on the embedded H2
+ * database, with the query cache and the in-memory index disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetUsersBenchmark {
+
+  @Param({"1000", "100000", "1000000", "5000000"})
+  private int rows;
+
+  @Param({"salary,asc", "name,desc;id,asc"})
+  private String sortBy;
+
+  @Param({"0", "5000"})
+  private int offset;
+
+  @Param({"100"})
+  private int limit;
+
+  private ConfigurableApplicationContext applicationContext;
+  private UserService userService;
+  private String[] sortByInput;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    applicationContext =
+        BenchmarkUsers.startApplication("users.cache.enabled=false", "users.index.enabled=false");
+    userService = applicationContext.getBean(UserService.class);
+    BenchmarkUsers.saveUsers(applicationContext.getBean(UsersRepository.class), rows);
+    sortByInput = sortBy.split(";");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    applicationContext.close();
+  }
+
+  @Benchmark
+  public UsersListDto getUsers() {
+    return userService.getUsers(2000, 1_000_000, offset, limit, sortByInput);
+  }
+}
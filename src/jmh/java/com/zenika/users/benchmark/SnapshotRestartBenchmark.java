@@ -0,0 +1,89 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UserService;
+import com.zenika.users.snapshot.UsersSnapshotFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from application start to ready with the users table restored, either by loading a
+ * snapshot during startup or by uploading the same users as a csv file once started.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SnapshotRestartBenchmark {
+
+  @Param({"100000", "1000000"})
+  private int rows;
+
+  private Path csvFile;
+  private Path snapshotFile;
+  private ConfigurableApplicationContext applicationContext;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    csvFile = Files.createTempFile("users-benchmark-", ".csv");
+    Files.write(csvFile, BenchmarkUsers.csv(rows));
+    snapshotFile = Files.createTempFile("users-benchmark-", ".snapshot");
+    try (ConfigurableApplicationContext uploadedContext = startAndUpload()) {
+      UsersSnapshotFile.write(
+          snapshotFile, uploadedContext.getBean(UsersRepository.class)::forEachUser);
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeApplication() {
+    applicationContext.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(csvFile);
+    Files.deleteIfExists(snapshotFile);
+  }
+
+  @Benchmark
+  public ConfigurableApplicationContext restartFromSnapshot() {
+    applicationContext =
+        BenchmarkUsers.startApplication(
+            "users.snapshot.enabled=true", "users.snapshot.file=" + snapshotFile);
+    return applicationContext;
+  }
+
+  @Benchmark
+  public ConfigurableApplicationContext restartAndUpload() throws IOException {
+    applicationContext = startAndUpload();
+    return applicationContext;
+  }
+
+  private ConfigurableApplicationContext startAndUpload() throws IOException {
+    ConfigurableApplicationContext startedContext = BenchmarkUsers.startApplication();
+    try (InputStream inputStream = Files.newInputStream(csvFile)) {
+      startedContext.getBean(UserService.class).uploadUsers(inputStream);
+    }
+    return startedContext;
+  }
+}
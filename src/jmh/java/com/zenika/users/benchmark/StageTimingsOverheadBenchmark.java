@@ -0,0 +1,75 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.metrics.Stage;
+import com.zenika.users.metrics.StageTimings;
+import com.zenika.users.metrics.UsersMetrics;
+import com.zenika.users.utils.CsvToBeanConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the upload instrumentation. {@code stageTiming} is the per-row cost paid by bean
+ * validation timing, {@code recordUpload} the per-request cost of publishing the stage totals, and
+ * {@code parseUntimed} against {@code parseTimed} the end to end difference on a whole file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageTimingsOverheadBenchmark {
+
+  @Param({"1000", "100000"})
+  private int rows;
+
+  private final StageTimings stageTimings = new StageTimings();
+  private final UsersMetrics usersMetrics = new UsersMetrics(new SimpleMeterRegistry());
+  private byte[] csv;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    csv = BenchmarkUsers.csv(rows);
+    for (Stage stage : Stage.values()) {
+      stageTimings.add(stage, 1_000_000);
+    }
+  }
+
+  @Benchmark
+  public StageTimings stageTiming() {
+    stageTimings.stop(Stage.VALIDATE, stageTimings.start());
+    return stageTimings;
+  }
+
+  @Benchmark
+  public void recordUpload() {
+    usersMetrics.recordUpload(stageTimings, true, rows, csv.length, 10_000_000);
+  }
+
+  @Benchmark
+  public long parseUntimed() {
+    return CsvToBeanConverter.convertCsvToBeanInChunks(
+        new ByteArrayInputStream(csv), UsersCsvDto.class, 1000, chunk -> {});
+  }
+
+  @Benchmark
+  public long parseTimed() {
+    return CsvToBeanConverter.convertCsvToBeanInChunks(
+        new ByteArrayInputStream(csv), UsersCsvDto.class, 1000, chunk -> {}, new StageTimings());
+  }
+}
@@ -0,0 +1,81 @@
+package com.zenika.users.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.zenika.users.config.UsersBinaryFormatsConfiguration;
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.mapper.UsersToUsersListDtoMapper;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the fetch users response as JSON, Smile and CBOR with the object mappers of
+ * the message converters. The size of a response in each format is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsersEncodingBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  private int rows;
+
+  @Param({"json", "smile", "cbor"})
+  private String format;
+
+  private ObjectMapper objectMapper;
+  private UsersListDto usersListDto;
+  private byte[] encoded;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    switch (format) {
+      case "smile":
+        objectMapper =
+            UsersBinaryFormatsConfiguration.binaryObjectMapper(
+                Jackson2ObjectMapperBuilder.json(), new SmileFactory());
+        break;
+      case "cbor":
+        objectMapper =
+            UsersBinaryFormatsConfiguration.binaryObjectMapper(
+                Jackson2ObjectMapperBuilder.json(), new CBORFactory());
+        break;
+      default:
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    }
+    usersListDto =
+        Mappers.getMapper(UsersToUsersListDtoMapper.class)
+            .mapToUsersListDto(BenchmarkUsers.users(rows));
+    encoded = objectMapper.writeValueAsBytes(usersListDto);
+    System.out.printf("%n%s response of %d users: %d bytes%n", format, rows, encoded.length);
+  }
+
+  @Benchmark
+  public byte[] encode() throws IOException {
+    return objectMapper.writeValueAsBytes(usersListDto);
+  }
+
+  @Benchmark
+  public UsersListDto decode() throws IOException {
+    return objectMapper.readValue(encoded, UsersListDto.class);
+  }
+}
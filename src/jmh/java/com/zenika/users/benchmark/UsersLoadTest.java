@@ -0,0 +1,291 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.EmployeeSalaryManagementApplication;
+import com.zenika.users.testutils.UsersCsvGenerator;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives concurrent {@code POST /v1/users/upload} and {@code GET /v1/users} traffic and reports
+ * throughput and latency percentiles per endpoint.
+ *
+ * <p>Unless {@code --url} points to a running instance, the application is started on a random
+ * port with the embedded H2 database and seeded with {@code --seedUsers} users first. Uploads
+ * come from {@link UsersCsvGenerator}: each one inserts new users and updates a share of the
+ * seeded ones. Fetches cycle through a few fixed query combinations, as dashboards do.
+ *
+ * <p>Options, all {@code --name=value}: {@code durationSeconds} (60), {@code uploadThreads} (1),
+ * {@code fetchThreads} (8), {@code seedUsers} (100000), {@code uploadRows} (10000), {@code
+ * updateRatio} (0.5), {@code seed} (42), {@code url}. Other options are passed to the application.
+ */
+public class UsersLoadTest {
+
+  private static final Set<String> LOAD_TEST_OPTIONS =
+      Set.of(
+          "durationSeconds",
+          "uploadThreads",
+          "fetchThreads",
+          "seedUsers",
+          "uploadRows",
+          "updateRatio",
+          "seed",
+          "url");
+  private static final String BOUNDARY = "users-load-test-boundary";
+  private static final List<String> FETCH_QUERIES =
+      List.of(
+          "minSalary=0&maxSalary=4000&limit=100&sortBy=id,asc",
+          "minSalary=2000&maxSalary=50000&offset=100&limit=100&sortBy=salary,desc",
+          "minSalary=10000&maxSalary=20000&limit=50&sortBy=name,asc&sortBy=id,asc",
+          "minSalary=0&maxSalary=1000000&offset=5000&limit=100&sortBy=login,asc",
+          "minSalary=0&maxSalary=1000000&limit=100&sortBy=salary,asc&cursor=");
+
+  private final Map<String, String> options;
+  private final HttpClient httpClient =
+      HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+  private final AtomicLong uploadCount = new AtomicLong();
+  private final Map<String, EndpointStats> endpointStats = new TreeMap<>();
+  private URI baseUri;
+
+  private UsersLoadTest(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      String[] nameAndValue = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "true");
+    }
+    new UsersLoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    ConfigurableApplicationContext applicationContext = null;
+    if (options.containsKey("url")) {
+      baseUri = URI.create(options.get("url"));
+    } else {
+      applicationContext = startApplication();
+      baseUri =
+          URI.create(
+              "http://localhost:"
+                  + ((ServletWebServerApplicationContext) applicationContext)
+                      .getWebServer()
+                      .getPort());
+    }
+    try {
+      seed();
+      runLoad();
+      report();
+    } finally {
+      if (applicationContext != null) {
+        applicationContext.close();
+      }
+    }
+  }
+
+  private ConfigurableApplicationContext startApplication() {
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest",
+                "--logging.level.root=warn"));
+    options.forEach(
+        (name, value) -> {
+          if (!LOAD_TEST_OPTIONS.contains(name)) {
+            arguments.add("--" + name + "=" + value);
+          }
+        });
+    return new SpringApplicationBuilder(EmployeeSalaryManagementApplication.class)
+        .run(arguments.toArray(String[]::new));
+  }
+
+  private void seed() throws IOException, InterruptedException {
+    long seedUsers = longOption("seedUsers", 100_000);
+    if (seedUsers == 0) {
+      return;
+    }
+    long startTime = System.nanoTime();
+    HttpResponse<String> response =
+        upload(UsersCsvGenerator.builder().seed(longOption("seed", 42)).rows(seedUsers).build());
+    System.out.printf(
+        "Seeded %d users in %d ms: %d %s%n",
+        seedUsers,
+        (System.nanoTime() - startTime) / 1_000_000,
+        response.statusCode(),
+        response.body());
+  }
+
+  private void runLoad() throws InterruptedException {
+    int uploadThreads = (int) longOption("uploadThreads", 1);
+    int fetchThreads = (int) longOption("fetchThreads", 8);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(longOption("durationSeconds", 60));
+    ExecutorService executorService = Executors.newFixedThreadPool(uploadThreads + fetchThreads);
+    for (int thread = 0; thread < uploadThreads; thread++) {
+      executorService.execute(() -> repeatUntil(deadline, this::uploadOnce));
+    }
+    for (int thread = 0; thread < fetchThreads; thread++) {
+      Random random = new Random(longOption("seed", 42) + thread);
+      executorService.execute(() -> repeatUntil(deadline, () -> fetchOnce(random)));
+    }
+    executorService.shutdown();
+    executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  private void repeatUntil(long deadline, Request request) {
+    while (System.nanoTime() < deadline) {
+      try {
+        request.send();
+      } catch (IOException ex) {
+        stats("transport errors").record(0, -1, 0);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void uploadOnce() throws IOException, InterruptedException {
+    long seedUsers = longOption("seedUsers", 100_000);
+    long uploadRows = longOption("uploadRows", 10_000);
+    long upload = uploadCount.getAndIncrement();
+    UsersCsvGenerator usersCsvGenerator =
+        UsersCsvGenerator.builder()
+            .seed(longOption("seed", 42) + upload + 1)
+            .rows(uploadRows)
+            .existingUsers(seedUsers)
+            .firstNewId(seedUsers + upload * uploadRows)
+            .updateRatio(Double.parseDouble(options.getOrDefault("updateRatio", "0.5")))
+            .build();
+    long startTime = System.nanoTime();
+    HttpResponse<String> response = upload(usersCsvGenerator);
+    stats("POST /v1/users/upload")
+        .record(System.nanoTime() - startTime, response.statusCode(), uploadRows);
+  }
+
+  private void fetchOnce(Random random) throws IOException, InterruptedException {
+    String query = FETCH_QUERIES.get(random.nextInt(FETCH_QUERIES.size()));
+    long startTime = System.nanoTime();
+    HttpResponse<Void> response =
+        httpClient.send(
+            HttpRequest.newBuilder(baseUri.resolve("/v1/users?" + query)).GET().build(),
+            HttpResponse.BodyHandlers.discarding());
+    stats("GET /v1/users").record(System.nanoTime() - startTime, response.statusCode(), 0);
+  }
+
+  private HttpResponse<String> upload(UsersCsvGenerator usersCsvGenerator)
+      throws IOException, InterruptedException {
+    String partHeader =
+        "--"
+            + BOUNDARY
+            + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"users.csv\""
+            + "\r\nContent-Type: text/csv\r\n\r\n";
+    String partTrailer = "\r\n--" + BOUNDARY + "--\r\n";
+    HttpRequest request =
+        HttpRequest.newBuilder(baseUri.resolve("/v1/users/upload"))
+            .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+            .POST(
+                HttpRequest.BodyPublishers.ofInputStream(
+                    () ->
+                        new SequenceInputStream(
+                            Collections.enumeration(
+                                List.<InputStream>of(
+                                    new ByteArrayInputStream(
+                                        partHeader.getBytes(StandardCharsets.UTF_8)),
+                                    usersCsvGenerator.toInputStream(),
+                                    new ByteArrayInputStream(
+                                        partTrailer.getBytes(StandardCharsets.UTF_8)))))))
+            .build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private void report() {
+    double durationSeconds = longOption("durationSeconds", 60);
+    System.out.printf(
+        "%-24s %8s %10s %12s %10s %10s %10s %s%n",
+        "endpoint", "requests", "req/s", "rows/s", "p50 ms", "p99 ms", "p999 ms", "statuses");
+    synchronized (endpointStats) {
+      endpointStats.forEach((endpoint, stats) -> stats.print(endpoint, durationSeconds));
+    }
+  }
+
+  private EndpointStats stats(String endpoint) {
+    synchronized (endpointStats) {
+      return endpointStats.computeIfAbsent(endpoint, key -> new EndpointStats());
+    }
+  }
+
+  private long longOption(String name, long defaultValue) {
+    return Long.parseLong(options.getOrDefault(name, String.valueOf(defaultValue)));
+  }
+
+  private interface Request {
+    void send() throws IOException, InterruptedException;
+  }
+
+  /** Latencies of every request of an endpoint, sorted only once the load is over. */
+  private static final class EndpointStats {
+    private long[] latencies = new long[1024];
+    private int count;
+    private long rows;
+    private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+    private synchronized void record(long latencyNanos, int status, long requestRows) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = latencyNanos;
+      rows += requestRows;
+      statuses.merge(status, 1, Integer::sum);
+    }
+
+    private synchronized void print(String endpoint, double durationSeconds) {
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      System.out.printf(
+          "%-24s %8d %10.1f %12.0f %10.2f %10.2f %10.2f %s%n",
+          endpoint,
+          count,
+          count / durationSeconds,
+          rows / durationSeconds,
+          percentile(sorted, 0.5),
+          percentile(sorted, 0.99),
+          percentile(sorted, 0.999),
+          statuses);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+  }
+}
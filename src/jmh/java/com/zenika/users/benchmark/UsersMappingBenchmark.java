@@ -0,0 +1,59 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.entity.Users;
+import com.zenika.users.mapper.UsersCsvDtoToUsersMapper;
+import com.zenika.users.mapper.UsersToUsersListDtoMapper;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Maps parsed upload rows to entities and entities to the fetch users response. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsersMappingBenchmark {
+
+  @Param({"1000", "100000", "1000000", "5000000"})
+  private int rows;
+
+  private final UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper =
+      Mappers.getMapper(UsersCsvDtoToUsersMapper.class);
+  private final UsersToUsersListDtoMapper usersToUsersListDtoMapper =
+      Mappers.getMapper(UsersToUsersListDtoMapper.class);
+  private List<UsersCsvDto> usersCsvDtos;
+  private List<Users> users;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    usersCsvDtos = BenchmarkUsers.usersCsvDtos(rows);
+    users = BenchmarkUsers.users(rows);
+  }
+
+  @Benchmark
+  public List<Users> mapToUsers() {
+    return usersCsvDtoToUsersMapper.mapToUsers(usersCsvDtos);
+  }
+
+  @Benchmark
+  public UsersListDto mapToUsersListDto() {
+    return usersToUsersListDtoMapper.mapToUsersListDto(users);
+  }
+}
@@ -0,0 +1,82 @@
+package com.zenika.users.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches a page of users and encodes it as JSON, either whole through {@link UserService#getUsers}
+ * or projected to {@code fields} through {@link UserService#getUsersFields}, on the embedded H2
+ * database with the query cache and the in-memory index disabled. The size of the JSON response is
+ * printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsersProjectionBenchmark {
+
+  private static final String ALL_FIELDS = "all";
+
+  @Param({"100000", "1000000"})
+  private int rows;
+
+  /** Fields separated by {@code ;} since JMH splits parameter values on commas. */
+  @Param({ALL_FIELDS, "id;login;name;salary", "id;salary"})
+  private String fields;
+
+  @Param({"10000"})
+  private int limit;
+
+  private ConfigurableApplicationContext applicationContext;
+  private UserService userService;
+  private ObjectMapper objectMapper;
+  private String[] fieldsInput;
+  private final String[] sortByInput = {"salary,asc"};
+
+  @Setup(Level.Trial)
+  public void setup() throws JsonProcessingException {
+    applicationContext =
+        BenchmarkUsers.startApplication("users.cache.enabled=false", "users.index.enabled=false");
+    userService = applicationContext.getBean(UserService.class);
+    objectMapper = applicationContext.getBean(ObjectMapper.class);
+    BenchmarkUsers.saveUsers(applicationContext.getBean(UsersRepository.class), rows);
+    fieldsInput = fields.equals(ALL_FIELDS) ? null : fields.split(";");
+    System.out.printf(
+        "%n%s response of %d users: %d bytes%n", fields, limit, getUsersAsJson().length);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    applicationContext.close();
+  }
+
+  @Benchmark
+  public byte[] getUsersAsJson() throws JsonProcessingException {
+    if (fieldsInput == null) {
+      return objectMapper.writeValueAsBytes(
+          userService.getUsers(2000, 1_000_000, 0, limit, sortByInput));
+    }
+    return objectMapper.writeValueAsBytes(
+        userService.getUsersFields(2000, 1_000_000, 0, limit, sortByInput, null, fieldsInput));
+  }
+}
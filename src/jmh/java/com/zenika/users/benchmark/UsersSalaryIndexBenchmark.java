@@ -0,0 +1,86 @@
+package com.zenika.users.benchmark;
+
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.index.UsersReadModel;
+import com.zenika.users.mapper.UsersToUsersListDtoMapper;
+import com.zenika.users.repository.OffsetBasedPageRequest;
+import com.zenika.users.repository.UsersRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a page of {@code GET /v1/users} served from the in-memory {@link UsersReadModel}
+ * against the JPA query and mapping it replaces, on the embedded H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsersSalaryIndexBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  private int rows;
+
+  @Param({"salary,asc", "name,desc"})
+  private String sortBy;
+
+  @Param({"0", "5000"})
+  private int offset;
+
+  @Param({"100"})
+  private int limit;
+
+  private ConfigurableApplicationContext applicationContext;
+  private UsersRepository usersRepository;
+  private UsersToUsersListDtoMapper usersToUsersListDtoMapper;
+  private UsersReadModel usersReadModel;
+  private Sort sort;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    applicationContext = BenchmarkUsers.startApplication();
+    usersRepository = applicationContext.getBean(UsersRepository.class);
+    usersToUsersListDtoMapper = applicationContext.getBean(UsersToUsersListDtoMapper.class);
+    usersReadModel = applicationContext.getBean(UsersReadModel.class);
+    BenchmarkUsers.saveUsers(usersRepository, rows);
+    usersReadModel.rebuild();
+    String[] fieldAndDirection = sortBy.split(",");
+    sort = Sort.by(Sort.Direction.fromString(fieldAndDirection[1]), fieldAndDirection[0]);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    applicationContext.close();
+  }
+
+  @Benchmark
+  public UsersListDto jpa() {
+    return usersToUsersListDtoMapper.mapToUsersListDto(
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, new OffsetBasedPageRequest(offset, limit, sort)));
+  }
+
+  @Benchmark
+  public List<UsersDto> index() {
+    return usersReadModel.findBySalaryRange(2000, 1_000_000, sort, offset, limit).orElseThrow();
+  }
+}
@@ -0,0 +1,58 @@
+package com.zenika.users.service;
+
+import com.zenika.users.benchmark.BenchmarkUsers;
+import com.zenika.users.entity.Users;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the duplicate id check of an upload over every chunk of a file. It lives in the service
+ * package since the check is not part of the public service API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DuplicateIdsBenchmark {
+
+  private static final int CHUNK_SIZE = 1000;
+
+  @Param({"1000", "100000", "1000000", "5000000"})
+  private int rows;
+
+  private List<List<Users>> chunks;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    List<Users> users = BenchmarkUsers.users(rows);
+    chunks = new ArrayList<>();
+    for (int from = 0; from < rows; from += CHUNK_SIZE) {
+      chunks.add(users.subList(from, Math.min(rows, from + CHUNK_SIZE)));
+    }
+  }
+
+  @Benchmark
+  public UserServiceImpl.UploadContext validateForDuplicateIds() {
+    UserServiceImpl.UploadContext uploadContext = new UserServiceImpl.UploadContext();
+    for (List<Users> chunk : chunks) {
+      UserServiceImpl.validateForDuplicateIds(chunk, uploadContext);
+    }
+    return uploadContext;
+  }
+}
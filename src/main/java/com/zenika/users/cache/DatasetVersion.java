@@ -0,0 +1,65 @@
+package com.zenika.users.cache;
+
+import com.zenika.users.config.UsersIndexProperties;
+import com.zenika.users.service.UsersUploadedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the users data set, incremented after every committed upload. Results computed
+ * under an older version are never served again. With {@code users.index.enabled}, the version is
+ * incremented by {@link com.zenika.users.index.UsersReadModel} once the rebuilt index is swapped
+ * in instead, so that no result of the new version is computed from the previous index.
+ *
+ * <p>The version starts from 0 on every start, so entity tags also carry the start time of the
+ * instance, which keeps a tag from a previous run from matching a reloaded data set.
+ */
+@Component
+@Slf4j
+public class DatasetVersion {
+
+  private final AtomicLong version = new AtomicLong();
+  private final long epoch = System.currentTimeMillis();
+  private final UsersIndexProperties usersIndexProperties;
+
+  public DatasetVersion(UsersIndexProperties usersIndexProperties) {
+    this.usersIndexProperties = usersIndexProperties;
+  }
+
+  public long current() {
+    return version.get();
+  }
+
+  /**
+   * Strong entity tag of the result of a query under the current version.
+   *
+   * @param queryHash hash of the normalised query
+   */
+  public String eTag(long queryHash) {
+    return "\""
+        + Long.toHexString(epoch)
+        + "-"
+        + version.get()
+        + "-"
+        + Long.toHexString(queryHash)
+        + "\"";
+  }
+
+  /** Runs after the other listeners of the commit. */
+  @TransactionalEventListener
+  @Order(Ordered.LOWEST_PRECEDENCE)
+  public void onUsersUploaded(UsersUploadedEvent usersUploadedEvent) {
+    if (!usersIndexProperties.isEnabled()) {
+      increment();
+    }
+  }
+
+  public void increment() {
+    log.debug("Users data set version is now {}", version.incrementAndGet());
+  }
+}
@@ -0,0 +1,170 @@
+package com.zenika.users.cache;
+
+import com.zenika.users.config.UsersCacheProperties;
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.dto.UsersQueryCacheStatsDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded least recently used cache of offset based {@code GET /v1/users} results.
+ *
+ * <p>Entries are keyed on the normalised query and the {@link DatasetVersion} it was computed
+ * under, so an upload invalidates every entry at once by bumping the version. Entries of older
+ * versions are never returned and are dropped as soon as a newer version is seen. The cache is
+ * bounded both on the number of entries and on their estimated heap size.
+ *
+ * <p>Hits take no lock: entries live in a {@link ConcurrentHashMap} and only record their last
+ * access time. Inserts, which follow a database query, are serialised and evict the entries
+ * accessed least recently. Entries hold a private copy of the result and every hit returns a new
+ * copy, so callers may modify what they get without affecting other requests.
+ */
+@Component
+@Slf4j
+public class UsersQueryCache {
+
+  private static final long ENTRY_OVERHEAD_BYTES = 160;
+  private static final long USER_OVERHEAD_BYTES = 120;
+
+  private final DatasetVersion datasetVersion;
+  private final UsersCacheProperties usersCacheProperties;
+  private final ConcurrentHashMap<UsersQueryKey, Entry> entries = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private long weightBytes;
+  private long cachedVersion;
+
+  public UsersQueryCache(DatasetVersion datasetVersion, UsersCacheProperties usersCacheProperties) {
+    this.datasetVersion = datasetVersion;
+    this.usersCacheProperties = usersCacheProperties;
+  }
+
+  /**
+   * Returns a copy of the cached result of the query, or computes it with {@code query} outside of
+   * the lock and caches a copy of it. Results heavier than the maximum weight are returned without
+   * being copied or cached. The version is read before computing, so a result racing with an
+   * upload is cached under the version it may have missed and is never served after the upload.
+   */
+  public UsersListDto get(
+      double minSalary,
+      double maxSalary,
+      String sort,
+      int offset,
+      int limit,
+      Supplier<UsersListDto> query) {
+    if (!usersCacheProperties.isEnabled()) {
+      return query.get();
+    }
+    UsersQueryKey usersQueryKey =
+        new UsersQueryKey(datasetVersion.current(), minSalary, maxSalary, sort, offset, limit);
+    Entry entry = entries.get(usersQueryKey);
+    if (entry != null) {
+      entry.lastAccessNanos = System.nanoTime();
+      hits.increment();
+      return copy(entry.usersListDto);
+    }
+    misses.increment();
+    UsersListDto usersListDto = query.get();
+    long weightBytes = weigh(usersListDto);
+    if (weightBytes <= usersCacheProperties.getMaxWeight().toBytes()) {
+      put(usersQueryKey, new Entry(copy(usersListDto), weightBytes));
+    }
+    return usersListDto;
+  }
+
+  public UsersQueryCacheStatsDto getStats() {
+    synchronized (this) {
+      return new UsersQueryCacheStatsDto(
+          hits.sum(),
+          misses.sum(),
+          evictions.sum(),
+          invalidations.sum(),
+          entries.size(),
+          weightBytes,
+          datasetVersion.current());
+    }
+  }
+
+  private synchronized void put(UsersQueryKey usersQueryKey, Entry entry) {
+    if (usersQueryKey.getDatasetVersion() > cachedVersion) {
+      invalidations.add(entries.size());
+      entries.clear();
+      weightBytes = 0;
+      cachedVersion = usersQueryKey.getDatasetVersion();
+    } else if (usersQueryKey.getDatasetVersion() < cachedVersion) {
+      return;
+    }
+    Entry previous = entries.put(usersQueryKey, entry);
+    weightBytes += entry.weightBytes - (previous == null ? 0 : previous.weightBytes);
+    while (entries.size() > usersCacheProperties.getMaxEntries()
+        || weightBytes > usersCacheProperties.getMaxWeight().toBytes()) {
+      Map.Entry<UsersQueryKey, Entry> leastRecentlyUsed = null;
+      for (Map.Entry<UsersQueryKey, Entry> candidate : entries.entrySet()) {
+        if (leastRecentlyUsed == null
+            || candidate.getValue().lastAccessNanos
+                < leastRecentlyUsed.getValue().lastAccessNanos) {
+          leastRecentlyUsed = candidate;
+        }
+      }
+      entries.remove(leastRecentlyUsed.getKey());
+      weightBytes -= leastRecentlyUsed.getValue().weightBytes;
+      evictions.increment();
+    }
+  }
+
+  private static UsersListDto copy(UsersListDto usersListDto) {
+    List<UsersDto> results = new ArrayList<>(usersListDto.getResults().size());
+    for (UsersDto usersDto : usersListDto.getResults()) {
+      results.add(
+          new UsersDto(
+              usersDto.getId(),
+              usersDto.getLogin(),
+              usersDto.getName(),
+              usersDto.getSalary(),
+              usersDto.getStartDate() == null
+                  ? null
+                  : new Date(usersDto.getStartDate().getTime())));
+    }
+    return new UsersListDto(results, usersListDto.getNextCursor());
+  }
+
+  /** Rough heap size of a result: object headers, fields and two bytes per string character. */
+  private static long weigh(UsersListDto usersListDto) {
+    long weight = ENTRY_OVERHEAD_BYTES;
+    for (UsersDto usersDto : usersListDto.getResults()) {
+      weight +=
+          USER_OVERHEAD_BYTES
+              + 2L
+                  * (length(usersDto.getId())
+                      + length(usersDto.getLogin())
+                      + length(usersDto.getName()));
+    }
+    return weight;
+  }
+
+  private static int length(String value) {
+    return value == null ? 0 : value.length();
+  }
+
+  private static final class Entry {
+    private final UsersListDto usersListDto;
+    private final long weightBytes;
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    private Entry(UsersListDto usersListDto, long weightBytes) {
+      this.usersListDto = usersListDto;
+      this.weightBytes = weightBytes;
+    }
+  }
+}
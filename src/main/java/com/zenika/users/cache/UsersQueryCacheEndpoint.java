@@ -0,0 +1,21 @@
+package com.zenika.users.cache;
+
+import com.zenika.users.dto.UsersQueryCacheStatsDto;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/** Exposes the {@link UsersQueryCache} statistics on {@code /actuator/userscache}. */
+@Component
+@Endpoint(id = "userscache")
+@AllArgsConstructor
+public class UsersQueryCacheEndpoint {
+
+  private UsersQueryCache usersQueryCache;
+
+  @ReadOperation
+  public UsersQueryCacheStatsDto stats() {
+    return usersQueryCache.getStats();
+  }
+}
@@ -0,0 +1,20 @@
+package com.zenika.users.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/** Normalised {@code GET /v1/users} query, the sort is the validated {@code Sort} as text. */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+@ToString
+public class UsersQueryKey {
+  private final long datasetVersion;
+  private final double minSalary;
+  private final double maxSalary;
+  private final String sort;
+  private final int offset;
+  private final int limit;
+}
@@ -0,0 +1,56 @@
+package com.zenika.users.config;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.zenika.users.dto.UsersDto;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.util.Date;
+
+/**
+ * Smile ({@code application/x-jackson-smile}) and CBOR ({@code application/cbor}) responses for
+ * clients asking for them in {@code Accept}. The converters replace the Spring MVC defaults in
+ * place, after the JSON one, so JSON stays the default.
+ */
+@Configuration
+public class UsersBinaryFormatsConfiguration {
+
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(
+      Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder) {
+    return new MappingJackson2SmileHttpMessageConverter(
+        binaryObjectMapper(jackson2ObjectMapperBuilder, new SmileFactory()));
+  }
+
+  @Bean
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(
+      Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder) {
+    return new MappingJackson2CborHttpMessageConverter(
+        binaryObjectMapper(jackson2ObjectMapperBuilder, new CBORFactory()));
+  }
+
+  /** Object mapper of a binary format, with the {@code spring.jackson} settings of JSON. */
+  public static ObjectMapper binaryObjectMapper(
+      Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder, JsonFactory jsonFactory) {
+    return jackson2ObjectMapperBuilder
+        .factory(jsonFactory)
+        .mixIn(UsersDto.class, BinaryUsersDtoMixIn.class)
+        .build();
+  }
+
+  /**
+   * Writes the start date as epoch milliseconds rather than formatting it as {@code yyyy-MM-dd},
+   * which takes most of the time spent encoding a user.
+   */
+  private abstract static class BinaryUsersDtoMixIn {
+    @JsonFormat(shape = JsonFormat.Shape.NUMBER)
+    private Date startDate;
+  }
+}
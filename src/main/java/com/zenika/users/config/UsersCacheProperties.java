@@ -0,0 +1,23 @@
+package com.zenika.users.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties(prefix = "users.cache")
+@Getter
+@Setter
+@ToString
+public class UsersCacheProperties {
+
+  /** Cache the results of offset based {@code GET /v1/users} queries between uploads. */
+  private boolean enabled = true;
+
+  /** Maximum number of cached query results. */
+  private int maxEntries = 1000;
+
+  /** Maximum estimated heap size of all cached query results together. */
+  private DataSize maxWeight = DataSize.ofMegabytes(64);
+}
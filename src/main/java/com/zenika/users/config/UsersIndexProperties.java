@@ -0,0 +1,16 @@
+package com.zenika.users.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "users.index")
+@Getter
+@Setter
+@ToString
+public class UsersIndexProperties {
+
+  /** Serve offset based salary range queries from an in-memory copy of the users table. */
+  private boolean enabled = false;
+}
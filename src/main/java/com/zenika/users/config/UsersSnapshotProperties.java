@@ -0,0 +1,22 @@
+package com.zenika.users.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@ConfigurationProperties(prefix = "users.snapshot")
+@Getter
+@Setter
+@ToString
+public class UsersSnapshotProperties {
+
+  /** Write a snapshot of the users table after every upload and load it at startup. */
+  private boolean enabled = false;
+
+  /** Snapshot file, replaced atomically on every write. */
+  private Path file = Paths.get("users.snapshot");
+}
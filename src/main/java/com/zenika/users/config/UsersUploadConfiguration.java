@@ -0,0 +1,18 @@
+package com.zenika.users.config;
+
+import com.zenika.users.utils.ParallelUsersCsvParser;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class UsersUploadConfiguration {
+
+  @Bean(destroyMethod = "close")
+  public ParallelUsersCsvParser parallelUsersCsvParser(
+      UsersUploadProperties usersUploadProperties) {
+    return new ParallelUsersCsvParser(
+        usersUploadProperties.getParallelism(),
+        Math.toIntExact(usersUploadProperties.getParallelThreshold().toBytes()),
+        usersUploadProperties.getParallelSegmentSize().toBytes());
+  }
+}
@@ -0,0 +1,78 @@
+package com.zenika.users.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "users.upload")
+@Getter
+@Setter
+@ToString
+public class UsersUploadProperties {
+
+  /** Number of csv rows parsed, validated, mapped and persisted together. */
+  private int chunkSize = 1000;
+
+  /** Number of upsert statements sent to the database in a single JDBC batch. */
+  private int batchSize = 500;
+
+  /** Parser used to convert the uploaded csv content to users. */
+  private CsvParserType parser = CsvParserType.OPENCSV;
+
+  /** Number of threads parsing a large upload when the parallel parser is used. */
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /** Uploads smaller than this are parsed on the request thread by the parallel parser. */
+  private DataSize parallelThreshold = DataSize.ofMegabytes(8);
+
+  /** Minimum size of the line aligned ranges of a large upload parsed in parallel. */
+  private DataSize parallelSegmentSize = DataSize.ofMegabytes(1);
+
+  /**
+   * Leave out rows identical to the stored user before probing or writing the database, comparing
+   * content hashes kept in memory. Only enable it when uploads of this instance are the single
+   * writer of the users table: the hashes do not see other writes (H2 console, SQL scripts, other
+   * instances), after which re-uploading the corrected rows would be skipped as unchanged.
+   */
+  private boolean skipUnchanged = false;
+
+  /**
+   * How long an upload waits for users locked by a concurrent upload before failing with {@code
+   * 409 Conflict}.
+   */
+  private Duration lockTimeout = Duration.ofSeconds(10);
+
+  /** Asynchronous upload jobs, see {@code POST /v1/users/upload?async=true}. */
+  private final Jobs jobs = new Jobs();
+
+  public enum CsvParserType {
+    /** OpenCSV bean binding through {@code CsvToBeanConverter}. */
+    OPENCSV,
+    /** Specialised parser for the users schema, {@code UsersCsvParser}. */
+    HAND_WRITTEN,
+    /** {@code UsersCsvParser} run over ranges of large uploads, {@code ParallelUsersCsvParser}. */
+    PARALLEL
+  }
+
+  @Getter
+  @Setter
+  @ToString
+  public static class Jobs {
+
+    /** Number of upload jobs processed at the same time. */
+    private int threads = 2;
+
+    /** Number of upload jobs waiting for a thread before new jobs are rejected. */
+    private int queueCapacity = 8;
+
+    /** Directory the uploaded files are spooled to until their job completes. */
+    private String directory = System.getProperty("java.io.tmpdir");
+
+    /** How long the status of a completed job can still be polled. */
+    private Duration retention = Duration.ofHours(1);
+  }
+}
@@ -2,16 +2,31 @@ package com.zenika.users.controller;
 
 import com.zenika.users.dto.ResponseMessage;
 import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.dto.UploadSessionDto;
 import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.service.UploadJobService;
+import com.zenika.users.service.UploadSessionService;
 import com.zenika.users.service.UserService;
+import com.zenika.users.utils.CsvCompression;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/v1/users")
@@ -19,13 +34,34 @@ import java.io.IOException;
 @AllArgsConstructor
 public class UsersControllerV1 {
 
+  private static final String TEXT_CSV_VALUE = "text/csv;charset=UTF-8";
+  private static final String EXPORT_FILE_NAME = "users.csv";
+  private static final String GZIP = "gzip";
+
   private UserService userService;
+  private UploadJobService uploadJobService;
+  private UploadSessionService uploadSessionService;
 
   @PostMapping("/upload")
-  public ResponseEntity<?> uploadUsers(@RequestParam("file") MultipartFile file) {
+  public ResponseEntity<?> uploadUsers(
+      @RequestParam("file") MultipartFile file,
+      @RequestParam(required = false, defaultValue = "false") boolean async) {
     log.info("User file upload request received");
     try {
-      SimpleResponseDto simpleResponseDto = userService.uploadUsers(file.getInputStream());
+      CsvCompression compression = CsvCompression.of(null, file.getContentType());
+      if (async) {
+        UploadJobDto uploadJobDto =
+            uploadJobService.submitUpload(file.getInputStream(), compression);
+        return ResponseEntity.accepted()
+            .location(
+                ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/v1/users/upload/jobs/{jobId}")
+                    .buildAndExpand(uploadJobDto.getJobId())
+                    .toUri())
+            .body(uploadJobDto);
+      }
+      SimpleResponseDto simpleResponseDto =
+          userService.uploadUsers(compression.decompress(file.getInputStream()));
       return new ResponseEntity<>(
           simpleResponseDto, simpleResponseDto.getMessage().getResponseStatus());
     } catch (IOException ex) {
@@ -36,15 +72,210 @@ public class UsersControllerV1 {
     }
   }
 
+  @GetMapping("/upload/jobs/{jobId}")
+  public ResponseEntity<?> fetchUploadJob(@PathVariable String jobId) {
+    return uploadJobService
+        .getUploadJob(jobId)
+        .<ResponseEntity<?>>map(uploadJobDto -> new ResponseEntity<>(uploadJobDto, HttpStatus.OK))
+        .orElseGet(
+            () ->
+                new ResponseEntity<>(
+                    new SimpleResponseDto(ResponseMessage.UPLOAD_JOB_NOT_FOUND, jobId),
+                    ResponseMessage.UPLOAD_JOB_NOT_FOUND.getResponseStatus()));
+  }
+
+  @PostMapping("/upload/sessions")
+  public ResponseEntity<UploadSessionDto> createUploadSession() {
+    UploadSessionDto uploadSessionDto = uploadSessionService.createSession();
+    return ResponseEntity.created(
+            ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/v1/users/upload/sessions/{sessionId}")
+                .buildAndExpand(uploadSessionDto.getSessionId())
+                .toUri())
+        .body(uploadSessionDto);
+  }
+
+  @GetMapping("/upload/sessions/{sessionId}")
+  public ResponseEntity<?> fetchUploadSession(@PathVariable String sessionId) {
+    return uploadSessionService
+        .getSession(sessionId)
+        .<ResponseEntity<?>>map(
+            uploadSessionDto -> new ResponseEntity<>(uploadSessionDto, HttpStatus.OK))
+        .orElseGet(
+            () ->
+                new ResponseEntity<>(
+                    new SimpleResponseDto(ResponseMessage.UPLOAD_SESSION_NOT_FOUND, sessionId),
+                    ResponseMessage.UPLOAD_SESSION_NOT_FOUND.getResponseStatus()));
+  }
+
+  /**
+   * Stages the csv content of the request body, which starts at byte {@code offset} of the file.
+   * Offsets count the bytes of the inflated file when the body is compressed. On failure, the
+   * session keeps the rows staged up to its checkpoint, fetch it to resume.
+   */
+  @PatchMapping(
+      value = "/upload/sessions/{sessionId}",
+      consumes = {
+        "text/csv",
+        MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        "application/gzip",
+        "application/x-gzip",
+        "application/zlib"
+      })
+  public ResponseEntity<?> appendToUploadSession(
+      @PathVariable String sessionId,
+      @RequestParam(required = false, defaultValue = "0") long offset,
+      HttpServletRequest request) {
+    CsvCompression compression =
+        CsvCompression.of(
+            request.getHeader(HttpHeaders.CONTENT_ENCODING), request.getContentType());
+    try {
+      return new ResponseEntity<>(
+          uploadSessionService.appendToSession(
+              sessionId, offset, compression.decompress(request.getInputStream())),
+          HttpStatus.OK);
+    } catch (IOException ex) {
+      log.error("Error occurred during reading the upload session content", ex);
+      return new ResponseEntity<>(
+          new SimpleResponseDto(ResponseMessage.FILE_READ_ERROR, ex.getMessage()),
+          ResponseMessage.FILE_READ_ERROR.getResponseStatus());
+    }
+  }
+
+  @PostMapping("/upload/sessions/{sessionId}/publish")
+  public ResponseEntity<SimpleResponseDto> publishUploadSession(@PathVariable String sessionId) {
+    SimpleResponseDto simpleResponseDto = uploadSessionService.publishSession(sessionId);
+    return new ResponseEntity<>(
+        simpleResponseDto, simpleResponseDto.getMessage().getResponseStatus());
+  }
+
+  @DeleteMapping("/upload/sessions/{sessionId}")
+  public ResponseEntity<Void> abortUploadSession(@PathVariable String sessionId) {
+    uploadSessionService.abortSession(sessionId);
+    return ResponseEntity.noContent().build();
+  }
+
+  @GetMapping(params = "stream=true")
+  public void streamUsers(
+      @RequestParam(required = false, defaultValue = "0") double minSalary,
+      @RequestParam(required = false, defaultValue = "4000") double maxSalary,
+      @RequestParam(required = false, defaultValue = "0") int offset,
+      @RequestParam(required = false, defaultValue = "0") int limit,
+      @RequestParam(required = false, defaultValue = "id,asc") String[] sortBy,
+      HttpServletResponse response)
+      throws IOException {
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    userService.writeUsers(
+        minSalary, maxSalary, offset, limit, sortBy, response.getOutputStream());
+  }
+
+  /**
+   * Streams the users in the salary range as an upload file, gzip compressed when {@code
+   * Accept-Encoding} accepts it. Nothing is buffered beyond the writer, so memory use does not
+   * grow with the data.
+   */
+  @GetMapping("/export")
+  public void exportUsers(
+      @RequestParam(required = false, defaultValue = "0") double minSalary,
+      @RequestParam(required = false, defaultValue = "Infinity") double maxSalary,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      HttpServletResponse response)
+      throws IOException {
+    response.setContentType(TEXT_CSV_VALUE);
+    response.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.attachment().filename(EXPORT_FILE_NAME).build().toString());
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (acceptsGzip(acceptEncoding)) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+      try (GZIPOutputStream gzipOutputStream =
+          new GZIPOutputStream(response.getOutputStream(), 8192)) {
+        userService.exportUsers(minSalary, maxSalary, gzipOutputStream);
+      }
+    } else {
+      userService.exportUsers(minSalary, maxSalary, response.getOutputStream());
+    }
+  }
+
+  /**
+   * Answers {@code If-None-Match} with {@code 304} while no upload committed since the tag was
+   * issued, before the users are queried. The users are encoded as JSON, Smile or CBOR depending
+   * on {@code Accept}, so tags differ per {@code Accept} header. With {@code fields}, only the
+   * named fields are read from the database and returned.
+   */
   @GetMapping
   public ResponseEntity<?> fetchUsers(
       @RequestParam(required = false, defaultValue = "0") double minSalary,
       @RequestParam(required = false, defaultValue = "4000") double maxSalary,
       @RequestParam(required = false, defaultValue = "0") int offset,
       @RequestParam(required = false, defaultValue = "0") int limit,
-      @RequestParam(required = false, defaultValue = "id,asc") String[] sortBy
+      @RequestParam(required = false, defaultValue = "id,asc") String[] sortBy,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) String[] fields,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      WebRequest webRequest,
+      HttpServletResponse response
       ) {
-    UsersListDto usersListDto = userService.getUsers(minSalary, maxSalary, offset, limit, sortBy);
+    if (cursor != null && offset != 0) {
+      throw new InvalidUserDataException("offset cannot be combined with cursor");
+    }
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    String eTag =
+        userService.getUsersETag(
+            minSalary, maxSalary, offset, limit, sortBy, cursor, fields, accept);
+    if (webRequest.checkNotModified(eTag)) {
+      return null;
+    }
+    if (fields != null) {
+      return new ResponseEntity<>(
+          userService.getUsersFields(minSalary, maxSalary, offset, limit, sortBy, cursor, fields),
+          HttpStatus.OK);
+    }
+    UsersListDto usersListDto;
+    if (cursor != null) {
+      usersListDto = userService.getUsersAfterCursor(minSalary, maxSalary, limit, sortBy, cursor);
+    } else {
+      usersListDto = userService.getUsers(minSalary, maxSalary, offset, limit, sortBy);
+    }
     return new ResponseEntity<>(usersListDto, HttpStatus.OK);
   }
+
+  /**
+   * Whether {@code Accept-Encoding} gives {@code gzip}, or {@code x-gzip}, or else {@code *}, a
+   * quality value above 0. A coding without {@code q} has a quality of 1, and an invalid one counts
+   * as 0.
+   */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Double gzipQuality = null;
+    double anyQuality = 0;
+    for (String codingAndParameters : acceptEncoding.split(",")) {
+      String[] parts = codingAndParameters.split(";");
+      String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+      double quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String[] nameAndValue = parts[i].split("=", 2);
+        if (nameAndValue[0].trim().equalsIgnoreCase("q")) {
+          quality = qualityValue(nameAndValue.length > 1 ? nameAndValue[1].trim() : "");
+        }
+      }
+      if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+        gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+      } else if (coding.equals("*")) {
+        anyQuality = quality;
+      }
+    }
+    return (gzipQuality != null ? gzipQuality : anyQuality) > 0;
+  }
+
+  private static double qualityValue(String value) {
+    try {
+      double quality = Double.parseDouble(value);
+      return quality >= 0 && quality <= 1 ? quality : 0;
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
 }
@@ -0,0 +1,86 @@
+package com.zenika.users.controller;
+
+import com.zenika.users.dto.ResponseMessage;
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.service.UserService;
+import com.zenika.users.utils.CsvCompression;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Asynchronous variant of {@link UsersControllerV1}. Responses are written and uploads are read on
+ * the {@code spring.task.execution} pool rather than on a servlet container thread, so slow clients
+ * and large responses do not hold the container threads serving other requests.
+ */
+@RestController
+@RequestMapping("/v2/users")
+@Slf4j
+@AllArgsConstructor
+public class UsersControllerV2 {
+
+  private UserService userService;
+
+  /**
+   * Reads the csv file from the request body as it arrives instead of a buffered multipart file,
+   * with {@code Content-Type: text/csv}. Gzip and deflate files are inflated as they arrive, see
+   * {@link CsvCompression}.
+   */
+  @PostMapping(
+      value = "/upload",
+      consumes = {
+        "text/csv",
+        MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        "application/gzip",
+        "application/x-gzip",
+        "application/zlib"
+      })
+  public Callable<ResponseEntity<SimpleResponseDto>> uploadUsers(HttpServletRequest request) {
+    log.info("User streamed upload request received");
+    CsvCompression compression =
+        CsvCompression.of(
+            request.getHeader(HttpHeaders.CONTENT_ENCODING), request.getContentType());
+    return () -> {
+      try {
+        SimpleResponseDto simpleResponseDto =
+            userService.uploadUsers(compression.decompress(request.getInputStream()));
+        return new ResponseEntity<>(
+            simpleResponseDto, simpleResponseDto.getMessage().getResponseStatus());
+      } catch (IOException ex) {
+        log.error("Error occurred during reading the incoming request body", ex);
+        return new ResponseEntity<>(
+            new SimpleResponseDto(ResponseMessage.FILE_READ_ERROR, ex.getMessage()),
+            ResponseMessage.FILE_READ_ERROR.getResponseStatus());
+      }
+    };
+  }
+
+  /**
+   * Streams the same users as {@code GET /v1/users} as newline delimited JSON, one user per line.
+   * Rows are read from the database cursor only as fast as the client consumes them. Invalid
+   * parameters are rejected with {@code 400} before the response starts.
+   */
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> fetchUsers(
+      @RequestParam(required = false, defaultValue = "0") double minSalary,
+      @RequestParam(required = false, defaultValue = "4000") double maxSalary,
+      @RequestParam(required = false, defaultValue = "0") int offset,
+      @RequestParam(required = false, defaultValue = "0") int limit,
+      @RequestParam(required = false, defaultValue = "id,asc") String[] sortBy) {
+    userService.validateUsersQuery(offset, sortBy);
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .body(
+            outputStream ->
+                userService.writeUsersAsNdjson(
+                    minSalary, maxSalary, offset, limit, sortBy, outputStream));
+  }
+}
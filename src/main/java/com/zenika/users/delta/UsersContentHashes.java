@@ -0,0 +1,140 @@
+package com.zenika.users.delta;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.utils.Hashes;
+import com.zenika.users.utils.LongHashTable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers a 64 bit hash of the {@code login|name|salary|startDate} content of every stored user,
+ * keyed on a 64 bit hash of its id, when {@code users.upload.skip-unchanged} is set. Uploads use
+ * it to leave out rows identical to the stored user before probing or writing the database.
+ *
+ * <p>The hashes are read from the users table once the application is ready. Hashes of users
+ * written by an upload are kept aside and only applied when its transaction commits, so a rolled
+ * back upload never hides changes from the next one. Uploads of this instance must be the only
+ * writers of the users table after startup, which is why the property is off by default.
+ */
+@Component
+@Slf4j
+public class UsersContentHashes {
+
+  private final UsersRepository usersRepository;
+  private final UsersUploadProperties usersUploadProperties;
+  private LongHashTable contentHashes = new LongHashTable();
+
+  public UsersContentHashes(
+      UsersRepository usersRepository, UsersUploadProperties usersUploadProperties) {
+    this.usersRepository = usersRepository;
+    this.usersUploadProperties = usersUploadProperties;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    if (usersUploadProperties.isSkipUnchanged()) {
+      rebuild();
+    }
+  }
+
+  /** Reads the hashes of every stored user, replacing the known ones. */
+  public synchronized void rebuild() {
+    long startTime = System.nanoTime();
+    LongHashTable rebuiltContentHashes =
+        new LongHashTable(Math.toIntExact(usersRepository.count()));
+    usersRepository.forEachUser(
+        users -> rebuiltContentHashes.put(idHash(users.getId()), contentHash(users)));
+    contentHashes = rebuiltContentHashes;
+    log.info(
+        "Users content hashes rebuilt with {} users in {} ms",
+        contentHashes.size(),
+        (System.nanoTime() - startTime) / 1_000_000);
+  }
+
+  /**
+   * Returns the users whose content differs from the stored user or which are not stored yet, in
+   * their original order. Every user is returned when {@code users.upload.skip-unchanged} is off.
+   */
+  public List<Users> filterChanged(List<Users> usersList) {
+    if (!usersUploadProperties.isSkipUnchanged()) {
+      return usersList;
+    }
+    List<Users> changedUsers = new ArrayList<>(usersList.size());
+    synchronized (this) {
+      for (Users users : usersList) {
+        if (contentHashes.get(idHash(users.getId())) != contentHash(users)) {
+          changedUsers.add(users);
+        }
+      }
+    }
+    return changedUsers;
+  }
+
+  /**
+   * Records the content of users written to the database. Inside a transaction, the hashes are
+   * applied once it commits and dropped if it rolls back.
+   */
+  public void recordWritten(List<Users> usersList) {
+    if (!usersUploadProperties.isSkipUnchanged() || usersList.isEmpty()) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      LongHashTable writtenHashes = new LongHashTable(usersList.size());
+      usersList.forEach(users -> writtenHashes.put(idHash(users.getId()), contentHash(users)));
+      apply(writtenHashes);
+      return;
+    }
+    LongHashTable pendingHashes = pendingHashes();
+    usersList.forEach(users -> pendingHashes.put(idHash(users.getId()), contentHash(users)));
+  }
+
+  private LongHashTable pendingHashes() {
+    LongHashTable pendingHashes =
+        (LongHashTable) TransactionSynchronizationManager.getResource(this);
+    if (pendingHashes == null) {
+      LongHashTable transactionHashes = new LongHashTable();
+      TransactionSynchronizationManager.bindResource(this, transactionHashes);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              apply(transactionHashes);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResource(UsersContentHashes.this);
+            }
+          });
+      pendingHashes = transactionHashes;
+    }
+    return pendingHashes;
+  }
+
+  private synchronized void apply(LongHashTable writtenHashes) {
+    contentHashes.putAll(writtenHashes);
+  }
+
+  /** Never {@code 0}, which marks an empty slot of {@link LongHashTable}. */
+  static long idHash(String id) {
+    return Hashes.finish(Hashes.update(Hashes.SEED, id));
+  }
+
+  /** Never {@code 0}, which {@link LongHashTable#get} returns for unknown users. */
+  static long contentHash(Users users) {
+    long hash = Hashes.update(Hashes.SEED, users.getLogin());
+    hash = Hashes.update(hash, users.getName());
+    hash = Hashes.update(hash, Double.doubleToLongBits(users.getSalary()));
+    hash = Hashes.update(hash, users.getStartDate() == null ? 0 : users.getStartDate().getTime());
+    return Hashes.finish(hash);
+  }
+}
@@ -12,7 +12,12 @@ public enum ResponseMessage {
   USERS_CREATED("Users successfully created", HttpStatus.CREATED),
   USERS_UPDATED("Users successfully updated", HttpStatus.OK),
   ERROR_OCCURRED_BAD_INPUT("Error occurred due to bad input", HttpStatus.BAD_REQUEST),
-  FILE_READ_ERROR("Error occurred during reading the incoming file", HttpStatus.BAD_REQUEST);
+  FILE_READ_ERROR("Error occurred during reading the incoming file", HttpStatus.BAD_REQUEST),
+  UPLOAD_JOB_NOT_FOUND("Upload job not found", HttpStatus.NOT_FOUND),
+  UPLOAD_JOBS_BUSY("Too many upload jobs in progress", HttpStatus.SERVICE_UNAVAILABLE),
+  UPLOAD_CONFLICT("Users are being written by a concurrent upload", HttpStatus.CONFLICT),
+  UPLOAD_SESSION_NOT_FOUND("Upload session not found", HttpStatus.NOT_FOUND),
+  INTERNAL_ERROR("Error occurred on the server", HttpStatus.INTERNAL_SERVER_ERROR);
 
   @Getter(onMethod_ = @JsonValue)
   private String message;
@@ -15,6 +15,19 @@ public class SimpleResponseDto {
   @JsonInclude(Include.NON_NULL)
   String errorDetails;
 
+  @JsonInclude(Include.NON_NULL)
+  Long created;
+
+  @JsonInclude(Include.NON_NULL)
+  Long updated;
+
+  @JsonInclude(Include.NON_NULL)
+  Long unchanged;
+
+  /** Unchanged users found by their content hash and never sent to the database. */
+  @JsonInclude(Include.NON_NULL)
+  Long skipped;
+
   public SimpleResponseDto(ResponseMessage message) {
     this.message = message;
   }
@@ -23,4 +36,17 @@ public class SimpleResponseDto {
     this.message = message;
     this.errorDetails = errorDetails;
   }
+
+  public SimpleResponseDto(ResponseMessage message, long created, long updated, long unchanged) {
+    this.message = message;
+    this.created = created;
+    this.updated = updated;
+    this.unchanged = unchanged;
+  }
+
+  public SimpleResponseDto(
+      ResponseMessage message, long created, long updated, long unchanged, long skipped) {
+    this(message, created, updated, unchanged);
+    this.skipped = skipped;
+  }
 }
@@ -0,0 +1,21 @@
+package com.zenika.users.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public class UploadJobDto {
+  private String jobId;
+  private UploadJobState state;
+  private long rowsParsed;
+  private long rowsSaved;
+  private long rowsPerSecond;
+
+  @JsonInclude(Include.NON_NULL)
+  private SimpleResponseDto result;
+}
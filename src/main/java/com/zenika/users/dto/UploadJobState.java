@@ -0,0 +1,8 @@
+package com.zenika.users.dto;
+
+public enum UploadJobState {
+  QUEUED,
+  RUNNING,
+  SUCCEEDED,
+  FAILED
+}
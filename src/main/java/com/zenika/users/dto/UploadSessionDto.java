@@ -0,0 +1,18 @@
+package com.zenika.users.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public class UploadSessionDto {
+  private String sessionId;
+  private UploadSessionState state;
+
+  /** Byte offset of the file to resume the upload from. */
+  private long byteOffset;
+
+  private long rowsStaged;
+}
@@ -0,0 +1,6 @@
+package com.zenika.users.dto;
+
+public enum UploadSessionState {
+  OPEN,
+  PUBLISHED
+}
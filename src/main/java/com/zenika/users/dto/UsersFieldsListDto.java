@@ -0,0 +1,26 @@
+package com.zenika.users.dto;
+
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.*;
+
+import java.util.List;
+import java.util.Map;
+
+/** Users holding only the fields selected with {@code fields}, in the order they were asked for. */
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+public class UsersFieldsListDto {
+  private List<Map<String, Object>> results;
+
+  @JsonInclude(Include.NON_NULL)
+  private String nextCursor;
+
+  public UsersFieldsListDto(List<Map<String, Object>> results) {
+    this.results = results;
+  }
+}
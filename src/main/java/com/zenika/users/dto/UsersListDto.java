@@ -1,6 +1,8 @@
 package com.zenika.users.dto;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import lombok.*;
 
 import java.util.List;
@@ -12,4 +14,11 @@ import java.util.List;
 @NoArgsConstructor
 public class UsersListDto {
   private List<UsersDto> results;
+
+  @JsonInclude(Include.NON_NULL)
+  private String nextCursor;
+
+  public UsersListDto(List<UsersDto> results) {
+    this.results = results;
+  }
 }
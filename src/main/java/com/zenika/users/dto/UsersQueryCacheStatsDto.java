@@ -0,0 +1,18 @@
+package com.zenika.users.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public class UsersQueryCacheStatsDto {
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+  private long entries;
+  private long weightBytes;
+  private long datasetVersion;
+}
@@ -0,0 +1,47 @@
+package com.zenika.users.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.io.Serializable;
+import java.util.Date;
+
+/** User staged by an {@link UploadSession}, numbered by its row in the uploaded file. */
+@Entity
+@Table(
+    name = "USERS_STAGING",
+    uniqueConstraints = {
+      @UniqueConstraint(columnNames = {"sessionId", "id"}),
+      @UniqueConstraint(columnNames = {"sessionId", "login"})
+    },
+    indexes = @Index(columnList = "login"))
+@IdClass(StagedUsers.Key.class)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StagedUsers {
+  @Id
+  private String sessionId;
+  @Id
+  private long rowNumber;
+  private String id;
+  private String login;
+  private String name;
+  private double salary;
+  private Date startDate;
+
+  @Data
+  @AllArgsConstructor
+  @NoArgsConstructor
+  public static class Key implements Serializable {
+    private String sessionId;
+    private long rowNumber;
+  }
+}
@@ -0,0 +1,44 @@
+package com.zenika.users.entity;
+
+import com.zenika.users.dto.UploadSessionState;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import java.util.Date;
+
+/**
+ * Checkpoint of a resumable upload. Rows up to {@code byteOffset} of the file are staged in {@link
+ * StagedUsers} and the upload resumes from there with the stored header and line count.
+ */
+@Entity
+@Table(name = "UPLOAD_SESSION")
+@Data
+@NoArgsConstructor
+public class UploadSession {
+  @Id
+  private String id;
+  @Enumerated(EnumType.STRING)
+  private UploadSessionState state;
+  @Column(length = 1024)
+  private String header;
+  private long byteOffset;
+  private long linesRead;
+  private long rowsStaged;
+  private Date updatedAt;
+  /** Detects concurrent appends to the same session. */
+  @Version
+  private long version;
+
+  public UploadSession(String id) {
+    this.id = id;
+    this.state = UploadSessionState.OPEN;
+    this.updatedAt = new Date();
+  }
+}
@@ -10,7 +10,7 @@ import javax.validation.constraints.NotNull;
 import java.util.Date;
 
 @Entity
-@Table(name = "USERS")
+@Table(name = "USERS", indexes = @Index(name = "IDX_USERS_SALARY_ID", columnList = "salary, id"))
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -29,4 +29,32 @@ public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionH
     log.error("Error occurred", ex);
     return new ResponseEntity<>(responseDto, HttpStatus.BAD_REQUEST);
   }
+
+  @ExceptionHandler(UploadJobRejectedException.class)
+  protected ResponseEntity<SimpleResponseDto> handleUploadJobRejectedException(
+      UploadJobRejectedException ex) {
+    SimpleResponseDto responseDto =
+        new SimpleResponseDto(ResponseMessage.UPLOAD_JOBS_BUSY, ex.getMessage());
+    log.info("Upload job rejected", ex);
+    return new ResponseEntity<>(responseDto, ResponseMessage.UPLOAD_JOBS_BUSY.getResponseStatus());
+  }
+
+  @ExceptionHandler(UploadConflictException.class)
+  protected ResponseEntity<SimpleResponseDto> handleUploadConflictException(
+      UploadConflictException ex) {
+    SimpleResponseDto responseDto =
+        new SimpleResponseDto(ResponseMessage.UPLOAD_CONFLICT, ex.getMessage());
+    log.info("Upload conflicted with a concurrent upload", ex);
+    return new ResponseEntity<>(responseDto, ResponseMessage.UPLOAD_CONFLICT.getResponseStatus());
+  }
+
+  @ExceptionHandler(UploadSessionNotFoundException.class)
+  protected ResponseEntity<SimpleResponseDto> handleUploadSessionNotFoundException(
+      UploadSessionNotFoundException ex) {
+    SimpleResponseDto responseDto =
+        new SimpleResponseDto(ResponseMessage.UPLOAD_SESSION_NOT_FOUND, ex.getMessage());
+    log.info("Upload session not found: {}", ex.getMessage());
+    return new ResponseEntity<>(
+        responseDto, ResponseMessage.UPLOAD_SESSION_NOT_FOUND.getResponseStatus());
+  }
 }
@@ -0,0 +1,7 @@
+package com.zenika.users.exception;
+
+public class UploadJobRejectedException extends RuntimeException {
+  public UploadJobRejectedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,7 @@
+package com.zenika.users.exception;
+
+public class UploadSessionNotFoundException extends RuntimeException {
+  public UploadSessionNotFoundException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,119 @@
+package com.zenika.users.index;
+
+import com.zenika.users.cache.DatasetVersion;
+import com.zenika.users.config.UsersIndexProperties;
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UsersUploadedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the current {@link UsersSalaryIndex} when {@code users.index.enabled} is set. The index is
+ * built at startup and rebuilt after every committed upload, then swapped in at once, so queries
+ * always see a complete snapshot.
+ *
+ * <p>Rebuilds after an upload run on a background thread, so that the upload returns as soon as it
+ * commits. Queries are served from the previous index, under the previous {@link DatasetVersion},
+ * until the new index is swapped in and the version incremented. Uploads committed while a rebuild
+ * runs cause one more rebuild, so the last index always includes them.
+ */
+@Component
+@Slf4j
+public class UsersReadModel {
+
+  private final UsersRepository usersRepository;
+  private final UsersIndexProperties usersIndexProperties;
+  private final DatasetVersion datasetVersion;
+  private final ExecutorService rebuildExecutor =
+      Executors.newSingleThreadExecutor(new CustomizableThreadFactory("users-index-"));
+  private final AtomicBoolean rebuildPending = new AtomicBoolean();
+  private volatile UsersSalaryIndex usersSalaryIndex;
+
+  public UsersReadModel(
+      UsersRepository usersRepository,
+      UsersIndexProperties usersIndexProperties,
+      DatasetVersion datasetVersion) {
+    this.usersRepository = usersRepository;
+    this.usersIndexProperties = usersIndexProperties;
+    this.datasetVersion = datasetVersion;
+  }
+
+  /**
+   * Returns the page from the index, or nothing when the index is disabled or not built yet so
+   * that the caller queries the database instead.
+   */
+  public Optional<List<UsersDto>> findBySalaryRange(
+      double minSalary, double maxSalary, Sort sort, int offset, int limit) {
+    UsersSalaryIndex currentIndex = usersSalaryIndex;
+    if (currentIndex == null) {
+      return Optional.empty();
+    }
+    return Optional.of(currentIndex.find(minSalary, maxSalary, sort, offset, limit));
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    if (usersIndexProperties.isEnabled()) {
+      rebuild();
+    }
+  }
+
+  @TransactionalEventListener
+  public void onUsersUploaded(UsersUploadedEvent usersUploadedEvent) {
+    if (usersIndexProperties.isEnabled() && rebuildPending.compareAndSet(false, true)) {
+      rebuildExecutor.execute(this::rebuildAfterUpload);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    rebuildExecutor.shutdownNow();
+  }
+
+  /**
+   * Increments the data set version once the new index is swapped in. A failed rebuild drops the
+   * index rather than keep serving one older than the database, which then answers the queries.
+   */
+  private void rebuildAfterUpload() {
+    rebuildPending.set(false);
+    try {
+      rebuild();
+    } catch (RuntimeException ex) {
+      log.error("Failed to rebuild the users salary index, querying the database instead", ex);
+      usersSalaryIndex = null;
+    }
+    datasetVersion.increment();
+  }
+
+  /** Rebuilds are serialised so that the last one to finish has read the latest commit. */
+  public synchronized void rebuild() {
+    long startTime = System.nanoTime();
+    UsersSalaryIndex.Builder builder = UsersSalaryIndex.builder();
+    usersRepository.forEachUser(
+        users ->
+            builder.add(
+                users.getId(),
+                users.getLogin(),
+                users.getName(),
+                users.getSalary(),
+                users.getStartDate()));
+    usersSalaryIndex = builder.build();
+    log.info(
+        "Users salary index rebuilt with {} users in {} ms",
+        usersSalaryIndex.size(),
+        (System.nanoTime() - startTime) / 1_000_000);
+  }
+}
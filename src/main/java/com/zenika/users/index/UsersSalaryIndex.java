@@ -0,0 +1,314 @@
+package com.zenika.users.index;
+
+import com.zenika.users.dto.UsersDto;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Immutable column oriented copy of the users table answering salary range queries.
+ *
+ * <p>Rows are stored in ascending salary order, so the rows of a salary range are the contiguous
+ * row numbers found by binary search. For every sortable field, a permutation of the rows in
+ * ascending field order and the rank of each row in that order are precomputed. A query walks the
+ * permutation of its first sort field, keeps the rows of the salary range, orders rows with equal
+ * values by the ranks of the remaining sort fields and copies only the requested page.
+ */
+public final class UsersSalaryIndex {
+
+  private static final String[] SORT_FIELDS = {"id", "login", "name", "salary"};
+  private static final int ID = 0;
+  private static final int LOGIN = 1;
+  private static final int NAME = 2;
+  private static final int SALARY = 3;
+
+  /** Ranges smaller than the row count divided by this are sorted instead of filtered. */
+  private static final int SMALL_RANGE_DIVISOR = 16;
+
+  private final int size;
+  private final String[] ids;
+  private final String[] logins;
+  private final String[] names;
+  private final double[] salaries;
+  private final long[] startDates;
+  private final int[][] permutations = new int[SORT_FIELDS.length][];
+  private final int[][] ranks = new int[SORT_FIELDS.length][];
+
+  private UsersSalaryIndex(Builder builder) {
+    size = builder.size;
+    int[] salaryOrder = identity(size);
+    sort(
+        salaryOrder,
+        (first, second) -> {
+          int comparison = Double.compare(builder.salaries[first], builder.salaries[second]);
+          return comparison != 0
+              ? comparison
+              : builder.ids[first].compareTo(builder.ids[second]);
+        });
+    ids = new String[size];
+    logins = new String[size];
+    names = new String[size];
+    salaries = new double[size];
+    startDates = new long[size];
+    for (int row = 0; row < size; row++) {
+      int source = salaryOrder[row];
+      ids[row] = builder.ids[source];
+      logins[row] = builder.logins[source];
+      names[row] = builder.names[source];
+      salaries[row] = builder.salaries[source];
+      startDates[row] = builder.startDates[source];
+    }
+    IntBinaryOperator[] fieldComparators = {
+      (first, second) -> ids[first].compareTo(ids[second]),
+      (first, second) -> logins[first].compareTo(logins[second]),
+      (first, second) -> names[first].compareTo(names[second]),
+      (first, second) -> Double.compare(salaries[first], salaries[second])
+    };
+    for (int field = 0; field < SORT_FIELDS.length; field++) {
+      permutations[field] = field == SALARY ? identity(size) : sortedRows(fieldComparators[field]);
+      ranks[field] = ranks(permutations[field], fieldComparators[field]);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the users with {@code minSalary <= salary < maxSalary} ordered by {@code sort}, skipping
+   * {@code offset} users and returning at most {@code limit} users, or every remaining user when
+   * {@code limit} is 0 or less.
+   */
+  public List<UsersDto> find(double minSalary, double maxSalary, Sort sort, int offset, int limit) {
+    int from = firstRowWithSalaryAtLeast(minSalary);
+    int to = Math.max(from, firstRowWithSalaryAtLeast(maxSalary));
+    int remaining = to - from - offset;
+    if (remaining <= 0) {
+      return new ArrayList<>();
+    }
+    int pageSize = limit > 0 ? Math.min(limit, remaining) : remaining;
+    List<UsersDto> page = new ArrayList<>(pageSize);
+    int[] fields = sort.stream().mapToInt(order -> field(order.getProperty())).toArray();
+    boolean[] descending = new boolean[fields.length];
+    int position = 0;
+    for (Sort.Order order : sort) {
+      descending[position++] = order.isDescending();
+    }
+    if (fields.length == 0) {
+      fields = new int[] {SALARY};
+      descending = new boolean[] {false};
+    }
+    IntBinaryOperator comparator = comparator(fields, descending, 1);
+    if (fields[0] != SALARY && (long) (to - from) * SMALL_RANGE_DIVISOR < size) {
+      int[] rows = identity(to - from);
+      for (int i = 0; i < rows.length; i++) {
+        rows[i] += from;
+      }
+      sort(rows, comparator(fields, descending, 0));
+      for (int i = offset; i < offset + pageSize; i++) {
+        page.add(toUsersDto(rows[i]));
+      }
+      return page;
+    }
+    collectPage(fields[0], descending[0], from, to, offset, pageSize, comparator, page);
+    return page;
+  }
+
+  /**
+   * Walks the permutation of the first sort field, skipping rows outside {@code [from, to)}. Rows
+   * with equal first field values are collected in a group and ordered by {@code tieComparator}
+   * before being skipped or added to the page.
+   */
+  private void collectPage(
+      int field,
+      boolean descending,
+      int from,
+      int to,
+      int offset,
+      int pageSize,
+      IntBinaryOperator tieComparator,
+      List<UsersDto> page) {
+    int[] permutation = permutations[field];
+    int[] rank = ranks[field];
+    int start = field == SALARY ? from : 0;
+    int end = field == SALARY ? to : size;
+    int[] group = new int[16];
+    int groupSize = 0;
+    int skip = offset;
+    for (int i = start; i <= end && page.size() < pageSize; i++) {
+      int row = -1;
+      if (i < end) {
+        row = permutation[descending ? start + end - 1 - i : i];
+        if (row < from || row >= to) {
+          continue;
+        }
+        if (groupSize == 0 || rank[row] == rank[group[0]]) {
+          if (groupSize == group.length) {
+            group = Arrays.copyOf(group, groupSize * 2);
+          }
+          group[groupSize++] = row;
+          continue;
+        }
+      }
+      if (groupSize > 0) {
+        if (skip >= groupSize) {
+          skip -= groupSize;
+        } else {
+          if (groupSize > 1) {
+            sort(group, groupSize, tieComparator);
+          }
+          for (int g = skip; g < groupSize && page.size() < pageSize; g++) {
+            page.add(toUsersDto(group[g]));
+          }
+          skip = 0;
+        }
+      }
+      groupSize = 0;
+      if (row >= 0) {
+        group[groupSize++] = row;
+      }
+    }
+  }
+
+  private IntBinaryOperator comparator(int[] fields, boolean[] descending, int firstField) {
+    return (first, second) -> {
+      for (int i = firstField; i < fields.length; i++) {
+        int[] rank = ranks[fields[i]];
+        int comparison = Integer.compare(rank[first], rank[second]);
+        if (comparison != 0) {
+          return descending[i] ? -comparison : comparison;
+        }
+      }
+      return Integer.compare(first, second);
+    };
+  }
+
+  private int firstRowWithSalaryAtLeast(double salary) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (salaries[middle] < salary) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private UsersDto toUsersDto(int row) {
+    return new UsersDto(ids[row], logins[row], names[row], salaries[row], new Date(startDates[row]));
+  }
+
+  private int[] sortedRows(IntBinaryOperator comparator) {
+    int[] rows = identity(size);
+    sort(rows, comparator);
+    return rows;
+  }
+
+  private static int field(String property) {
+    for (int field = 0; field < SORT_FIELDS.length; field++) {
+      if (SORT_FIELDS[field].equals(property)) {
+        return field;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported sort field " + property);
+  }
+
+  /** Position of each row in the permutation, shared by rows with equal values. */
+  private static int[] ranks(int[] permutation, IntBinaryOperator comparator) {
+    int[] rank = new int[permutation.length];
+    for (int i = 1; i < permutation.length; i++) {
+      int row = permutation[i];
+      int previousRow = permutation[i - 1];
+      rank[row] = comparator.applyAsInt(row, previousRow) == 0 ? rank[previousRow] : i;
+    }
+    return rank;
+  }
+
+  private static int[] identity(int length) {
+    int[] rows = new int[length];
+    for (int i = 0; i < length; i++) {
+      rows[i] = i;
+    }
+    return rows;
+  }
+
+  private static void sort(int[] rows, IntBinaryOperator comparator) {
+    sort(rows, rows.length, comparator);
+  }
+
+  /** Stable merge sort of the first {@code length} rows, avoiding boxing to {@code Integer}. */
+  private static void sort(int[] rows, int length, IntBinaryOperator comparator) {
+    int[] source = rows;
+    int[] target = new int[length];
+    for (int width = 1; width < length; width *= 2) {
+      for (int low = 0; low < length; low += 2 * width) {
+        int middle = Math.min(low + width, length);
+        int high = Math.min(low + 2 * width, length);
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++) {
+          if (left < middle
+              && (right >= high || comparator.applyAsInt(source[left], source[right]) <= 0)) {
+            target[i] = source[left++];
+          } else {
+            target[i] = source[right++];
+          }
+        }
+      }
+      int[] swap = source;
+      source = target;
+      target = swap;
+    }
+    if (source != rows) {
+      System.arraycopy(source, 0, rows, 0, length);
+    }
+  }
+
+  /** Collects users in insertion order. Equal names share a single string instance. */
+  public static final class Builder {
+    private final Map<String, String> internedNames = new HashMap<>();
+    private int size;
+    private String[] ids = new String[1024];
+    private String[] logins = new String[1024];
+    private String[] names = new String[1024];
+    private double[] salaries = new double[1024];
+    private long[] startDates = new long[1024];
+
+    private Builder() {}
+
+    public Builder add(String id, String login, String name, double salary, Date startDate) {
+      if (size == ids.length) {
+        int capacity = size * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        logins = Arrays.copyOf(logins, capacity);
+        names = Arrays.copyOf(names, capacity);
+        salaries = Arrays.copyOf(salaries, capacity);
+        startDates = Arrays.copyOf(startDates, capacity);
+      }
+      ids[size] = id;
+      logins[size] = login;
+      names[size] = internedNames.computeIfAbsent(name, key -> key);
+      salaries[size] = salary;
+      startDates[size] = startDate.getTime();
+      size++;
+      return this;
+    }
+
+    public UsersSalaryIndex build() {
+      return new UsersSalaryIndex(this);
+    }
+  }
+}
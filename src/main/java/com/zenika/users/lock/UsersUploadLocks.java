@@ -0,0 +1,157 @@
+package com.zenika.users.lock;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.exception.UploadConflictException;
+import com.zenika.users.utils.Hashes;
+import com.zenika.users.utils.LongHashTable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialises uploads writing the same users while uploads of unrelated users run in parallel.
+ *
+ * <p>Each upload locks the 64 bit hashes of the ids and logins of a chunk before checking and
+ * writing it, and keeps them until its transaction completes. An upload touching an id or login
+ * locked by another one waits for that upload to commit or roll back, then sees its rows, so the
+ * unique login is never violated by two uploads racing and created and updated counts stay exact.
+ * Only the hashes are kept, in a {@link LongHashTable} of 32 to 64 bytes per locked key.
+ *
+ * <p>Two uploads locking the same keys in a different order across chunks would wait for each
+ * other forever. The upload that would close such a cycle fails at once with an {@link
+ * UploadConflictException} and rolls back, releasing its keys for the others. An upload waiting for
+ * longer than {@code users.upload.lock-timeout} fails the same way.
+ */
+@Component
+@Slf4j
+public class UsersUploadLocks {
+
+  private static final long ID_SEED = Hashes.update(Hashes.SEED, "id");
+  private static final long LOGIN_SEED = Hashes.update(Hashes.SEED, "login");
+
+  private final UsersUploadProperties usersUploadProperties;
+  private final List<UploadKeys> activeUploads = new ArrayList<>();
+
+  public UsersUploadLocks(UsersUploadProperties usersUploadProperties) {
+    this.usersUploadProperties = usersUploadProperties;
+  }
+
+  /**
+   * Locks the ids and logins of the users until the current transaction completes, waiting for
+   * concurrent uploads holding any of them. Outside of a transaction there is nothing to hold the
+   * locks until, so nothing is locked.
+   *
+   * @throws UploadConflictException if waiting would deadlock or lasts longer than {@code
+   *     users.upload.lock-timeout}
+   */
+  public void lockForTransaction(List<Users> usersList) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+    UploadKeys uploadKeys = uploadKeys();
+    long[] keys = new long[usersList.size() * 2];
+    for (int i = 0; i < usersList.size(); i++) {
+      keys[2 * i] = Hashes.finish(Hashes.update(ID_SEED, usersList.get(i).getId()));
+      keys[2 * i + 1] = Hashes.finish(Hashes.update(LOGIN_SEED, usersList.get(i).getLogin()));
+    }
+    long deadline = System.nanoTime() + usersUploadProperties.getLockTimeout().toNanos();
+    synchronized (this) {
+      try {
+        UploadKeys owner;
+        while ((owner = findOwner(keys, uploadKeys)) != null) {
+          if (waitsFor(owner, uploadKeys)) {
+            log.info("Upload would deadlock with a concurrent upload writing the same users");
+            throw conflict();
+          }
+          long remainingNanos = deadline - System.nanoTime();
+          if (remainingNanos <= 0) {
+            log.info(
+                "Upload gave up waiting {} for users locked by a concurrent upload",
+                usersUploadProperties.getLockTimeout());
+            throw conflict();
+          }
+          uploadKeys.waitingFor = owner;
+          TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw conflict();
+      } finally {
+        uploadKeys.waitingFor = null;
+      }
+      for (long key : keys) {
+        uploadKeys.keys.put(key, 1);
+      }
+    }
+  }
+
+  private UploadKeys uploadKeys() {
+    UploadKeys uploadKeys = (UploadKeys) TransactionSynchronizationManager.getResource(this);
+    if (uploadKeys == null) {
+      UploadKeys transactionKeys = new UploadKeys();
+      synchronized (this) {
+        activeUploads.add(transactionKeys);
+      }
+      TransactionSynchronizationManager.bindResource(this, transactionKeys);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResource(UsersUploadLocks.this);
+              release(transactionKeys);
+            }
+          });
+      uploadKeys = transactionKeys;
+    }
+    return uploadKeys;
+  }
+
+  private synchronized void release(UploadKeys uploadKeys) {
+    activeUploads.remove(uploadKeys);
+    notifyAll();
+  }
+
+  /** Returns a concurrent upload holding one of the keys. Called holding the monitor. */
+  private UploadKeys findOwner(long[] keys, UploadKeys uploadKeys) {
+    for (UploadKeys activeUpload : activeUploads) {
+      if (activeUpload != uploadKeys) {
+        for (long key : keys) {
+          if (activeUpload.keys.containsKey(key)) {
+            return activeUpload;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether {@code owner} waits for {@code uploadKeys}, directly or through other uploads. Called
+   * holding the monitor. Cycles are refused as soon as they would form, so the chain always ends.
+   */
+  private static boolean waitsFor(UploadKeys owner, UploadKeys uploadKeys) {
+    for (UploadKeys waiting = owner; waiting != null; waiting = waiting.waitingFor) {
+      if (waiting == uploadKeys) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static UploadConflictException conflict() {
+    return new UploadConflictException(
+        "Users of this file are being written by a concurrent upload, retry later");
+  }
+
+  /** Keys locked by the upload of one transaction. Guarded by the {@link UsersUploadLocks}. */
+  private static final class UploadKeys {
+    private final LongHashTable keys = new LongHashTable();
+    private UploadKeys waitingFor;
+  }
+}
@@ -1,5 +1,6 @@
 package com.zenika.users.mapper;
 
+import com.zenika.users.dto.UsersDto;
 import com.zenika.users.dto.UsersListDto;
 import com.zenika.users.entity.Users;
 import org.mapstruct.Mapper;
@@ -15,5 +16,8 @@ public interface UsersToUsersListDtoMapper {
   }
 
   @Mapping(source = "users", target = "results")
+  @Mapping(target = "nextCursor", ignore = true)
   UsersListDto mapToUsersListDto(Integer dummy, List<Users> users);
+
+  UsersDto mapToUsersDto(Users users);
 }
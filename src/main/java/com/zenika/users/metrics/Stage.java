@@ -0,0 +1,27 @@
+package com.zenika.users.metrics;
+
+/** Timed stages of uploading and fetching users. */
+public enum Stage {
+  PARSE("parse"),
+  VALIDATE("validate"),
+  MAP("map"),
+  DUPLICATE_CHECK("duplicate-check"),
+  LOCK_WAIT("lock-wait"),
+  DELTA_CHECK("delta-check"),
+  LOGIN_CHECK("login-check"),
+  SPOOL("spool"),
+  EXISTENCE_PROBE("existence-probe"),
+  SAVE("save"),
+  INDEX("index"),
+  QUERY("query");
+
+  private final String tagValue;
+
+  Stage(String tagValue) {
+    this.tagValue = tagValue;
+  }
+
+  public String getTagValue() {
+    return tagValue;
+  }
+}
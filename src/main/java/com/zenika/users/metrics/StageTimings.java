@@ -0,0 +1,55 @@
+package com.zenika.users.metrics;
+
+import java.util.Locale;
+
+/**
+ * Time spent in each {@link Stage} of a single request, summed over its chunks. Not thread safe,
+ * a request records its stages from one thread at a time.
+ */
+public final class StageTimings {
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final long[] nanos = new long[STAGES.length];
+  private final boolean[] recorded = new boolean[STAGES.length];
+
+  public long start() {
+    return System.nanoTime();
+  }
+
+  public void stop(Stage stage, long startNanos) {
+    add(stage, System.nanoTime() - startNanos);
+  }
+
+  public void add(Stage stage, long stageNanos) {
+    nanos[stage.ordinal()] += stageNanos;
+    recorded[stage.ordinal()] = true;
+  }
+
+  public long get(Stage stage) {
+    return nanos[stage.ordinal()];
+  }
+
+  public boolean isRecorded(Stage stage) {
+    return recorded[stage.ordinal()];
+  }
+
+  /** Recorded stages in request order, for example {@code parse=12.3ms map=1.0ms}. */
+  @Override
+  public String toString() {
+    StringBuilder stages = new StringBuilder();
+    for (Stage stage : STAGES) {
+      if (recorded[stage.ordinal()]) {
+        if (stages.length() > 0) {
+          stages.append(' ');
+        }
+        stages
+            .append(stage.getTagValue())
+            .append('=')
+            .append(String.format(Locale.ROOT, "%.1f", nanos[stage.ordinal()] / 1_000_000.0))
+            .append("ms");
+      }
+    }
+    return stages.toString();
+  }
+}
@@ -0,0 +1,88 @@
+package com.zenika.users.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the users service, exposed on {@code /actuator/metrics}. Stage timers are
+ * recorded once per request with the stage totals of that request, so their percentiles describe
+ * requests rather than chunks.
+ */
+@Component
+public class UsersMetrics {
+
+  private static final String UPLOAD = "users.upload";
+  private static final String FETCH = "users.fetch";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<Stage, Timer> uploadStageTimers = new EnumMap<>(Stage.class);
+  private final Map<Stage, Timer> fetchStageTimers = new EnumMap<>(Stage.class);
+  private final Timer fetchTimer;
+  private final Counter uploadRows;
+  private final Counter uploadBytes;
+  private final Counter fetchRows;
+
+  public UsersMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    for (Stage stage : Stage.values()) {
+      uploadStageTimers.put(stage, stageTimer(UPLOAD, stage));
+      fetchStageTimers.put(stage, stageTimer(FETCH, stage));
+    }
+    fetchTimer = timer(FETCH, "outcome", "success");
+    uploadRows =
+        Counter.builder(UPLOAD + ".rows")
+            .description("Rows of successful uploads")
+            .register(meterRegistry);
+    uploadBytes =
+        Counter.builder(UPLOAD + ".bytes")
+            .baseUnit("bytes")
+            .description("Bytes read from upload files")
+            .register(meterRegistry);
+    fetchRows =
+        Counter.builder(FETCH + ".rows").description("Users returned").register(meterRegistry);
+  }
+
+  public void recordUpload(
+      StageTimings stageTimings, boolean succeeded, long rows, long bytes, long elapsedNanos) {
+    record(uploadStageTimers, stageTimings);
+    timer(UPLOAD, "outcome", succeeded ? "success" : "failure")
+        .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    uploadBytes.increment(bytes);
+    if (succeeded) {
+      uploadRows.increment(rows);
+    }
+  }
+
+  public void recordFetch(StageTimings stageTimings, long rows, long elapsedNanos) {
+    record(fetchStageTimers, stageTimings);
+    fetchTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    fetchRows.increment(rows);
+  }
+
+  private void record(Map<Stage, Timer> stageTimers, StageTimings stageTimings) {
+    stageTimers.forEach(
+        (stage, timer) -> {
+          if (stageTimings.isRecorded(stage)) {
+            timer.record(stageTimings.get(stage), TimeUnit.NANOSECONDS);
+          }
+        });
+  }
+
+  private Timer stageTimer(String name, Stage stage) {
+    return timer(name + ".stage", "stage", stage.getTagValue());
+  }
+
+  private Timer timer(String name, String tagKey, String tagValue) {
+    return Timer.builder(name)
+        .tag(tagKey, tagValue)
+        .publishPercentiles(0.5, 0.99, 0.999)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+}
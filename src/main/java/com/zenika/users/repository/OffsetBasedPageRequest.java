@@ -0,0 +1,74 @@
+package com.zenika.users.repository;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Pageable that carries an arbitrary offset and limit instead of a page number, so that the
+ * repository can push them down to the database as OFFSET/FETCH. A limit of 0 or less means no
+ * upper bound on the number of rows.
+ */
+@EqualsAndHashCode
+@ToString
+public class OffsetBasedPageRequest implements Pageable {
+
+  private final long offset;
+  private final int limit;
+  private final Sort sort;
+
+  public OffsetBasedPageRequest(long offset, int limit, Sort sort) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("Offset must not be less than zero");
+    }
+    this.offset = offset;
+    this.limit = limit > 0 ? limit : Integer.MAX_VALUE;
+    this.sort = sort == null ? Sort.unsorted() : sort;
+  }
+
+  @Override
+  public int getPageNumber() {
+    return (int) (offset / limit);
+  }
+
+  @Override
+  public int getPageSize() {
+    return limit;
+  }
+
+  @Override
+  public long getOffset() {
+    return offset;
+  }
+
+  @Override
+  public Sort getSort() {
+    return sort;
+  }
+
+  @Override
+  public Pageable next() {
+    return new OffsetBasedPageRequest(offset + limit, limit, sort);
+  }
+
+  @Override
+  public Pageable previousOrFirst() {
+    return hasPrevious() ? new OffsetBasedPageRequest(Math.max(0, offset - limit), limit, sort) : first();
+  }
+
+  @Override
+  public Pageable first() {
+    return new OffsetBasedPageRequest(0, limit, sort);
+  }
+
+  @Override
+  public Pageable withPage(int pageNumber) {
+    return new OffsetBasedPageRequest((long) pageNumber * limit, limit, sort);
+  }
+
+  @Override
+  public boolean hasPrevious() {
+    return offset > 0;
+  }
+}
@@ -0,0 +1,11 @@
+package com.zenika.users.repository;
+
+/** Row number, id and login of a staged user, read without loading the entity. */
+public interface StagedUsersKey {
+
+  long getRowNumber();
+
+  String getId();
+
+  String getLogin();
+}
@@ -0,0 +1,43 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.entity.StagedUsers;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StagedUsersRepository
+    extends CrudRepository<StagedUsers, StagedUsers.Key>, StagedUsersRepositoryCustom {
+
+  /** Returns the users of the session already staged with any of the ids or logins. */
+  @Query(
+      "select s.rowNumber as rowNumber, s.id as id, s.login as login from StagedUsers s "
+          + "where s.sessionId = :sessionId and (s.id in :ids or s.login in :logins)")
+  List<StagedUsersKey> findBySessionIdAndIdsOrLogins(
+      @Param("sessionId") String sessionId,
+      @Param("ids") Collection<String> ids,
+      @Param("logins") Collection<String> logins);
+
+  /**
+   * Returns the staged users of the session whose login is held by another stored user, with the
+   * id of that user instead of their own.
+   */
+  @Query(
+      "select s.rowNumber as rowNumber, u.id as id, s.login as login from StagedUsers s, Users u "
+          + "where s.sessionId = :sessionId and u.login = s.login and u.id <> s.id "
+          + "order by s.rowNumber")
+  List<StagedUsersKey> findLoginsTakenByOtherUsers(@Param("sessionId") String sessionId);
+
+  @Query(
+      "select count(s) from StagedUsers s, Users u where s.sessionId = :sessionId and u.id = s.id")
+  long countExistingUsers(@Param("sessionId") String sessionId);
+
+  @Modifying
+  @Query("delete from StagedUsers s where s.sessionId = :sessionId")
+  int deleteBySessionId(@Param("sessionId") String sessionId);
+}
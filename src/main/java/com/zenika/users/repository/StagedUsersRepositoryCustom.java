@@ -0,0 +1,30 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.entity.Users;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface StagedUsersRepositoryCustom {
+
+  /**
+   * Inserts the users of a session with batched statements, numbering them from {@code
+   * firstRowNumber}, bypassing the persistence context.
+   */
+  void insertAll(String sessionId, long firstRowNumber, List<Users> users);
+
+  /**
+   * Reads the staged users of a session in row order through a forward only JDBC cursor, handing
+   * each one to the consumer without keeping it in the persistence context.
+   */
+  void forEachStagedUser(String sessionId, Consumer<Users> consumer);
+
+  /**
+   * Inserts or updates the staged users of a session into the users table with a single {@code
+   * MERGE} statement. Like {@link UsersRepositoryCustom#upsertAll}, users identical to the stored
+   * row are not written.
+   *
+   * @return number of rows inserted or updated, excluding unchanged users
+   */
+  int publish(String sessionId);
+}
@@ -0,0 +1,86 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class StagedUsersRepositoryCustomImpl implements StagedUsersRepositoryCustom {
+
+  private static final String INSERT_STAGED_USERS_SQL =
+      "INSERT INTO USERS_STAGING (SESSION_ID, ROW_NUMBER, ID, LOGIN, NAME, SALARY, START_DATE) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String SELECT_STAGED_USERS_SQL =
+      "SELECT ID, LOGIN, NAME, SALARY, START_DATE FROM USERS_STAGING "
+          + "WHERE SESSION_ID = ? ORDER BY ROW_NUMBER";
+
+  /** Same conditions as the upsert of {@link UsersRepositoryCustomImpl}. */
+  private static final String PUBLISH_STAGED_USERS_SQL =
+      "MERGE INTO USERS T USING (SELECT ID, LOGIN, NAME, SALARY, START_DATE FROM USERS_STAGING "
+          + "WHERE SESSION_ID = ?) S ON T.ID = S.ID "
+          + "WHEN MATCHED AND (T.LOGIN <> S.LOGIN OR T.NAME <> S.NAME "
+          + "OR T.SALARY <> S.SALARY OR T.START_DATE <> S.START_DATE) THEN "
+          + "UPDATE SET LOGIN = S.LOGIN, NAME = S.NAME, SALARY = S.SALARY, START_DATE = S.START_DATE "
+          + "WHEN NOT MATCHED THEN INSERT (ID, LOGIN, NAME, SALARY, START_DATE) "
+          + "VALUES (S.ID, S.LOGIN, S.NAME, S.SALARY, S.START_DATE)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final UsersUploadProperties usersUploadProperties;
+
+  public StagedUsersRepositoryCustomImpl(
+      JdbcTemplate jdbcTemplate, UsersUploadProperties usersUploadProperties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.usersUploadProperties = usersUploadProperties;
+  }
+
+  @Override
+  public void insertAll(String sessionId, long firstRowNumber, List<Users> users) {
+    long[] rowNumber = {firstRowNumber};
+    jdbcTemplate.batchUpdate(
+        INSERT_STAGED_USERS_SQL,
+        users,
+        usersUploadProperties.getBatchSize(),
+        (preparedStatement, user) -> {
+          preparedStatement.setString(1, sessionId);
+          preparedStatement.setLong(2, rowNumber[0]++);
+          preparedStatement.setString(3, user.getId());
+          preparedStatement.setString(4, user.getLogin());
+          preparedStatement.setString(5, user.getName());
+          preparedStatement.setDouble(6, user.getSalary());
+          preparedStatement.setTimestamp(7, new Timestamp(user.getStartDate().getTime()));
+        });
+  }
+
+  @Override
+  public void forEachStagedUser(String sessionId, Consumer<Users> consumer) {
+    jdbcTemplate.query(
+        connection -> {
+          PreparedStatement preparedStatement =
+              connection.prepareStatement(
+                  SELECT_STAGED_USERS_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+          preparedStatement.setFetchSize(Integer.parseInt(UsersRepository.STREAM_FETCH_SIZE));
+          preparedStatement.setString(1, sessionId);
+          return preparedStatement;
+        },
+        resultSet -> {
+          consumer.accept(
+              new Users(
+                  resultSet.getString(1),
+                  resultSet.getString(2),
+                  resultSet.getString(3),
+                  resultSet.getDouble(4),
+                  resultSet.getTimestamp(5)));
+        });
+  }
+
+  @Override
+  public int publish(String sessionId) {
+    return jdbcTemplate.update(PUBLISH_STAGED_USERS_SQL, sessionId);
+  }
+}
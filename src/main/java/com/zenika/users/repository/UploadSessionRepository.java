@@ -0,0 +1,8 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {}
@@ -0,0 +1,9 @@
+package com.zenika.users.repository;
+
+/** Id and login of a stored user, read without loading the entity. */
+public interface UsersLogin {
+
+  String getId();
+
+  String getLogin();
+}
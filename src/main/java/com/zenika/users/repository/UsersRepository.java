@@ -1,14 +1,47 @@
 package com.zenika.users.repository;
 
 import com.zenika.users.entity.Users;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface UsersRepository extends PagingAndSortingRepository<Users, String> {
+public interface UsersRepository
+    extends PagingAndSortingRepository<Users, String>, UsersRepositoryCustom {
+
+  String STREAM_FETCH_SIZE = "500";
+
+  List<Users> findBySalaryGreaterThanEqualAndSalaryLessThan(
+      double minSalary, double maxSalary, Pageable pageable);
+
+  /**
+   * Same rows as {@link #findBySalaryGreaterThanEqualAndSalaryLessThan}, read from an open cursor
+   * {@value #STREAM_FETCH_SIZE} rows at a time. Must be called within a transaction and the
+   * stream must be closed. Users are loaded read only, detach them once used to keep the
+   * persistence context empty.
+   */
+  @QueryHints({
+    @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+    @QueryHint(name = HINT_READONLY, value = "true")
+  })
+  Stream<Users> streamBySalaryGreaterThanEqualAndSalaryLessThan(
+      double minSalary, double maxSalary, Pageable pageable);
+
+  @Query("select u.id from Users u where u.id in :ids")
+  List<String> findExistingIds(@Param("ids") Collection<String> ids);
 
-  List<Users> findBySalaryGreaterThanEqualAndSalaryLessThan(double maxSalary, double minSalary, Sort by);
+  /** Returns the id and login of the stored users holding any of the logins. */
+  @Query("select u.id as id, u.login as login from Users u where u.login in :logins")
+  List<UsersLogin> findByLogins(@Param("logins") Collection<String> logins);
 }
@@ -0,0 +1,66 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.entity.Users;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.Tuple;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface UsersRepositoryCustom {
+
+  /**
+   * Keyset (seek) query over a salary range. Returns up to {@code limit} users ordered by {@code
+   * sort} that come strictly after the row whose sort key values are {@code lastKey}. The sort
+   * must end with a unique property so that the key identifies a single row.
+   *
+   * @param lastKey sort key values of the last row of the previous page in the same order as the
+   *     sort properties, or an empty list to start from the first row
+   * @param limit maximum number of rows to return, 0 or less for no limit
+   */
+  List<Users> findBySalaryRangeAfterKey(
+      double minSalary, double maxSalary, Sort sort, List<Object> lastKey, int limit);
+
+  /**
+   * Selects only the given properties of the users over a salary range, so that other columns are
+   * neither read nor hydrated. Rows are ordered by {@code sort}, come after {@code lastKey} like
+   * {@link #findBySalaryRangeAfterKey} and skip the first {@code offset} of them.
+   *
+   * @param fields properties to select, each tuple element is aliased by its property name
+   * @param lastKey sort key values of the last row of the previous page, or an empty list
+   * @param limit maximum number of rows to return, 0 or less for no limit
+   */
+  List<Tuple> findFieldsBySalaryRange(
+      double minSalary,
+      double maxSalary,
+      List<String> fields,
+      Sort sort,
+      List<Object> lastKey,
+      int offset,
+      int limit);
+
+  /**
+   * Reads every user with a plain JDBC query, handing each one to the consumer without keeping it
+   * in the persistence context.
+   */
+  void forEachUser(Consumer<Users> consumer);
+
+  /**
+   * Reads the users with {@code minSalary <= salary < maxSalary} ordered by id through a forward
+   * only JDBC cursor fetching {@link UsersRepository#STREAM_FETCH_SIZE} rows at a time, handing
+   * each one to the consumer without keeping it in the persistence context.
+   */
+  void forEachUserBySalaryRange(double minSalary, double maxSalary, Consumer<Users> consumer);
+
+  /** Removes the user from the persistence context once it is no longer used. */
+  void detach(Users users);
+
+  /**
+   * Inserts or updates the given users with batched {@code MERGE} statements, bypassing the
+   * persistence context. Unlike {@code saveAll}, no select is issued per user to decide between
+   * insert and update. Users identical to the stored row are not written.
+   *
+   * @return number of rows inserted or updated, excluding unchanged users
+   */
+  int upsertAll(List<Users> users);
+}
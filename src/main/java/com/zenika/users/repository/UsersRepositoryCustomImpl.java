@@ -0,0 +1,249 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+public class UsersRepositoryCustomImpl implements UsersRepositoryCustom {
+
+  /**
+   * Only rows that are new or differ from the stored values are written, so that the update count
+   * of each statement is 1 for a created or updated user and 0 for an unchanged one.
+   */
+  private static final String UPSERT_USERS_SQL =
+      "MERGE INTO USERS T USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), "
+          + "CAST(? AS VARCHAR(255)), CAST(? AS DOUBLE PRECISION), CAST(? AS TIMESTAMP))) "
+          + "S (ID, LOGIN, NAME, SALARY, START_DATE) ON T.ID = S.ID "
+          + "WHEN MATCHED AND (T.LOGIN <> S.LOGIN OR T.NAME <> S.NAME "
+          + "OR T.SALARY <> S.SALARY OR T.START_DATE <> S.START_DATE) THEN "
+          + "UPDATE SET LOGIN = S.LOGIN, NAME = S.NAME, SALARY = S.SALARY, START_DATE = S.START_DATE "
+          + "WHEN NOT MATCHED THEN INSERT (ID, LOGIN, NAME, SALARY, START_DATE) "
+          + "VALUES (S.ID, S.LOGIN, S.NAME, S.SALARY, S.START_DATE)";
+
+  private static final String SELECT_USERS_SQL =
+      "SELECT ID, LOGIN, NAME, SALARY, START_DATE FROM USERS";
+
+  private static final String SELECT_USERS_BY_SALARY_RANGE_SQL =
+      SELECT_USERS_SQL + " WHERE SALARY >= ? AND SALARY < ? ORDER BY ID";
+
+  private static final Map<String, String> COLUMNS_BY_PROPERTY =
+      Map.of(
+          "id", "ID",
+          "login", "LOGIN",
+          "name", "NAME",
+          "salary", "SALARY",
+          "startDate", "START_DATE");
+
+  @PersistenceContext private EntityManager entityManager;
+  private final JdbcTemplate jdbcTemplate;
+  private final UsersUploadProperties usersUploadProperties;
+
+  public UsersRepositoryCustomImpl(
+      JdbcTemplate jdbcTemplate, UsersUploadProperties usersUploadProperties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.usersUploadProperties = usersUploadProperties;
+  }
+
+  @Override
+  public List<Users> findBySalaryRangeAfterKey(
+      double minSalary, double maxSalary, Sort sort, List<Object> lastKey, int limit) {
+    List<Object> parameters = new ArrayList<>();
+    String sql =
+        SELECT_USERS_SQL
+            + salaryRangeAfterKeyClauses(minSalary, maxSalary, sort, lastKey, 0, limit, parameters);
+    return jdbcTemplate.query(sql, (resultSet, rowNum) -> toUsers(resultSet), parameters.toArray());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Tuple> findFieldsBySalaryRange(
+      double minSalary,
+      double maxSalary,
+      List<String> fields,
+      Sort sort,
+      List<Object> lastKey,
+      int offset,
+      int limit) {
+    List<Object> parameters = new ArrayList<>();
+    String sql =
+        fields.stream()
+                // quoted so that each tuple element keeps the case of its property name
+                .map(field -> column(field) + " AS \"" + field + "\"")
+                .collect(Collectors.joining(", ", "SELECT ", " FROM USERS"))
+            + salaryRangeAfterKeyClauses(
+                minSalary, maxSalary, sort, lastKey, offset, limit, parameters);
+    Query query = entityManager.createNativeQuery(sql, Tuple.class);
+    for (int i = 0; i < parameters.size(); i++) {
+      query.setParameter(i + 1, parameters.get(i));
+    }
+    return query.getResultList();
+  }
+
+  @Override
+  public int upsertAll(List<Users> users) {
+    int[][] updateCounts =
+        jdbcTemplate.batchUpdate(
+            UPSERT_USERS_SQL,
+            users,
+            usersUploadProperties.getBatchSize(),
+            (preparedStatement, user) -> {
+              preparedStatement.setString(1, user.getId());
+              preparedStatement.setString(2, user.getLogin());
+              preparedStatement.setString(3, user.getName());
+              preparedStatement.setDouble(4, user.getSalary());
+              preparedStatement.setTimestamp(5, new Timestamp(user.getStartDate().getTime()));
+            });
+    return Arrays.stream(updateCounts).flatMapToInt(Arrays::stream).sum();
+  }
+
+  @Override
+  public void forEachUser(Consumer<Users> consumer) {
+    jdbcTemplate.query(
+        SELECT_USERS_SQL,
+        resultSet -> {
+          consumer.accept(toUsers(resultSet));
+        });
+  }
+
+  @Override
+  public void forEachUserBySalaryRange(
+      double minSalary, double maxSalary, Consumer<Users> consumer) {
+    jdbcTemplate.query(
+        connection -> {
+          PreparedStatement preparedStatement =
+              connection.prepareStatement(
+                  SELECT_USERS_BY_SALARY_RANGE_SQL,
+                  ResultSet.TYPE_FORWARD_ONLY,
+                  ResultSet.CONCUR_READ_ONLY);
+          preparedStatement.setFetchSize(Integer.parseInt(UsersRepository.STREAM_FETCH_SIZE));
+          preparedStatement.setDouble(1, minSalary);
+          preparedStatement.setDouble(2, maxSalary);
+          return preparedStatement;
+        },
+        resultSet -> {
+          consumer.accept(toUsers(resultSet));
+        });
+  }
+
+  @Override
+  public void detach(Users users) {
+    entityManager.detach(users);
+  }
+
+  private static Users toUsers(ResultSet resultSet) throws SQLException {
+    return new Users(
+        resultSet.getString(1),
+        resultSet.getString(2),
+        resultSet.getString(3),
+        resultSet.getDouble(4),
+        resultSet.getTimestamp(5));
+  }
+
+  /**
+   * Where, order by and paging clauses of the keyset queries, written as SQL since JPQL has no row
+   * value constructor. Their values are added to {@code parameters}.
+   */
+  private static String salaryRangeAfterKeyClauses(
+      double minSalary,
+      double maxSalary,
+      Sort sort,
+      List<Object> lastKey,
+      int offset,
+      int limit,
+      List<Object> parameters) {
+    StringBuilder sql = new StringBuilder(" WHERE SALARY >= ? AND SALARY < ?");
+    parameters.add(minSalary);
+    parameters.add(maxSalary);
+    List<Sort.Order> orders = sort.toList();
+    if (!lastKey.isEmpty()) {
+      sql.append(" AND ").append(seekPredicate(orders, lastKey, parameters));
+    }
+    if (!orders.isEmpty()) {
+      sql.append(
+          orders.stream()
+              .map(order -> column(order.getProperty()) + (order.isAscending() ? " ASC" : " DESC"))
+              .collect(Collectors.joining(", ", " ORDER BY ", "")));
+    }
+    if (offset > 0) {
+      sql.append(" OFFSET ? ROWS");
+      parameters.add(offset);
+    }
+    if (limit > 0) {
+      sql.append(" FETCH FIRST ? ROWS ONLY");
+      parameters.add(limit);
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Builds the predicate matching the rows after {@code lastKey}. When every sort property goes the
+   * same direction, it is the row value comparison {@code (k1, ..., kn) > (v1, ..., vn)}, and
+   * {@code k1 >= v1} is repeated alongside since H2 only starts the index scan from bounds on
+   * single columns. Mixed directions are expanded as {@code k1 > v1 OR (k1 = v1 AND k2 > v2) OR
+   * ...}, each column comparing with its own direction.
+   */
+  private static String seekPredicate(
+      List<Sort.Order> orders, List<Object> lastKey, List<Object> parameters) {
+    Sort.Direction direction = orders.get(0).getDirection();
+    String leadingColumn = column(orders.get(0).getProperty());
+    String after = direction.isAscending() ? " > " : " < ";
+    if (orders.size() == 1) {
+      parameters.add(lastKey.get(0));
+      return leadingColumn + after + "?";
+    }
+    if (orders.stream().allMatch(order -> order.getDirection() == direction)) {
+      parameters.add(lastKey.get(0));
+      parameters.addAll(lastKey);
+      return leadingColumn
+          + after.trim()
+          + "= ? AND "
+          + orders.stream()
+              .map(order -> column(order.getProperty()))
+              .collect(Collectors.joining(", ", "(", ")"))
+          + after
+          + "("
+          + String.join(", ", Collections.nCopies(orders.size(), "?"))
+          + ")";
+    }
+    List<String> alternatives = new ArrayList<>();
+    List<String> equalPrefix = new ArrayList<>();
+    List<Object> prefixValues = new ArrayList<>();
+    for (int i = 0; i < orders.size(); i++) {
+      Sort.Order order = orders.get(i);
+      String column = column(order.getProperty());
+      List<String> alternative = new ArrayList<>(equalPrefix);
+      alternative.add(column + (order.isAscending() ? " > ?" : " < ?"));
+      alternatives.add(String.join(" AND ", alternative));
+      parameters.addAll(prefixValues);
+      parameters.add(lastKey.get(i));
+      equalPrefix.add(column + " = ?");
+      prefixValues.add(lastKey.get(i));
+    }
+    return alternatives.stream().collect(Collectors.joining(") OR (", "((", "))"));
+  }
+
+  private static String column(String property) {
+    String column = COLUMNS_BY_PROPERTY.get(property);
+    if (column == null) {
+      throw new IllegalArgumentException("Unsupported property " + property);
+    }
+    return column;
+  }
+}
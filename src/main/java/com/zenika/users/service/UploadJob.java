@@ -0,0 +1,76 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.dto.UploadJobState;
+import com.zenika.users.utils.CsvCompression;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Status of an asynchronous upload, updated by its job thread and read by status requests. */
+@Getter
+class UploadJob implements UploadProgress {
+
+  private final String jobId;
+  private final Path spoolFile;
+  /** Compression of the spooled file, inflated only while the job reads it. */
+  private final CsvCompression compression;
+  private final AtomicLong rowsParsed = new AtomicLong();
+  private final AtomicLong rowsSaved = new AtomicLong();
+  private volatile UploadJobState state = UploadJobState.QUEUED;
+  private volatile long startTime;
+  private volatile long endTime;
+  private volatile SimpleResponseDto result;
+
+  UploadJob(String jobId, Path spoolFile, CsvCompression compression) {
+    this.jobId = jobId;
+    this.spoolFile = spoolFile;
+    this.compression = compression;
+  }
+
+  @Override
+  public void rowsParsed(int rowCount) {
+    rowsParsed.addAndGet(rowCount);
+  }
+
+  @Override
+  public void rowsSaved(int rowCount) {
+    rowsSaved.addAndGet(rowCount);
+  }
+
+  void start() {
+    startTime = System.nanoTime();
+    state = UploadJobState.RUNNING;
+  }
+
+  void complete(UploadJobState completedState, SimpleResponseDto completedResult) {
+    endTime = System.nanoTime();
+    result = completedResult;
+    state = completedState;
+  }
+
+  boolean isCompleted() {
+    return state == UploadJobState.SUCCEEDED || state == UploadJobState.FAILED;
+  }
+
+  UploadJobDto toUploadJobDto() {
+    UploadJobState currentState = state;
+    long elapsedNanos = 0;
+    if (currentState == UploadJobState.RUNNING) {
+      elapsedNanos = System.nanoTime() - startTime;
+    } else if (currentState != UploadJobState.QUEUED) {
+      elapsedNanos = endTime - startTime;
+    }
+    long saved = rowsSaved.get();
+    long elapsedMillis = Math.max(1, elapsedNanos / 1_000_000);
+    return new UploadJobDto(
+        jobId,
+        currentState,
+        rowsParsed.get(),
+        saved,
+        saved * 1000 / elapsedMillis,
+        currentState == UploadJobState.RUNNING ? null : result);
+  }
+}
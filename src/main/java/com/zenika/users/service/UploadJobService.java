@@ -0,0 +1,17 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.utils.CsvCompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+public interface UploadJobService {
+
+  /** Spools the file as sent, so compressed files are only inflated while the job runs. */
+  UploadJobDto submitUpload(InputStream inputStreamCsvData, CsvCompression compression)
+      throws IOException;
+
+  Optional<UploadJobDto> getUploadJob(String jobId);
+}
@@ -0,0 +1,149 @@
+package com.zenika.users.service;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.dto.ResponseMessage;
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.dto.UploadJobState;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.exception.UploadConflictException;
+import com.zenika.users.exception.UploadJobRejectedException;
+import com.zenika.users.utils.CsvCompression;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs uploads in the background. The uploaded file is spooled to disk so that the request
+ * returns immediately, then the upload runs on a bounded pool. Jobs are kept in memory, hence
+ * their status is only available on the instance that accepted them and until it restarts.
+ */
+@Service
+@Slf4j
+public class UploadJobServiceImpl implements UploadJobService {
+
+  private final UserService userService;
+  private final UsersUploadProperties.Jobs jobsProperties;
+  private final ThreadPoolExecutor uploadJobExecutor;
+  private final Map<String, UploadJob> uploadJobs = new ConcurrentHashMap<>();
+
+  public UploadJobServiceImpl(UserService userService, UsersUploadProperties usersUploadProperties) {
+    this.userService = userService;
+    this.jobsProperties = usersUploadProperties.getJobs();
+    this.uploadJobExecutor =
+        new ThreadPoolExecutor(
+            jobsProperties.getThreads(),
+            jobsProperties.getThreads(),
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(jobsProperties.getQueueCapacity()),
+            new CustomizableThreadFactory("upload-job-"));
+  }
+
+  @Override
+  public UploadJobDto submitUpload(InputStream inputStreamCsvData, CsvCompression compression)
+      throws IOException {
+    removeExpiredUploadJobs();
+    if (uploadJobExecutor.getQueue().remainingCapacity() == 0) {
+      throw rejectedUploadJob();
+    }
+    Path spoolFile =
+        Files.createTempFile(Paths.get(jobsProperties.getDirectory()), "users-upload-job-", ".csv");
+    UploadJob uploadJob = new UploadJob(UUID.randomUUID().toString(), spoolFile, compression);
+    try {
+      Files.copy(inputStreamCsvData, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+      uploadJobs.put(uploadJob.getJobId(), uploadJob);
+      uploadJobExecutor.execute(() -> runUploadJob(uploadJob));
+    } catch (IOException | RejectedExecutionException ex) {
+      uploadJobs.remove(uploadJob.getJobId());
+      deleteSpoolFile(spoolFile);
+      if (ex instanceof IOException) {
+        throw (IOException) ex;
+      }
+      throw rejectedUploadJob();
+    }
+    log.info("Upload job {} queued", uploadJob.getJobId());
+    return uploadJob.toUploadJobDto();
+  }
+
+  @Override
+  public Optional<UploadJobDto> getUploadJob(String jobId) {
+    removeExpiredUploadJobs();
+    return Optional.ofNullable(uploadJobs.get(jobId)).map(UploadJob::toUploadJobDto);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    uploadJobExecutor.shutdownNow();
+  }
+
+  private void runUploadJob(UploadJob uploadJob) {
+    log.info("Upload job {} started", uploadJob.getJobId());
+    uploadJob.start();
+    try (InputStream inputStreamCsvData =
+        uploadJob.getCompression().decompress(Files.newInputStream(uploadJob.getSpoolFile()))) {
+      SimpleResponseDto result = userService.uploadUsers(inputStreamCsvData, uploadJob);
+      uploadJob.complete(UploadJobState.SUCCEEDED, result);
+    } catch (InvalidUserDataException ex) {
+      log.info("Upload job {} failed with invalid data", uploadJob.getJobId(), ex);
+      uploadJob.complete(
+          UploadJobState.FAILED,
+          new SimpleResponseDto(ResponseMessage.ERROR_OCCURRED_BAD_INPUT, ex.getMessage()));
+    } catch (UploadConflictException ex) {
+      log.info("Upload job {} conflicted with a concurrent upload", uploadJob.getJobId(), ex);
+      uploadJob.complete(
+          UploadJobState.FAILED,
+          new SimpleResponseDto(ResponseMessage.UPLOAD_CONFLICT, ex.getMessage()));
+    } catch (Exception ex) {
+      // not caused by the file, e.g. the database or the disk failing, so the client may retry
+      log.error("Upload job {} failed", uploadJob.getJobId(), ex);
+      uploadJob.complete(
+          UploadJobState.FAILED,
+          new SimpleResponseDto(ResponseMessage.INTERNAL_ERROR, ex.getMessage()));
+    } finally {
+      deleteSpoolFile(uploadJob.getSpoolFile());
+    }
+    log.info("Upload job {} completed as {}", uploadJob.getJobId(), uploadJob.getState());
+  }
+
+  private void removeExpiredUploadJobs() {
+    long retentionNanos = jobsProperties.getRetention().toNanos();
+    long now = System.nanoTime();
+    uploadJobs
+        .values()
+        .removeIf(
+            uploadJob -> uploadJob.isCompleted() && now - uploadJob.getEndTime() > retentionNanos);
+  }
+
+  private UploadJobRejectedException rejectedUploadJob() {
+    log.info("Upload job rejected, {} jobs already queued", uploadJobExecutor.getQueue().size());
+    return new UploadJobRejectedException(
+        "Upload job rejected since "
+            + uploadJobExecutor.getQueue().size()
+            + " jobs are already waiting, retry later");
+  }
+
+  private void deleteSpoolFile(Path spoolFile) {
+    try {
+      Files.deleteIfExists(spoolFile);
+    } catch (IOException ex) {
+      log.warn("Failed to delete spooled upload {}", spoolFile, ex);
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package com.zenika.users.service;
+
+/** Receives the progress of an upload as its chunks are parsed and saved. */
+public interface UploadProgress {
+
+  UploadProgress NONE = new UploadProgress() {};
+
+  default void rowsParsed(int rowCount) {}
+
+  default void rowsSaved(int rowCount) {}
+}
@@ -0,0 +1,30 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadSessionDto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+public interface UploadSessionService {
+
+  UploadSessionDto createSession();
+
+  Optional<UploadSessionDto> getSession(String sessionId);
+
+  /**
+   * Stages the rows of the file read from {@code offset}, committing a checkpoint after each chunk.
+   * Bytes before the checkpoint of the session are skipped, so the whole file may be sent again.
+   */
+  UploadSessionDto appendToSession(String sessionId, long offset, InputStream inputStreamCsvData)
+      throws IOException;
+
+  /**
+   * Writes the staged rows to the users table in a single transaction, which fails with {@link
+   * com.zenika.users.exception.UploadConflictException} if the session is appended to meanwhile.
+   */
+  SimpleResponseDto publishSession(String sessionId);
+
+  void abortSession(String sessionId);
+}
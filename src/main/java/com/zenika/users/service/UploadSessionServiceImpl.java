@@ -0,0 +1,354 @@
+package com.zenika.users.service;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.delta.UsersContentHashes;
+import com.zenika.users.dto.ResponseMessage;
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadSessionDto;
+import com.zenika.users.dto.UploadSessionState;
+import com.zenika.users.entity.UploadSession;
+import com.zenika.users.entity.Users;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.exception.UploadConflictException;
+import com.zenika.users.exception.UploadSessionNotFoundException;
+import com.zenika.users.lock.UsersUploadLocks;
+import com.zenika.users.mapper.UsersCsvDtoToUsersMapper;
+import com.zenika.users.repository.StagedUsersKey;
+import com.zenika.users.repository.StagedUsersRepository;
+import com.zenika.users.repository.UploadSessionRepository;
+import com.zenika.users.utils.CheckpointedUsersCsvReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Resumable uploads. The rows of a session are staged in {@code USERS_STAGING}, each chunk in its
+ * own transaction together with the checkpoint of the session, which holds the byte offset of the
+ * file after the chunk, the header and the line count needed to parse the rest. A failed or
+ * interrupted upload resumes from the last checkpoint. Publishing writes the staged rows to the
+ * users table in a single transaction, so readers never see a part of the file.
+ */
+@Service
+@Slf4j
+public class UploadSessionServiceImpl implements UploadSessionService {
+
+  private final UploadSessionRepository uploadSessionRepository;
+  private final StagedUsersRepository stagedUsersRepository;
+  private final UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper;
+  private final UsersUploadProperties usersUploadProperties;
+  private final UsersUploadLocks usersUploadLocks;
+  private final UsersContentHashes usersContentHashes;
+  private final ApplicationEventPublisher applicationEventPublisher;
+  private final TransactionTemplate transactionTemplate;
+
+  public UploadSessionServiceImpl(
+      UploadSessionRepository uploadSessionRepository,
+      StagedUsersRepository stagedUsersRepository,
+      UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper,
+      UsersUploadProperties usersUploadProperties,
+      UsersUploadLocks usersUploadLocks,
+      UsersContentHashes usersContentHashes,
+      ApplicationEventPublisher applicationEventPublisher,
+      PlatformTransactionManager transactionManager) {
+    this.uploadSessionRepository = uploadSessionRepository;
+    this.stagedUsersRepository = stagedUsersRepository;
+    this.usersCsvDtoToUsersMapper = usersCsvDtoToUsersMapper;
+    this.usersUploadProperties = usersUploadProperties;
+    this.usersUploadLocks = usersUploadLocks;
+    this.usersContentHashes = usersContentHashes;
+    this.applicationEventPublisher = applicationEventPublisher;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  @Override
+  public UploadSessionDto createSession() {
+    UploadSession uploadSession =
+        uploadSessionRepository.save(new UploadSession(UUID.randomUUID().toString()));
+    log.info("Upload session {} created", uploadSession.getId());
+    return toUploadSessionDto(uploadSession);
+  }
+
+  @Override
+  public Optional<UploadSessionDto> getSession(String sessionId) {
+    return uploadSessionRepository.findById(sessionId).map(this::toUploadSessionDto);
+  }
+
+  @Override
+  public UploadSessionDto appendToSession(
+      String sessionId, long offset, InputStream inputStreamCsvData) throws IOException {
+    UploadSession uploadSession = findOpenSession(sessionId);
+    long partStart = uploadSession.getByteOffset();
+    if (offset < 0 || offset > partStart) {
+      throw new InvalidUserDataException(
+          "offset must be between 0 and the checkpoint of the upload session at byte "
+              + partStart
+              + " but found: "
+              + offset);
+    }
+    if (!skip(inputStreamCsvData, partStart - offset)) {
+      return toUploadSessionDto(uploadSession);
+    }
+    log.info("Upload session {} resumed from byte {}", sessionId, partStart);
+    CheckpointedUsersCsvReader reader =
+        new CheckpointedUsersCsvReader(
+            inputStreamCsvData, uploadSession.getHeader(), uploadSession.getLinesRead());
+    try {
+      long checkpoint = partStart;
+      while (reader.nextChunk(usersUploadProperties.getChunkSize())) {
+        long expectedCheckpoint = checkpoint;
+        uploadSession =
+            transactionTemplate.execute(
+                status -> stageChunk(sessionId, expectedCheckpoint, partStart, reader));
+        checkpoint = uploadSession.getByteOffset();
+      }
+    } catch (InvalidUserDataException ex) {
+      log.info("Upload session {} stopped at byte {}", sessionId, uploadSession.getByteOffset());
+      throw new InvalidUserDataException(ex.getMessage() + ". " + resumeHint(uploadSession), ex);
+    } catch (ObjectOptimisticLockingFailureException ex) {
+      throw concurrentAppend(sessionId);
+    }
+    return toUploadSessionDto(uploadSession);
+  }
+
+  @Override
+  @Transactional
+  public SimpleResponseDto publishSession(String sessionId) {
+    long startTime = System.nanoTime();
+    UploadSession uploadSession = findOpenSession(sessionId);
+    lockStagedUsers(sessionId);
+    validateLoginsNotTaken(sessionId);
+    long existingUsersCount = stagedUsersRepository.countExistingUsers(sessionId);
+    int writtenUsersCount;
+    try {
+      writtenUsersCount = stagedUsersRepository.publish(sessionId);
+    } catch (DataIntegrityViolationException ex) {
+      log.error("Error occurred while publishing upload session {}", sessionId, ex);
+      throw new InvalidUserDataException("Error caused by invalid input data: " + ex.getMessage());
+    }
+    long createdUsersCount = uploadSession.getRowsStaged() - existingUsersCount;
+    long updatedUsersCount = writtenUsersCount - createdUsersCount;
+    long unchangedUsersCount = existingUsersCount - updatedUsersCount;
+    stagedUsersRepository.deleteBySessionId(sessionId);
+    uploadSession.setState(UploadSessionState.PUBLISHED);
+    uploadSession.setUpdatedAt(new Date());
+    try {
+      uploadSessionRepository.saveAndFlush(uploadSession);
+    } catch (ObjectOptimisticLockingFailureException ex) {
+      throw concurrentAppend(sessionId);
+    }
+    applicationEventPublisher.publishEvent(
+        new UsersUploadedEvent(createdUsersCount, updatedUsersCount));
+    log.info(
+        "Upload session {} published with {} created, {} updated and {} unchanged users in {} ms",
+        sessionId,
+        createdUsersCount,
+        updatedUsersCount,
+        unchangedUsersCount,
+        (System.nanoTime() - startTime) / 1_000_000);
+    return new SimpleResponseDto(
+        createdUsersCount > 0 ? ResponseMessage.USERS_CREATED : ResponseMessage.USERS_UPDATED,
+        createdUsersCount,
+        updatedUsersCount,
+        unchangedUsersCount);
+  }
+
+  @Override
+  @Transactional
+  public void abortSession(String sessionId) {
+    UploadSession uploadSession =
+        uploadSessionRepository.findById(sessionId).orElseThrow(() -> sessionNotFound(sessionId));
+    int stagedUsersCount = stagedUsersRepository.deleteBySessionId(sessionId);
+    uploadSessionRepository.delete(uploadSession);
+    log.info("Upload session {} aborted, {} staged users dropped", sessionId, stagedUsersCount);
+  }
+
+  /**
+   * Stages the rows of the last chunk read and moves the checkpoint past them, failing if another
+   * request moved it since {@code expectedCheckpoint}.
+   */
+  private UploadSession stageChunk(
+      String sessionId,
+      long expectedCheckpoint,
+      long partStart,
+      CheckpointedUsersCsvReader reader) {
+    UploadSession uploadSession = findOpenSession(sessionId);
+    if (uploadSession.getByteOffset() != expectedCheckpoint) {
+      throw concurrentAppend(sessionId);
+    }
+    List<Users> usersChunk = usersCsvDtoToUsersMapper.mapToUsers(reader.getRows());
+    long firstRowNumber = uploadSession.getRowsStaged() + 1;
+    validateNotStaged(sessionId, usersChunk, firstRowNumber);
+    if (!usersChunk.isEmpty()) {
+      stagedUsersRepository.insertAll(sessionId, firstRowNumber, usersChunk);
+    }
+    uploadSession.setHeader(reader.getHeader());
+    uploadSession.setByteOffset(partStart + reader.getBytesRead());
+    uploadSession.setLinesRead(reader.getLinesRead());
+    uploadSession.setRowsStaged(uploadSession.getRowsStaged() + usersChunk.size());
+    uploadSession.setUpdatedAt(new Date());
+    return uploadSessionRepository.save(uploadSession);
+  }
+
+  /**
+   * Checks the ids and logins of the chunk against each other and against the rows already staged
+   * by the session, in a single query per chunk.
+   */
+  private void validateNotStaged(String sessionId, List<Users> usersChunk, long firstRowNumber) {
+    Map<String, Long> idRowNumbers = new HashMap<>();
+    Map<String, Long> loginRowNumbers = new HashMap<>();
+    List<String> duplicateIds = new ArrayList<>();
+    List<String> duplicateLogins = new ArrayList<>();
+    for (int i = 0; i < usersChunk.size(); i++) {
+      Users users = usersChunk.get(i);
+      long rowNumber = firstRowNumber + i;
+      Long firstIdRowNumber = idRowNumbers.putIfAbsent(users.getId(), rowNumber);
+      if (firstIdRowNumber != null) {
+        duplicateIds.add(duplicate(users.getId(), firstIdRowNumber, rowNumber));
+      }
+      Long firstLoginRowNumber = loginRowNumbers.putIfAbsent(users.getLogin(), rowNumber);
+      if (firstLoginRowNumber != null) {
+        duplicateLogins.add(duplicate(users.getLogin(), firstLoginRowNumber, rowNumber));
+      }
+    }
+    if (!usersChunk.isEmpty()) {
+      for (StagedUsersKey stagedUsers :
+          stagedUsersRepository.findBySessionIdAndIdsOrLogins(
+              sessionId, idRowNumbers.keySet(), loginRowNumbers.keySet())) {
+        Long idRowNumber = idRowNumbers.get(stagedUsers.getId());
+        if (idRowNumber != null) {
+          duplicateIds.add(duplicate(stagedUsers.getId(), stagedUsers.getRowNumber(), idRowNumber));
+        }
+        Long loginRowNumber = loginRowNumbers.get(stagedUsers.getLogin());
+        if (loginRowNumber != null) {
+          duplicateLogins.add(
+              duplicate(stagedUsers.getLogin(), stagedUsers.getRowNumber(), loginRowNumber));
+        }
+      }
+    }
+    List<String> messages = new ArrayList<>();
+    if (!duplicateIds.isEmpty()) {
+      messages.add("Found duplicate id values: " + String.join(", ", duplicateIds));
+    }
+    if (!duplicateLogins.isEmpty()) {
+      messages.add("Found duplicate login values: " + String.join(", ", duplicateLogins));
+    }
+    if (!messages.isEmpty()) {
+      throw new InvalidUserDataException(String.join("; ", messages));
+    }
+  }
+
+  /**
+   * Unlike uploads, which write rows in file order, publishing writes them in a single statement,
+   * so a login held by another stored user is rejected even if the file moves that user to another
+   * login.
+   */
+  private void validateLoginsNotTaken(String sessionId) {
+    List<StagedUsersKey> takenLogins = stagedUsersRepository.findLoginsTakenByOtherUsers(sessionId);
+    if (!takenLogins.isEmpty()) {
+      String conflicts =
+          takenLogins.stream()
+              .map(
+                  stagedUsers ->
+                      stagedUsers.getLogin()
+                          + " (data row "
+                          + stagedUsers.getRowNumber()
+                          + ", used by id "
+                          + stagedUsers.getId()
+                          + ")")
+              .collect(Collectors.joining(", "));
+      log.info("Found logins already used by other users: {}", conflicts);
+      throw new InvalidUserDataException(
+          "Found login values already used by other users: " + conflicts);
+    }
+  }
+
+  /**
+   * Locks the staged users against concurrent uploads until the publishing transaction completes,
+   * and records their content hashes, applied once it commits.
+   */
+  private void lockStagedUsers(String sessionId) {
+    int chunkSize = usersUploadProperties.getChunkSize();
+    List<Users> usersChunk = new ArrayList<>(chunkSize);
+    stagedUsersRepository.forEachStagedUser(
+        sessionId,
+        users -> {
+          usersChunk.add(users);
+          if (usersChunk.size() == chunkSize) {
+            usersUploadLocks.lockForTransaction(usersChunk);
+            usersContentHashes.recordWritten(usersChunk);
+            usersChunk.clear();
+          }
+        });
+    usersUploadLocks.lockForTransaction(usersChunk);
+    usersContentHashes.recordWritten(usersChunk);
+  }
+
+  private UploadSession findOpenSession(String sessionId) {
+    UploadSession uploadSession =
+        uploadSessionRepository.findById(sessionId).orElseThrow(() -> sessionNotFound(sessionId));
+    if (uploadSession.getState() != UploadSessionState.OPEN) {
+      throw new InvalidUserDataException("Upload session " + sessionId + " is already published");
+    }
+    return uploadSession;
+  }
+
+  /** Skips {@code count} bytes, returning {@code false} if the input ends first. */
+  private static boolean skip(InputStream inputStream, long count) throws IOException {
+    long remaining = count;
+    while (remaining > 0) {
+      long skipped = inputStream.skip(remaining);
+      if (skipped <= 0) {
+        if (inputStream.read() < 0) {
+          return false;
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+    return true;
+  }
+
+  private static String duplicate(String value, long firstRowNumber, long rowNumber) {
+    return value + " (data rows " + firstRowNumber + " and " + rowNumber + ")";
+  }
+
+  private static String resumeHint(UploadSession uploadSession) {
+    return "Rows up to "
+        + uploadSession.getRowsStaged()
+        + " are staged, resume the upload from byte "
+        + uploadSession.getByteOffset();
+  }
+
+  private static UploadConflictException concurrentAppend(String sessionId) {
+    return new UploadConflictException(
+        "Upload session " + sessionId + " is being appended to by another request");
+  }
+
+  private static UploadSessionNotFoundException sessionNotFound(String sessionId) {
+    return new UploadSessionNotFoundException(sessionId);
+  }
+
+  private UploadSessionDto toUploadSessionDto(UploadSession uploadSession) {
+    return new UploadSessionDto(
+        uploadSession.getId(),
+        uploadSession.getState(),
+        uploadSession.getByteOffset(),
+        uploadSession.getRowsStaged());
+  }
+}
@@ -1,13 +1,94 @@
 package com.zenika.users.service;
 
 import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UsersFieldsListDto;
 import com.zenika.users.dto.UsersListDto;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 public interface UserService {
 
   SimpleResponseDto uploadUsers(InputStream inputStreamCsvData);
 
+  SimpleResponseDto uploadUsers(InputStream inputStreamCsvData, UploadProgress uploadProgress);
+
   UsersListDto getUsers(double minSalary, double maxSalary, int offset, int limit, String[] sortBy);
+
+  /**
+   * Writes the same users as {@link #getUsers} as a JSON {@link UsersListDto} to the output stream
+   * one user at a time, without holding the whole result in memory.
+   */
+  void writeUsers(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortBy,
+      OutputStream outputStream)
+      throws IOException;
+
+  /**
+   * Writes the same users as {@link #getUsers} to the output stream as newline delimited JSON, one
+   * {@code UsersDto} per line, while they are read from the database.
+   */
+  void writeUsersAsNdjson(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortBy,
+      OutputStream outputStream)
+      throws IOException;
+
+  /**
+   * Throws {@code InvalidUserDataException} for the offset and sortBy values {@link #getUsers}
+   * rejects, so that streamed responses can fail before anything is written.
+   */
+  void validateUsersQuery(int offset, String[] sortBy);
+
+  /**
+   * Writes every user with {@code minSalary <= salary < maxSalary} ordered by id to the output
+   * stream as an upload file, one row at a time, so that the export can be uploaded again.
+   */
+  void exportUsers(double minSalary, double maxSalary, OutputStream outputStream)
+      throws IOException;
+
+  UsersListDto getUsersAfterCursor(
+      double minSalary, double maxSalary, int limit, String[] sortBy, String cursor);
+
+  /**
+   * Returns the same users as {@link #getUsers}, or as {@link #getUsersAfterCursor} when {@code
+   * cursor} is not {@code null}, holding only the given fields. Only the columns of those fields,
+   * and of the sort for a cursor, are selected from the database.
+   *
+   * @param fields names among the sortBy fields, in the order they are returned
+   */
+  UsersFieldsListDto getUsersFields(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortBy,
+      String cursor,
+      String[] fields);
+
+  /**
+   * Returns the entity tag of the {@link #getUsers} or {@link #getUsersAfterCursor} result for the
+   * query, derived from the data set version and the normalised query without any database work.
+   * Throws {@code InvalidUserDataException} for the queries {@link #getUsers} rejects.
+   *
+   * @param fields fields of a {@link #getUsersFields} result, {@code null} for every field
+   * @param accept {@code Accept} header the result is encoded for, may be {@code null}
+   */
+  String getUsersETag(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortBy,
+      String cursor,
+      String[] fields,
+      String accept);
 }
@@ -1,76 +1,788 @@
 package com.zenika.users.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.zenika.users.cache.DatasetVersion;
+import com.zenika.users.cache.UsersQueryCache;
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.config.UsersUploadProperties.CsvParserType;
 import com.zenika.users.dto.ResponseMessage;
 import com.zenika.users.dto.SimpleResponseDto;
 import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.delta.UsersContentHashes;
+import com.zenika.users.dto.UsersFieldsListDto;
 import com.zenika.users.dto.UsersListDto;
 import com.zenika.users.entity.Users;
 import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.index.UsersReadModel;
+import com.zenika.users.lock.UsersUploadLocks;
+import com.zenika.users.metrics.Stage;
+import com.zenika.users.metrics.StageTimings;
+import com.zenika.users.metrics.UsersMetrics;
 import com.zenika.users.mapper.UsersCsvDtoToUsersMapper;
 import com.zenika.users.mapper.UsersToUsersListDtoMapper;
+import com.zenika.users.repository.OffsetBasedPageRequest;
+import com.zenika.users.repository.UsersLogin;
 import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.snapshot.UsersSnapshotFile;
+import com.zenika.users.utils.CountingInputStream;
 import com.zenika.users.utils.CsvToBeanConverter;
+import com.zenika.users.utils.Hashes;
+import com.zenika.users.utils.KeysetCursorCodec;
+import com.zenika.users.utils.LongHashTable;
+import com.zenika.users.utils.ParallelUsersCsvParser;
+import com.zenika.users.utils.UsersCsvParser;
+import com.zenika.users.utils.UsersCsvWriter;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.IterableUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.Tuple;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 @AllArgsConstructor
 public class UserServiceImpl implements UserService {
 
+  private static final String ID_FIELD = "id";
+  private static final String SALARY_FIELD = "salary";
+  private static final List<String> USERS_FIELDS =
+      List.of(ID_FIELD, "login", "name", SALARY_FIELD);
+  private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
   private UsersRepository usersRepository;
   private UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper;
   private UsersToUsersListDtoMapper usersToUsersDtoMapper;
+  private UsersUploadProperties usersUploadProperties;
+  private ParallelUsersCsvParser parallelUsersCsvParser;
+  private ObjectMapper objectMapper;
+  private UsersReadModel usersReadModel;
+  private ApplicationEventPublisher applicationEventPublisher;
+  private UsersQueryCache usersQueryCache;
+  private UsersMetrics usersMetrics;
+  private UsersContentHashes usersContentHashes;
+  private UsersUploadLocks usersUploadLocks;
+  private DatasetVersion datasetVersion;
 
   @Override
+  @Transactional
   public SimpleResponseDto uploadUsers(InputStream inputStreamCsvData) {
-    List<UsersCsvDto> usersCsvDtoList =
-        CsvToBeanConverter.convertCsvToBean(inputStreamCsvData, UsersCsvDto.class);
-    List<Users> usersList = usersCsvDtoToUsersMapper.mapToUsers(usersCsvDtoList);
-    validateUsersList(usersList);
-    Iterable<Users> existingUsers = getExistingUsers(usersList);
-    Iterable<Users> savedUsers = saveUsers(usersList);
-    boolean newUsersCreated = IterableUtils.size(existingUsers) != IterableUtils.size(savedUsers);
+    return uploadUsers(inputStreamCsvData, UploadProgress.NONE);
+  }
+
+  @Override
+  @Transactional
+  public SimpleResponseDto uploadUsers(
+      InputStream inputStreamCsvData, UploadProgress uploadProgress) {
+    long startTime = System.nanoTime();
+    UploadContext uploadContext = new UploadContext();
+    CountingInputStream countingInputStream = new CountingInputStream(inputStreamCsvData);
+    boolean succeeded = false;
+    try (SpooledUsers spooledUsers =
+        validateAndSpoolUsers(countingInputStream, uploadContext, uploadProgress)) {
+      writeSpooledUsers(spooledUsers, uploadContext, uploadProgress);
+      applicationEventPublisher.publishEvent(
+          new UsersUploadedEvent(
+              uploadContext.createdUsersCount, uploadContext.updatedUsersCount));
+      succeeded = true;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      usersMetrics.recordUpload(
+          uploadContext.stageTimings,
+          succeeded,
+          uploadContext.rowCount,
+          countingInputStream.getCount(),
+          System.nanoTime() - startTime);
+    }
+    long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
     log.info(
-        "Uploading completed with creating and updating {} users", IterableUtils.size(savedUsers));
+        "Uploading completed with {} created, {} updated and {} unchanged ({} skipped) users in {} ms "
+            + "({} rows/s), stages: {}",
+        uploadContext.createdUsersCount,
+        uploadContext.updatedUsersCount,
+        uploadContext.unchangedUsersCount,
+        uploadContext.skippedUsersCount,
+        elapsedMillis,
+        uploadContext.rowCount * 1000 / elapsedMillis,
+        uploadContext.stageTimings);
     return new SimpleResponseDto(
-        newUsersCreated ? ResponseMessage.USERS_CREATED : ResponseMessage.USERS_UPDATED);
+        uploadContext.createdUsersCount > 0
+            ? ResponseMessage.USERS_CREATED
+            : ResponseMessage.USERS_UPDATED,
+        uploadContext.createdUsersCount,
+        uploadContext.updatedUsersCount,
+        uploadContext.unchangedUsersCount,
+        uploadContext.skippedUsersCount);
+  }
+
+  /**
+   * Parses the file in chunks. The time spent outside of the chunk consumer is the parse stage,
+   * less the bean validation done by the OpenCSV binding while parsing.
+   */
+  private void convertCsvInChunks(
+      CsvChunkParser csvChunkParser,
+      StageTimings stageTimings,
+      Consumer<List<UsersCsvDto>> chunkConsumer) {
+    long[] parseStart = {stageTimings.start()};
+    csvChunkParser.parseInChunks(
+        usersCsvDtoChunk -> {
+          stageTimings.stop(Stage.PARSE, parseStart[0]);
+          chunkConsumer.accept(usersCsvDtoChunk);
+          parseStart[0] = stageTimings.start();
+        });
+    stageTimings.stop(Stage.PARSE, parseStart[0]);
+    stageTimings.add(Stage.PARSE, -stageTimings.get(Stage.VALIDATE));
+  }
+
+  /**
+   * First pass over the file: parses and checks every row, and keeps the file for the second pass.
+   * Every conflict of the file is reported here, before anything is written.
+   */
+  private SpooledUsers validateAndSpoolUsers(
+      InputStream inputStreamCsvData, UploadContext uploadContext, UploadProgress uploadProgress)
+      throws IOException {
+    SpooledUsers spooledUsers =
+        usersUploadProperties.getParser() == CsvParserType.PARALLEL
+            ? validateSpooledCsv(inputStreamCsvData, uploadContext, uploadProgress)
+            : validateAndSpoolUsersFile(inputStreamCsvData, uploadContext, uploadProgress);
+    try {
+      if (uploadContext.suspectLoginHashes.size() > 0) {
+        StageTimings stageTimings = uploadContext.stageTimings;
+        long stageStart = stageTimings.start();
+        confirmDuplicateLogins(spooledUsers, uploadContext);
+        stageTimings.stop(Stage.DUPLICATE_CHECK, stageStart);
+      }
+      validateNoConflictsFound(uploadContext);
+      return spooledUsers;
+    } catch (IOException | RuntimeException ex) {
+      spooledUsers.close();
+      throw ex;
+    }
+  }
+
+  /** Spools the mapped users of every checked chunk to a temporary binary file. */
+  private SpooledUsers validateAndSpoolUsersFile(
+      InputStream inputStreamCsvData, UploadContext uploadContext, UploadProgress uploadProgress)
+      throws IOException {
+    StageTimings stageTimings = uploadContext.stageTimings;
+    int chunkSize = usersUploadProperties.getChunkSize();
+    CsvChunkParser csvChunkParser =
+        usersUploadProperties.getParser() == CsvParserType.HAND_WRITTEN
+            ? chunkConsumer ->
+                UsersCsvParser.parseInChunks(inputStreamCsvData, chunkSize, chunkConsumer)
+            : chunkConsumer ->
+                CsvToBeanConverter.convertCsvToBeanInChunks(
+                    inputStreamCsvData, UsersCsvDto.class, chunkSize, chunkConsumer, stageTimings);
+    Path spoolFile = Files.createTempFile("users-upload-", ".users");
+    try {
+      UsersSnapshotFile.write(
+          spoolFile,
+          usersConsumer ->
+              convertCsvInChunks(
+                  csvChunkParser,
+                  stageTimings,
+                  usersCsvDtoChunk -> {
+                    uploadProgress.rowsParsed(usersCsvDtoChunk.size());
+                    List<Users> usersChunk = validateUsersChunk(usersCsvDtoChunk, uploadContext);
+                    long stageStart = stageTimings.start();
+                    usersChunk.forEach(usersConsumer);
+                    stageTimings.stop(Stage.SPOOL, stageStart);
+                  }));
+    } catch (IOException | RuntimeException ex) {
+      deleteSpoolFile(spoolFile);
+      throw ex;
+    }
+    return new SpooledUsers() {
+      @Override
+      public void forEachUser(Consumer<Users> usersConsumer) throws IOException {
+        UsersSnapshotFile.read(spoolFile, usersConsumer);
+      }
+
+      @Override
+      public void close() {
+        deleteSpoolFile(spoolFile);
+      }
+    };
+  }
+
+  /**
+   * The parallel parser spools the file to split it in ranges anyway, so the second pass parses it
+   * again instead of spooling the users a second time.
+   */
+  private SpooledUsers validateSpooledCsv(
+      InputStream inputStreamCsvData, UploadContext uploadContext, UploadProgress uploadProgress) {
+    StageTimings stageTimings = uploadContext.stageTimings;
+    int chunkSize = usersUploadProperties.getChunkSize();
+    long stageStart = stageTimings.start();
+    ParallelUsersCsvParser.SpooledCsv spooledCsv = parallelUsersCsvParser.spool(inputStreamCsvData);
+    stageTimings.stop(Stage.PARSE, stageStart);
+    try {
+      convertCsvInChunks(
+          chunkConsumer -> spooledCsv.parseInChunks(chunkSize, chunkConsumer),
+          stageTimings,
+          usersCsvDtoChunk -> {
+            uploadProgress.rowsParsed(usersCsvDtoChunk.size());
+            validateUsersChunk(usersCsvDtoChunk, uploadContext);
+          });
+    } catch (RuntimeException ex) {
+      spooledCsv.close();
+      throw ex;
+    }
+    return new SpooledUsers() {
+      @Override
+      public void forEachUser(Consumer<Users> usersConsumer) {
+        spooledCsv.parseInChunks(
+            chunkSize,
+            usersCsvDtoChunk ->
+                usersCsvDtoToUsersMapper.mapToUsers(usersCsvDtoChunk).forEach(usersConsumer));
+      }
+
+      @Override
+      public void close() {
+        spooledCsv.close();
+      }
+    };
+  }
+
+  private List<Users> validateUsersChunk(
+      List<UsersCsvDto> usersCsvDtoChunk, UploadContext uploadContext) {
+    StageTimings stageTimings = uploadContext.stageTimings;
+    long stageStart = stageTimings.start();
+    List<Users> usersChunk = usersCsvDtoToUsersMapper.mapToUsers(usersCsvDtoChunk);
+    stageTimings.stop(Stage.MAP, stageStart);
+    long firstRowNumber = uploadContext.rowsRead + 1;
+    uploadContext.rowsRead += usersChunk.size();
+    stageStart = stageTimings.start();
+    validateUsersList(usersChunk, uploadContext);
+    stageTimings.stop(Stage.DUPLICATE_CHECK, stageStart);
+    if (!uploadContext.hasConflicts()) {
+      // nothing will be written once a conflict is found, so there is no need to lock
+      stageStart = stageTimings.start();
+      usersUploadLocks.lockForTransaction(usersChunk);
+      stageTimings.stop(Stage.LOCK_WAIT, stageStart);
+    }
+    stageStart = stageTimings.start();
+    List<Users> changedUsersChunk = usersContentHashes.filterChanged(usersChunk);
+    recordUnchangedRows(usersChunk, changedUsersChunk, uploadContext, firstRowNumber - 1);
+    stageTimings.stop(Stage.DELTA_CHECK, stageStart);
+    stageStart = stageTimings.start();
+    validateLoginsNotTaken(usersChunk, changedUsersChunk, uploadContext, firstRowNumber);
+    stageTimings.stop(Stage.LOGIN_CHECK, stageStart);
+    return usersChunk;
+  }
+
+  /**
+   * {@link UsersContentHashes#filterChanged} keeps the order of the chunk, so the rows it left out
+   * are found by walking both lists.
+   */
+  private static void recordUnchangedRows(
+      List<Users> usersChunk,
+      List<Users> changedUsersChunk,
+      UploadContext uploadContext,
+      long firstRowIndex) {
+    if (changedUsersChunk.size() == usersChunk.size()) {
+      return;
+    }
+    int changedIndex = 0;
+    for (int i = 0; i < usersChunk.size(); i++) {
+      if (changedIndex < changedUsersChunk.size()
+          && changedUsersChunk.get(changedIndex) == usersChunk.get(i)) {
+        changedIndex++;
+      } else {
+        uploadContext.unchangedRows.set(Math.toIntExact(firstRowIndex + i));
+      }
+    }
+  }
+
+  /** Second pass: reads the spooled users back in chunks and writes them. */
+  private void writeSpooledUsers(
+      SpooledUsers spooledUsers, UploadContext uploadContext, UploadProgress uploadProgress)
+      throws IOException {
+    StageTimings stageTimings = uploadContext.stageTimings;
+    int chunkSize = usersUploadProperties.getChunkSize();
+    List<Users> usersChunk = new ArrayList<>(chunkSize);
+    long[] spoolStart = {stageTimings.start()};
+    spooledUsers.forEachUser(
+        users -> {
+          usersChunk.add(users);
+          if (usersChunk.size() == chunkSize) {
+            stageTimings.stop(Stage.SPOOL, spoolStart[0]);
+            writeUsersChunk(usersChunk, uploadContext, uploadProgress);
+            usersChunk.clear();
+            spoolStart[0] = stageTimings.start();
+          }
+        });
+    stageTimings.stop(Stage.SPOOL, spoolStart[0]);
+    if (!usersChunk.isEmpty()) {
+      writeUsersChunk(usersChunk, uploadContext, uploadProgress);
+    }
+  }
+
+  private void writeUsersChunk(
+      List<Users> usersChunk, UploadContext uploadContext, UploadProgress uploadProgress) {
+    StageTimings stageTimings = uploadContext.stageTimings;
+    List<Users> changedUsersChunk = changedUsers(usersChunk, uploadContext);
+    int skippedUsersCount = usersChunk.size() - changedUsersChunk.size();
+    uploadContext.rowCount += usersChunk.size();
+    uploadContext.skippedUsersCount += skippedUsersCount;
+    uploadContext.unchangedUsersCount += skippedUsersCount;
+    if (!changedUsersChunk.isEmpty()) {
+      long stageStart = stageTimings.start();
+      int existingUsersCount = getExistingUsersCount(changedUsersChunk);
+      stageTimings.stop(Stage.EXISTENCE_PROBE, stageStart);
+      stageStart = stageTimings.start();
+      int writtenUsersCount = saveUsers(changedUsersChunk);
+      stageTimings.stop(Stage.SAVE, stageStart);
+      usersContentHashes.recordWritten(changedUsersChunk);
+      int createdUsersCount = changedUsersChunk.size() - existingUsersCount;
+      int updatedUsersCount = writtenUsersCount - createdUsersCount;
+      uploadContext.createdUsersCount += createdUsersCount;
+      uploadContext.updatedUsersCount += updatedUsersCount;
+      uploadContext.unchangedUsersCount += existingUsersCount - updatedUsersCount;
+    }
+    uploadProgress.rowsSaved(usersChunk.size());
+  }
+
+  /** Leaves out the rows of the chunk found unchanged by the first pass. */
+  private static List<Users> changedUsers(List<Users> usersChunk, UploadContext uploadContext) {
+    if (uploadContext.unchangedRows.isEmpty()) {
+      return usersChunk;
+    }
+    long firstRowIndex = uploadContext.rowCount;
+    List<Users> changedUsersChunk = new ArrayList<>(usersChunk.size());
+    for (int i = 0; i < usersChunk.size(); i++) {
+      if (!uploadContext.unchangedRows.get(Math.toIntExact(firstRowIndex + i))) {
+        changedUsersChunk.add(usersChunk.get(i));
+      }
+    }
+    return changedUsersChunk;
+  }
+
+  private static void deleteSpoolFile(Path spoolFile) {
+    try {
+      Files.deleteIfExists(spoolFile);
+    } catch (IOException ex) {
+      log.warn("Could not delete upload spool file {}", spoolFile, ex);
+    }
   }
 
   @Override
   public UsersListDto getUsers(
       double minSalary, double maxSalary, int offset, int limit, String[] sortByInput) {
 
+    long startTime = System.nanoTime();
+    StageTimings stageTimings = new StageTimings();
+    validateOffset(offset);
+    Sort sort = Sort.by(getSortOrders(sortByInput));
+    stageTimings.stop(Stage.VALIDATE, startTime);
+    UsersListDto usersListDto =
+        usersQueryCache.get(
+            minSalary,
+            maxSalary,
+            sort.toString(),
+            offset,
+            limit,
+            () -> findUsers(minSalary, maxSalary, offset, limit, sort, stageTimings));
+    long elapsedNanos = System.nanoTime() - startTime;
+    usersMetrics.recordFetch(stageTimings, usersListDto.getResults().size(), elapsedNanos);
+    log.debug(
+        "Fetched {} users in {} us, stages: {}",
+        usersListDto.getResults().size(),
+        elapsedNanos / 1000,
+        stageTimings);
+    return usersListDto;
+  }
+
+  private UsersListDto findUsers(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      Sort sort,
+      StageTimings stageTimings) {
+    long stageStart = stageTimings.start();
+    Optional<List<UsersDto>> indexedUsers =
+        usersReadModel.findBySalaryRange(minSalary, maxSalary, sort, offset, limit);
+    if (indexedUsers.isPresent()) {
+      stageTimings.stop(Stage.INDEX, stageStart);
+      return new UsersListDto(indexedUsers.get());
+    }
+    stageStart = stageTimings.start();
+    List<Users> users =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            minSalary, maxSalary, new OffsetBasedPageRequest(offset, limit, sort));
+    stageTimings.stop(Stage.QUERY, stageStart);
+    stageStart = stageTimings.start();
+    UsersListDto usersListDto = usersToUsersDtoMapper.mapToUsersListDto(users);
+    stageTimings.stop(Stage.MAP, stageStart);
+    return usersListDto;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public void writeUsers(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortByInput,
+      OutputStream outputStream)
+      throws IOException {
+
+    validateOffset(offset);
+    Sort sort = Sort.by(getSortOrders(sortByInput));
+    try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream)) {
+      jsonGenerator.writeStartObject();
+      jsonGenerator.writeArrayFieldStart("results");
+      long rowCount =
+          streamUsers(minSalary, maxSalary, offset, limit, sort, jsonGenerator, () -> {});
+      jsonGenerator.writeEndArray();
+      jsonGenerator.writeEndObject();
+      log.debug("Streamed {} users", rowCount);
+    }
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public void writeUsersAsNdjson(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortByInput,
+      OutputStream outputStream)
+      throws IOException {
+
+    validateOffset(offset);
+    Sort sort = Sort.by(getSortOrders(sortByInput));
+    try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream)) {
+      jsonGenerator.setRootValueSeparator(null);
+      long rowCount =
+          streamUsers(
+              minSalary,
+              maxSalary,
+              offset,
+              limit,
+              sort,
+              jsonGenerator,
+              () -> jsonGenerator.writeRaw('\n'));
+      log.debug("Streamed {} users as NDJSON", rowCount);
+    }
+  }
+
+  @Override
+  public void validateUsersQuery(int offset, String[] sortByInput) {
+    validateOffset(offset);
+    getSortOrders(sortByInput);
+  }
+
+  /**
+   * Writes each user of the page to the generator as soon as it is read from the database cursor,
+   * calling {@code afterUser} after each one, and returns the number of written users.
+   */
+  private long streamUsers(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      Sort sort,
+      JsonGenerator jsonGenerator,
+      UserSeparator afterUser)
+      throws IOException {
+    ObjectWriter usersDtoWriter =
+        objectMapper.writerFor(UsersDto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    long rowCount = 0;
+    try (Stream<Users> users =
+        usersRepository.streamBySalaryGreaterThanEqualAndSalaryLessThan(
+            minSalary, maxSalary, new OffsetBasedPageRequest(offset, limit, sort))) {
+      for (Users user : (Iterable<Users>) users::iterator) {
+        usersDtoWriter.writeValue(jsonGenerator, usersToUsersDtoMapper.mapToUsersDto(user));
+        afterUser.write();
+        usersRepository.detach(user);
+        rowCount++;
+      }
+    }
+    return rowCount;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public void exportUsers(double minSalary, double maxSalary, OutputStream outputStream)
+      throws IOException {
+
+    UsersCsvWriter usersCsvWriter =
+        new UsersCsvWriter(
+            new BufferedWriter(
+                new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE));
+    usersCsvWriter.writeHeader();
+    long[] rowCount = new long[1];
+    try {
+      usersRepository.forEachUserBySalaryRange(
+          minSalary,
+          maxSalary,
+          user -> {
+            try {
+              usersCsvWriter.write(user);
+            } catch (IOException ex) {
+              throw new UncheckedIOException(ex);
+            }
+            rowCount[0]++;
+          });
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+    usersCsvWriter.flush();
+    log.debug("Exported {} users", rowCount[0]);
+  }
+
+  @Override
+  public UsersListDto getUsersAfterCursor(
+      double minSalary, double maxSalary, int limit, String[] sortByInput, String cursor) {
+
+    List<Sort.Order> orders = getCursorSortOrders(sortByInput);
+    Sort sort = Sort.by(orders);
+    String sortSpecification = sort.toString();
+    List<Object> lastKey =
+        getCursorLastKey(orders, sortSpecification, minSalary, maxSalary, cursor);
+    List<Users> users =
+        usersRepository.findBySalaryRangeAfterKey(minSalary, maxSalary, sort, lastKey, limit);
+
+    UsersListDto usersListDto = usersToUsersDtoMapper.mapToUsersListDto(users);
+    if (limit > 0 && users.size() == limit) {
+      Users lastUser = users.get(users.size() - 1);
+      List<Object> lastUserKey =
+          orders.stream()
+              .map(order -> getSortKeyValue(lastUser, order.getProperty()))
+              .collect(Collectors.toList());
+      usersListDto.setNextCursor(
+          KeysetCursorCodec.encode(sortSpecification, minSalary, maxSalary, lastUserKey));
+    }
+    return usersListDto;
+  }
+
+  @Override
+  public UsersFieldsListDto getUsersFields(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortByInput,
+      String cursor,
+      String[] fields) {
+
+    validateOffset(offset);
+    List<String> selectedFields = validatedFields(fields);
+    if (cursor == null) {
+      Sort sort = Sort.by(getSortOrders(sortByInput));
+      Optional<List<UsersDto>> indexedUsers =
+          usersReadModel.findBySalaryRange(minSalary, maxSalary, sort, offset, limit);
+      if (indexedUsers.isPresent()) {
+        List<Map<String, Object>> results = new ArrayList<>(indexedUsers.get().size());
+        for (UsersDto usersDto : indexedUsers.get()) {
+          Map<String, Object> result = new LinkedHashMap<>();
+          for (String field : selectedFields) {
+            result.put(field, getFieldValue(usersDto, field));
+          }
+          results.add(result);
+        }
+        return new UsersFieldsListDto(results);
+      }
+      return new UsersFieldsListDto(
+          toFieldMaps(
+              usersRepository.findFieldsBySalaryRange(
+                  minSalary, maxSalary, selectedFields, sort, List.of(), offset, limit),
+              selectedFields));
+    }
+
+    List<Sort.Order> orders = getCursorSortOrders(sortByInput);
+    Sort sort = Sort.by(orders);
+    String sortSpecification = sort.toString();
+    List<Object> lastKey =
+        getCursorLastKey(orders, sortSpecification, minSalary, maxSalary, cursor);
+    Set<String> queriedFields = new LinkedHashSet<>(selectedFields);
+    orders.forEach(order -> queriedFields.add(order.getProperty()));
+    List<Tuple> rows =
+        usersRepository.findFieldsBySalaryRange(
+            minSalary, maxSalary, new ArrayList<>(queriedFields), sort, lastKey, 0, limit);
+
+    UsersFieldsListDto usersFieldsListDto =
+        new UsersFieldsListDto(toFieldMaps(rows, selectedFields));
+    if (limit > 0 && rows.size() == limit) {
+      Tuple lastRow = rows.get(rows.size() - 1);
+      List<Object> lastRowKey =
+          orders.stream()
+              .map(order -> lastRow.get(order.getProperty()))
+              .collect(Collectors.toList());
+      usersFieldsListDto.setNextCursor(
+          KeysetCursorCodec.encode(sortSpecification, minSalary, maxSalary, lastRowKey));
+    }
+    return usersFieldsListDto;
+  }
+
+  @Override
+  public String getUsersETag(
+      double minSalary,
+      double maxSalary,
+      int offset,
+      int limit,
+      String[] sortByInput,
+      String cursor,
+      String[] fields,
+      String accept) {
+    validateOffset(offset);
+    long queryHash = Hashes.update(Hashes.SEED, Double.doubleToLongBits(minSalary));
+    queryHash = Hashes.update(queryHash, Double.doubleToLongBits(maxSalary));
+    queryHash = Hashes.update(queryHash, Sort.by(getSortOrders(sortByInput)).toString());
+    queryHash = Hashes.update(queryHash, offset);
+    queryHash = Hashes.update(queryHash, limit);
+    queryHash = Hashes.update(queryHash, cursor);
+    if (fields != null) {
+      queryHash = Hashes.update(queryHash, String.join(",", validatedFields(fields)));
+    }
+    queryHash = Hashes.update(queryHash, accept);
+    return datasetVersion.eTag(Hashes.finish(queryHash));
+  }
+
+  /** Sort orders of a keyset query, ending with the id so that a key identifies a single row. */
+  private List<Sort.Order> getCursorSortOrders(String[] sortByInput) {
+    List<Sort.Order> orders = getSortOrders(sortByInput);
+    if (orders.stream().noneMatch(order -> order.getProperty().equals(ID_FIELD))) {
+      orders.add(Sort.Order.asc(ID_FIELD));
+    }
+    return orders;
+  }
+
+  private List<Object> getCursorLastKey(
+      List<Sort.Order> orders,
+      String sortSpecification,
+      double minSalary,
+      double maxSalary,
+      String cursor) {
+    return StringUtils.isEmpty(cursor)
+        ? List.of()
+        : validatedCursorKey(
+            orders, KeysetCursorCodec.decode(sortSpecification, minSalary, maxSalary, cursor));
+  }
+
+  /** Validated field names without duplicates, in the order they were asked for. */
+  private List<String> validatedFields(String[] fields) {
+    Set<String> validatedFields = new LinkedHashSet<>();
+    for (String field : fields) {
+      if (!field.isBlank()) {
+        validatedFields.add(validatedUsersField(field.trim(), "fields"));
+      }
+    }
+    if (validatedFields.isEmpty()) {
+      throw new InvalidUserDataException("fields must name at least one of " + USERS_FIELDS);
+    }
+    return new ArrayList<>(validatedFields);
+  }
+
+  private static List<Map<String, Object>> toFieldMaps(List<Tuple> rows, List<String> fields) {
+    List<Map<String, Object>> results = new ArrayList<>(rows.size());
+    for (Tuple row : rows) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      for (String field : fields) {
+        result.put(field, row.get(field));
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  private List<Sort.Order> getSortOrders(String[] sortByInput) {
     List<Sort.Order> orders = new ArrayList<>();
     String[] sortBy = processSortByInput(sortByInput);
     for (String sort : sortBy) {
       String[] fieldAndDirection = sort.split(",");
-      String fieldName = validatedUsersField(fieldAndDirection[0]);
+      String fieldName = validatedUsersField(fieldAndDirection[0], "sort");
       Sort.Direction direction = validatedSortDirection(fieldAndDirection[1]);
       orders.add(new Sort.Order(direction, fieldName));
     }
-    List<Users> users =
-        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
-            minSalary, maxSalary, Sort.by(orders));
-    List<Users> paginatedList =
-        users.stream()
-            .skip(offset)
-            .limit(limit > 0 ? limit : users.size())
-            .collect(Collectors.toList());
-    return usersToUsersDtoMapper.mapToUsersListDto(paginatedList);
+    return orders;
+  }
+
+  private List<Object> validatedCursorKey(List<Sort.Order> orders, List<Object> cursorKey) {
+    if (cursorKey.size() != orders.size()) {
+      throw new InvalidUserDataException("cursor provided does not match the sortBy fields");
+    }
+    List<Object> lastKey = new ArrayList<>(cursorKey.size());
+    for (int i = 0; i < orders.size(); i++) {
+      Object value = cursorKey.get(i);
+      boolean salaryField = SALARY_FIELD.equals(orders.get(i).getProperty());
+      if (salaryField && value instanceof Number) {
+        lastKey.add(((Number) value).doubleValue());
+      } else if (!salaryField && value instanceof String) {
+        lastKey.add(value);
+      } else {
+        throw new InvalidUserDataException("cursor provided has an invalid value: " + value);
+      }
+    }
+    return lastKey;
+  }
+
+  private static Object getFieldValue(UsersDto usersDto, String fieldName) {
+    switch (fieldName) {
+      case ID_FIELD:
+        return usersDto.getId();
+      case "login":
+        return usersDto.getLogin();
+      case "name":
+        return usersDto.getName();
+      case SALARY_FIELD:
+        return usersDto.getSalary();
+      default:
+        throw new IllegalArgumentException("Unsupported field " + fieldName);
+    }
+  }
+
+  private Object getSortKeyValue(Users users, String fieldName) {
+    switch (fieldName) {
+      case ID_FIELD:
+        return users.getId();
+      case "login":
+        return users.getLogin();
+      case "name":
+        return users.getName();
+      case SALARY_FIELD:
+        return users.getSalary();
+      default:
+        throw new IllegalArgumentException("Unsupported sort field " + fieldName);
+    }
   }
 
   private String[] processSortByInput(String[] sortByInput) {
@@ -86,6 +798,13 @@ public class UserServiceImpl implements UserService {
     return sortByInput;
   }
 
+  private void validateOffset(int offset) {
+    if (offset < 0) {
+      log.info("Invalid offset {} provided", offset);
+      throw new InvalidUserDataException("offset must not be negative but found: " + offset);
+    }
+  }
+
   private Sort.Direction validatedSortDirection(String direction) {
     try {
       return Sort.Direction.fromString(direction);
@@ -95,44 +814,164 @@ public class UserServiceImpl implements UserService {
     }
   }
 
-  private String validatedUsersField(String fieldName) {
-    if (List.of("id", "login", "name", "salary").contains(fieldName.toLowerCase())) {
-      return fieldName;
+  /** @param usage name of the parameter the field comes from, used in the error message */
+  private String validatedUsersField(String fieldName, String usage) {
+    String normalizedFieldName = fieldName.toLowerCase();
+    if (USERS_FIELDS.contains(normalizedFieldName)) {
+      return normalizedFieldName;
     } else {
-      log.info("Invalid sort field name {} provided for sorting users", fieldName);
+      log.info("Invalid {} field name {} provided", usage, fieldName);
       throw new InvalidUserDataException(
-          "sort field name provided " + fieldName + " is not supported");
+          usage + " field name provided " + fieldName + " is not supported");
     }
   }
 
-  private void validateUsersList(List<Users> usersList) {
-    log.info("Validating users");
-    validateForDuplicateIds(usersList);
+  /** Checks the ids and logins of the chunk against those of the previous rows of the file. */
+  private void validateUsersList(List<Users> usersList, UploadContext uploadContext) {
+    log.debug("Validating users");
+    validateForDuplicateIds(usersList, uploadContext);
+    validateForDuplicateLogins(usersList, uploadContext);
+  }
+
+  /** Package-private for {@code DuplicateIdsBenchmark}. */
+  static void validateForDuplicateIds(List<Users> usersList, UploadContext uploadContext) {
+    log.debug("Validating for duplicate IDs");
+    usersList.stream()
+        .map(Users::getId)
+        .filter(id -> !uploadContext.uniqueIds.add(id))
+        .forEach(uploadContext.duplicateIds::add);
   }
 
-  private void validateForDuplicateIds(List<Users> usersList) {
-    log.info("Validating for duplicate IDs");
-    Set<String> uniqueIds = new HashSet<>();
-    String duplicateIds =
-        usersList.stream()
-            .map(Users::getId)
-            .filter(id -> !uniqueIds.add(id))
-            .collect(Collectors.joining(", "));
-    if (StringUtils.isNoneBlank(duplicateIds)) {
+  /**
+   * Logins are only kept as 64 bit hashes, so that checking a whole file costs at most 32 bytes per
+   * row. A hash seen twice only makes its login a suspect, confirmed by {@link
+   * #confirmDuplicateLogins} since two distinct logins may share a hash.
+   */
+  static void validateForDuplicateLogins(List<Users> usersList, UploadContext uploadContext) {
+    log.debug("Validating for duplicate logins");
+    for (Users users : usersList) {
+      long loginHash = uploadContext.loginHash.applyAsLong(users.getLogin());
+      if (uploadContext.loginHashes.get(loginHash) == 0) {
+        uploadContext.loginHashes.put(loginHash, 1);
+      } else {
+        uploadContext.suspectLoginHashes.put(loginHash, 1);
+      }
+    }
+  }
+
+  /**
+   * Reads the spooled users again to compare the actual logins of the rows whose login hash was
+   * seen more than once, reporting both data rows of every real duplicate.
+   */
+  static void confirmDuplicateLogins(SpooledUsers spooledUsers, UploadContext uploadContext)
+      throws IOException {
+    Map<String, Long> firstRowNumbers = new HashMap<>();
+    long[] rowNumber = {0};
+    spooledUsers.forEachUser(
+        users -> {
+          rowNumber[0]++;
+          long loginHash = uploadContext.loginHash.applyAsLong(users.getLogin());
+          if (uploadContext.suspectLoginHashes.get(loginHash) == 0) {
+            return;
+          }
+          Long firstRowNumber = firstRowNumbers.putIfAbsent(users.getLogin(), rowNumber[0]);
+          if (firstRowNumber != null) {
+            uploadContext.duplicateLogins.add(
+                users.getLogin()
+                    + " (data rows "
+                    + firstRowNumber
+                    + " and "
+                    + rowNumber[0]
+                    + ")");
+          }
+        });
+  }
+
+  /**
+   * Looks the logins of the changed users up in a single query per chunk and reports those held by
+   * another stored user, which the unique login constraint would reject on write. Rows are written
+   * in file order, so a login given up by a user of an earlier row is free by the time it is
+   * reused.
+   */
+  private void validateLoginsNotTaken(
+      List<Users> usersList,
+      List<Users> changedUsersList,
+      UploadContext uploadContext,
+      long firstRowNumber) {
+    if (changedUsersList.isEmpty()) {
+      return;
+    }
+    log.debug("Validating logins against stored users");
+    Map<String, String> idsByLogin = new HashMap<>();
+    changedUsersList.forEach(users -> idsByLogin.putIfAbsent(users.getLogin(), users.getId()));
+    Map<String, Integer> indexesById = null;
+    for (UsersLogin storedLogin : usersRepository.findByLogins(idsByLogin.keySet())) {
+      String id = idsByLogin.get(storedLogin.getLogin());
+      if (storedLogin.getId().equals(id)) {
+        continue;
+      }
+      if (indexesById == null) {
+        indexesById = new HashMap<>();
+        for (int i = 0; i < usersList.size(); i++) {
+          indexesById.putIfAbsent(usersList.get(i).getId(), i);
+        }
+      }
+      int index = indexesById.get(id);
+      Integer storedUsersIndex = indexesById.get(storedLogin.getId());
+      boolean givenUpEarlier =
+          storedUsersIndex == null
+              // the ids of previous chunks, and of this one, were added by the duplicate id check
+              ? uploadContext.uniqueIds.contains(storedLogin.getId())
+              : storedUsersIndex < index;
+      if (!givenUpEarlier) {
+        uploadContext.takenLogins.add(
+            storedLogin.getLogin()
+                + " (data row "
+                + (firstRowNumber + index)
+                + ", used by id "
+                + storedLogin.getId()
+                + ")");
+      }
+    }
+  }
+
+  private void validateNoConflictsFound(UploadContext uploadContext) {
+    if (!uploadContext.hasConflicts()) {
+      return;
+    }
+    List<String> messages = new ArrayList<>();
+    if (!uploadContext.duplicateIds.isEmpty()) {
+      String duplicateIds = String.join(", ", uploadContext.duplicateIds);
       log.info("Found duplicate IDs in the users list: {}", duplicateIds);
-      throw new InvalidUserDataException("Found duplicate id values: " + duplicateIds);
+      messages.add("Found duplicate id values: " + duplicateIds);
+    }
+    if (!uploadContext.duplicateLogins.isEmpty()) {
+      String duplicateLogins = String.join(", ", uploadContext.duplicateLogins);
+      log.info("Found duplicate logins in the users list: {}", duplicateLogins);
+      messages.add("Found duplicate login values: " + duplicateLogins);
     }
+    if (!uploadContext.takenLogins.isEmpty()) {
+      String takenLogins = String.join(", ", uploadContext.takenLogins);
+      log.info("Found logins already used by other users: {}", takenLogins);
+      messages.add("Found login values already used by other users: " + takenLogins);
+    }
+    throw new InvalidUserDataException(String.join("; ", messages));
+  }
+
+  /** Never {@code 0}, which {@link LongHashTable#get} returns for unseen logins. */
+  private static long loginHash(String login) {
+    return Hashes.finish(Hashes.update(Hashes.SEED, login));
   }
 
-  private Iterable<Users> getExistingUsers(List<Users> usersList) {
+  private int getExistingUsersCount(List<Users> usersList) {
     List<String> userIdList = usersList.stream().map(Users::getId).collect(Collectors.toList());
-    return usersRepository.findAllById(userIdList);
+    return usersRepository.findExistingIds(userIdList).size();
   }
 
-  private Iterable<Users> saveUsers(List<Users> users) {
-    log.info("Saving users in DB");
+  private int saveUsers(List<Users> users) {
+    log.debug("Saving {} users in DB", users.size());
     try {
-      return usersRepository.saveAll(users);
+      return usersRepository.upsertAll(users);
     } catch (ConstraintViolationException | DataIntegrityViolationException ex) {
       log.error("Error occurred while saving users to DB", ex);
       throw new InvalidUserDataException("Error caused by invalid input data: " + ex.getMessage());
@@ -141,4 +980,57 @@ public class UserServiceImpl implements UserService {
       throw new RuntimeException(ex);
     }
   }
+
+  private interface UserSeparator {
+    void write() throws IOException;
+  }
+
+  private interface CsvChunkParser {
+    void parseInChunks(Consumer<List<UsersCsvDto>> chunkConsumer);
+  }
+
+  /** Users of an upload kept by the first pass, read back in file order by the following ones. */
+  interface SpooledUsers extends Closeable {
+    void forEachUser(Consumer<Users> usersConsumer) throws IOException;
+
+    @Override
+    default void close() {}
+  }
+
+  /** State of a single upload carried across its chunks. */
+  static final class UploadContext {
+    private final ToLongFunction<String> loginHash;
+    private final Set<String> uniqueIds = new HashSet<>();
+    private final List<String> duplicateIds = new ArrayList<>();
+    private final LongHashTable loginHashes = new LongHashTable();
+    private final LongHashTable suspectLoginHashes = new LongHashTable();
+    private final List<String> duplicateLogins = new ArrayList<>();
+    private final List<String> takenLogins = new ArrayList<>();
+    /** Indexes of the rows skipped as unchanged, found by the first pass. */
+    private final BitSet unchangedRows = new BitSet();
+    private final StageTimings stageTimings = new StageTimings();
+    private long rowsRead;
+    private long rowCount;
+    private long createdUsersCount;
+    private long updatedUsersCount;
+    private long unchangedUsersCount;
+    private long skippedUsersCount;
+
+    UploadContext() {
+      this(UserServiceImpl::loginHash);
+    }
+
+    /** @param loginHash never {@code 0}, replaced by tests to make distinct logins collide */
+    UploadContext(ToLongFunction<String> loginHash) {
+      this.loginHash = loginHash;
+    }
+
+    List<String> getDuplicateLogins() {
+      return duplicateLogins;
+    }
+
+    private boolean hasConflicts() {
+      return !duplicateIds.isEmpty() || !duplicateLogins.isEmpty() || !takenLogins.isEmpty();
+    }
+  }
 }
@@ -0,0 +1,14 @@
+package com.zenika.users.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/** Published by a successful upload, listeners bound to the transaction run after its commit. */
+@AllArgsConstructor
+@Getter
+@ToString
+public class UsersUploadedEvent {
+  private final long createdUsersCount;
+  private final long updatedUsersCount;
+}
@@ -0,0 +1,254 @@
+package com.zenika.users.snapshot;
+
+import com.zenika.users.entity.Users;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the users table.
+ *
+ * <p>The file starts with the {@code USERSNP1} magic, followed by one record per user: id, login
+ * and name as UTF-8 bytes prefixed with an unsigned 16 bit length, the salary as a double and the
+ * start date as epoch milliseconds. It ends with the number of records and a CRC32 of every byte
+ * before the checksum. Files are written to a temporary file first and moved in place, so a
+ * snapshot is either the previous one or complete.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class UsersSnapshotFile {
+
+  private static final byte[] MAGIC = "USERSNP1".getBytes(StandardCharsets.US_ASCII);
+  private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+  private static final int BUFFER_BYTES = 1 << 20;
+  private static final int MAX_STRING_BYTES = 0xFFFF;
+
+  /** Source of the users to write, handing every user to the given consumer. */
+  public interface UsersSource {
+    void forEachUser(Consumer<Users> consumer);
+  }
+
+  /**
+   * Writes every user of the source to {@code file}.
+   *
+   * @return number of users written
+   */
+  public static long write(Path file, UsersSource usersSource) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      long count;
+      try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        ChecksummedWriter writer = new ChecksummedWriter(channel);
+        writer.reserve(MAGIC.length).put(MAGIC);
+        long[] userCount = {0};
+        usersSource.forEachUser(
+            users -> {
+              writer.writeUser(users);
+              userCount[0]++;
+            });
+        count = userCount[0];
+        writer.reserve(Long.BYTES).putLong(count);
+        writer.finish();
+        channel.force(true);
+      }
+      Files.move(
+          temporaryFile,
+          file,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      return count;
+    } catch (UncheckedSnapshotException ex) {
+      throw ex.getCause();
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Reads every user of {@code file} in file order. The checksum is verified once the last user
+   * has been handed over, so the consumer must be able to roll back on failure.
+   *
+   * @return number of users read
+   * @throws IOException if the file cannot be read, is truncated or its checksum does not match
+   */
+  public static long read(Path file, Consumer<Users> consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < MAGIC.length + TRAILER_BYTES) {
+        throw new IOException("Snapshot " + file + " is truncated");
+      }
+      ChecksummedReader reader = new ChecksummedReader(channel, size - Integer.BYTES);
+      byte[] magic = new byte[MAGIC.length];
+      reader.require(MAGIC.length).get(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("File " + file + " is not a users snapshot");
+      }
+      long count = 0;
+      while (reader.remaining() > Long.BYTES) {
+        consumer.accept(reader.readUser());
+        count++;
+      }
+      long expectedCount = reader.require(Long.BYTES).getLong();
+      long checksum = reader.checksum();
+      ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+      while (trailer.hasRemaining()) {
+        if (channel.read(trailer, size - trailer.remaining()) < 0) {
+          throw new IOException("Snapshot " + file + " is truncated");
+        }
+      }
+      if (reader.remaining() != 0
+          || count != expectedCount
+          || checksum != Integer.toUnsignedLong(trailer.flip().getInt())) {
+        throw new IOException("Snapshot " + file + " is corrupted");
+      }
+      return count;
+    }
+  }
+
+  private static final class ChecksummedWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final CRC32 crc32 = new CRC32();
+
+    private ChecksummedWriter(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private void writeUser(Users users) {
+      byte[] id = utf8(users.getId());
+      byte[] login = utf8(users.getLogin());
+      byte[] name = utf8(users.getName());
+      reserve(3 * Short.BYTES + id.length + login.length + name.length + 2 * Long.BYTES)
+          .putShort((short) id.length)
+          .put(id)
+          .putShort((short) login.length)
+          .put(login)
+          .putShort((short) name.length)
+          .put(name)
+          .putDouble(users.getSalary())
+          .putLong(users.getStartDate().getTime());
+    }
+
+    private ByteBuffer reserve(int bytes) {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+      return buffer;
+    }
+
+    private void finish() {
+      flush();
+      buffer.putInt((int) crc32.getValue()).flip();
+      drain();
+    }
+
+    private void flush() {
+      buffer.flip();
+      crc32.update(buffer.duplicate());
+      drain();
+    }
+
+    private void drain() {
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        buffer.clear();
+      } catch (IOException ex) {
+        throw new UncheckedSnapshotException(ex);
+      }
+    }
+
+    private static byte[] utf8(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > MAX_STRING_BYTES) {
+        throw new UncheckedSnapshotException(
+            new IOException("Value too long for a snapshot: " + value.substring(0, 32) + "..."));
+      }
+      return bytes;
+    }
+  }
+
+  private static final class ChecksummedReader {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).flip();
+    private final CRC32 crc32 = new CRC32();
+    private long unread;
+
+    private ChecksummedReader(FileChannel channel, long checksummedBytes) {
+      this.channel = channel;
+      this.unread = checksummedBytes;
+    }
+
+    /** Bytes left before the checksum, including the buffered ones. */
+    private long remaining() {
+      return buffer.remaining() + unread;
+    }
+
+    private long checksum() {
+      return crc32.getValue();
+    }
+
+    private Users readUser() throws IOException {
+      String id = readString();
+      String login = readString();
+      String name = readString();
+      ByteBuffer fixedFields = require(2 * Long.BYTES);
+      return new Users(id, login, name, fixedFields.getDouble(), new Date(fixedFields.getLong()));
+    }
+
+    private String readString() throws IOException {
+      int length = Short.toUnsignedInt(require(Short.BYTES).getShort());
+      byte[] bytes = new byte[length];
+      require(length).get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer require(int bytes) throws IOException {
+      if (buffer.remaining() >= bytes) {
+        return buffer;
+      }
+      if (remaining() < bytes) {
+        throw new IOException("Snapshot is truncated");
+      }
+      buffer.compact();
+      while (buffer.position() < bytes) {
+        int limit = (int) Math.min(buffer.capacity(), buffer.position() + unread);
+        ByteBuffer read = buffer.duplicate().limit(limit);
+        int start = read.position();
+        if (channel.read(read) < 0) {
+          throw new IOException("Snapshot is truncated");
+        }
+        crc32.update(read.duplicate().flip().position(start));
+        unread -= read.position() - start;
+        buffer.position(read.position());
+      }
+      return buffer.flip();
+    }
+  }
+
+  /** Carries write failures through the {@link UsersSource} callback. */
+  private static final class UncheckedSnapshotException extends RuntimeException {
+    private UncheckedSnapshotException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.zenika.users.snapshot;
+
+import com.zenika.users.config.UsersSnapshotProperties;
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UsersUploadedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a {@link UsersSnapshotFile} of the users table when {@code users.snapshot.enabled} is set.
+ *
+ * <p>The snapshot is loaded in a single transaction while the application starts, before the web
+ * server accepts requests. A snapshot that cannot be read is logged and ignored. After every
+ * committed upload the whole table is written again on a background thread. Uploads committed
+ * while a snapshot is written cause one more write, so the last snapshot always includes them.
+ */
+@Component
+@Slf4j
+public class UsersSnapshotService implements SmartLifecycle {
+
+  /** Starts before the web server, which starts in phase {@code Integer.MAX_VALUE - 1}. */
+  private static final int PHASE = 0;
+
+  private final UsersRepository usersRepository;
+  private final UsersSnapshotProperties usersSnapshotProperties;
+  private final UsersUploadProperties usersUploadProperties;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService snapshotExecutor =
+      Executors.newSingleThreadExecutor(new CustomizableThreadFactory("users-snapshot-"));
+  private final AtomicBoolean writePending = new AtomicBoolean();
+  private volatile boolean running;
+
+  public UsersSnapshotService(
+      UsersRepository usersRepository,
+      UsersSnapshotProperties usersSnapshotProperties,
+      UsersUploadProperties usersUploadProperties,
+      PlatformTransactionManager transactionManager) {
+    this.usersRepository = usersRepository;
+    this.usersSnapshotProperties = usersSnapshotProperties;
+    this.usersUploadProperties = usersUploadProperties;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(
+        TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  @Override
+  public void start() {
+    if (usersSnapshotProperties.isEnabled()
+        && Files.exists(usersSnapshotProperties.getFile())) {
+      loadSnapshot();
+    }
+    running = true;
+  }
+
+  /** Waits for a pending snapshot write, so that the last upload is not lost on shutdown. */
+  @Override
+  public void stop() {
+    running = false;
+    snapshotExecutor.shutdown();
+    try {
+      if (!snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("Users snapshot write still running at shutdown");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return PHASE;
+  }
+
+  @TransactionalEventListener
+  public void onUsersUploaded(UsersUploadedEvent usersUploadedEvent) {
+    if (usersSnapshotProperties.isEnabled() && writePending.compareAndSet(false, true)) {
+      snapshotExecutor.execute(this::writeSnapshot);
+    }
+  }
+
+  /** Writes the whole users table to the snapshot file. */
+  public void writeSnapshot() {
+    writePending.set(false);
+    long startTime = System.nanoTime();
+    try {
+      long count =
+          UsersSnapshotFile.write(usersSnapshotProperties.getFile(), usersRepository::forEachUser);
+      log.info(
+          "Users snapshot of {} users written to {} in {} ms",
+          count,
+          usersSnapshotProperties.getFile(),
+          (System.nanoTime() - startTime) / 1_000_000);
+    } catch (IOException | RuntimeException ex) {
+      log.error("Failed to write users snapshot {}", usersSnapshotProperties.getFile(), ex);
+    }
+  }
+
+  /** Loads the snapshot file, leaving the users table unchanged if it cannot be read. */
+  public void loadSnapshot() {
+    long startTime = System.nanoTime();
+    int chunkSize = usersUploadProperties.getChunkSize();
+    try {
+      Long count =
+          transactionTemplate.execute(
+              status -> {
+                List<Users> chunk = new ArrayList<>(chunkSize);
+                long userCount;
+                try {
+                  userCount =
+                      UsersSnapshotFile.read(
+                          usersSnapshotProperties.getFile(),
+                          users -> {
+                            chunk.add(users);
+                            if (chunk.size() == chunkSize) {
+                              usersRepository.upsertAll(chunk);
+                              chunk.clear();
+                            }
+                          });
+                } catch (IOException ex) {
+                  throw new UncheckedIOException(ex);
+                }
+                if (!chunk.isEmpty()) {
+                  usersRepository.upsertAll(chunk);
+                }
+                return userCount;
+              });
+      log.info(
+          "Users snapshot of {} users loaded from {} in {} ms",
+          count,
+          usersSnapshotProperties.getFile(),
+          (System.nanoTime() - startTime) / 1_000_000);
+    } catch (RuntimeException ex) {
+      log.error("Ignoring users snapshot {}", usersSnapshotProperties.getFile(), ex);
+    }
+  }
+}
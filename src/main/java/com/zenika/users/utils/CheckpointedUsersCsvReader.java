@@ -0,0 +1,198 @@
+package com.zenika.users.utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a part of a csv upload in chunks of whole records with {@link UsersCsvParser}, tracking
+ * the number of bytes and lines of the part consumed by the chunks read so far. A checkpoint taken
+ * after a chunk is a record boundary, from which the rest of the file can be read again later with
+ * the header and the line count of the checkpoint.
+ *
+ * <p>Record boundaries are found by counting quote characters, like {@link ParallelUsersCsvParser}.
+ * Escaped quotes would make them ambiguous, so the escape character is rejected. A last record
+ * without line terminator is only read once the input ends normally, so a dropped connection never
+ * checkpoints a truncated row.
+ */
+public final class CheckpointedUsersCsvReader {
+
+  private static final byte QUOTE = '"';
+  private static final byte ESCAPE = '\\';
+  private static final int READ_SIZE = 64 * 1024;
+
+  private final InputStream inputStream;
+  private String header;
+  private UsersCsvParser headerParser;
+
+  private byte[] buffer = new byte[READ_SIZE];
+  private int bufferLength;
+  private boolean endOfInput;
+  private long scannedLines;
+
+  private long bytesRead;
+  private long linesRead;
+  private List<UsersCsvDto> rows = List.of();
+
+  /**
+   * @param header header line of the upload, or {@code null} when the part starts with it
+   * @param linesBefore number of lines of the upload before the part, header included
+   */
+  public CheckpointedUsersCsvReader(InputStream inputStream, String header, long linesBefore)
+      throws IOException {
+    this.inputStream = inputStream;
+    this.linesRead = linesBefore;
+    if (header != null) {
+      this.header = header;
+      this.headerParser = headerParser(header);
+    }
+  }
+
+  /**
+   * Reads the next chunk of at most {@code maxRecords} records, comment lines included.
+   *
+   * @return {@code false} once the part is exhausted
+   * @throws InvalidUserDataException if the header or a row of the chunk is invalid
+   */
+  public boolean nextChunk(int maxRecords) throws IOException {
+    if (headerParser == null) {
+      int headerEnd = scanRecords(1);
+      header = new String(buffer, 0, headerEnd, StandardCharsets.UTF_8).stripTrailing();
+      headerParser = headerParser(header);
+      consume(headerEnd);
+    }
+    int chunkEnd = scanRecords(maxRecords);
+    if (chunkEnd == 0) {
+      rows = List.of();
+      return false;
+    }
+    rows = parse(chunkEnd);
+    consume(chunkEnd);
+    return true;
+  }
+
+  /** Rows of the last chunk read. */
+  public List<UsersCsvDto> getRows() {
+    return rows;
+  }
+
+  /** Header line of the upload, once read. */
+  public String getHeader() {
+    return header;
+  }
+
+  /** Bytes of the part consumed by the header and the chunks read so far. */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /** Lines of the upload up to the end of the last chunk read, header included. */
+  public long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Scans the buffer, reading more input as needed, until {@code maxRecords} records end or the
+   * input ends, and returns the length of those whole records. Records end with {@code \n},
+   * {@code \r\n} or {@code \r} outside quotes. The scan always stops right after the last record,
+   * so the lines scanned are those of the records.
+   */
+  private int scanRecords(int maxRecords) throws IOException {
+    int records = 0;
+    int recordsEnd = 0;
+    int scanned = 0;
+    boolean inQuotes = false;
+    boolean previousCarriageReturn = false;
+    scannedLines = linesRead;
+    while (records < maxRecords) {
+      if (scanned == bufferLength && !fill()) {
+        if (scanned > recordsEnd) {
+          // last record without line terminator
+          recordsEnd = scanned;
+          scannedLines++;
+        }
+        break;
+      }
+      byte b = buffer[scanned++];
+      if (b == QUOTE) {
+        inQuotes = !inQuotes;
+      } else if (b == ESCAPE) {
+        throw new InvalidUserDataException(
+            "The escape character \\ is not supported by resumable uploads, found on line "
+                + (scannedLines + 1));
+      } else if (b == '\r') {
+        scannedLines++;
+        boolean lineFeedNext = (scanned < bufferLength || fill()) && buffer[scanned] == '\n';
+        if (!inQuotes && !lineFeedNext) {
+          records++;
+          recordsEnd = scanned;
+        }
+      } else if (b == '\n') {
+        if (!previousCarriageReturn) {
+          scannedLines++;
+        }
+        if (!inQuotes) {
+          records++;
+          recordsEnd = scanned;
+        }
+      }
+      previousCarriageReturn = b == '\r';
+    }
+    return recordsEnd;
+  }
+
+  private List<UsersCsvDto> parse(int chunkEnd) throws IOException {
+    List<UsersCsvDto> chunkRows = new ArrayList<>();
+    try (UsersCsvParser parser =
+        new UsersCsvParser(
+            new InputStreamReader(
+                new ByteArrayInputStream(buffer, 0, chunkEnd), StandardCharsets.UTF_8),
+            headerParser,
+            linesRead)) {
+      UsersCsvDto usersCsvDto;
+      while ((usersCsvDto = parser.next()) != null) {
+        chunkRows.add(usersCsvDto);
+      }
+    }
+    return chunkRows;
+  }
+
+  /** Drops the consumed records from the buffer, keeping the bytes read past them. */
+  private void consume(int end) {
+    System.arraycopy(buffer, end, buffer, 0, bufferLength - end);
+    bufferLength -= end;
+    bytesRead += end;
+    linesRead = scannedLines;
+  }
+
+  private boolean fill() throws IOException {
+    if (endOfInput) {
+      return false;
+    }
+    if (bufferLength == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    int read = inputStream.read(buffer, bufferLength, buffer.length - bufferLength);
+    if (read < 0) {
+      endOfInput = true;
+      return false;
+    }
+    bufferLength += read;
+    return true;
+  }
+
+  private static UsersCsvParser headerParser(String header) throws IOException {
+    UsersCsvParser parser = new UsersCsvParser(new StringReader(header));
+    parser.readHeaderOnly();
+    return parser;
+  }
+}
@@ -0,0 +1,49 @@
+package com.zenika.users.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Counts the bytes read through it. */
+public class CountingInputStream extends FilterInputStream {
+
+  private long count;
+
+  public CountingInputStream(InputStream inputStream) {
+    super(inputStream);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int read = super.read();
+    if (read >= 0) {
+      count++;
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    int read = super.read(bytes, offset, length);
+    if (read > 0) {
+      count += read;
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long length) throws IOException {
+    long skipped = super.skip(length);
+    count += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
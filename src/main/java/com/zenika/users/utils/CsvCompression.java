@@ -0,0 +1,108 @@
+package com.zenika.users.utils;
+
+import com.zenika.users.exception.InvalidUserDataException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of an uploaded csv file, declared by the {@code Content-Encoding} header or the
+ * content type of the file, or else detected from its first bytes. Files are inflated as they are
+ * read, so no inflated copy is ever kept on disk or in memory.
+ */
+public enum CsvCompression {
+  /** Not declared: gzip and zlib content are recognised by their magic bytes. */
+  AUTO,
+  GZIP,
+  /**
+   * HTTP {@code deflate}, which is zlib wrapped deflate. Raw deflate content, sent by some clients,
+   * is recognised by the missing zlib header.
+   */
+  DEFLATE;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int GZIP_MAGIC_FIRST = 0x1f;
+  private static final int GZIP_MAGIC_SECOND = 0x8b;
+  private static final int ZLIB_DEFLATE_METHOD = 0x78;
+
+  /**
+   * @param contentEncoding {@code Content-Encoding} header of the request, may be {@code null}
+   * @param contentType content type of the request or of the multipart file, may be {@code null}
+   * @throws InvalidUserDataException if the content encoding is not supported
+   */
+  public static CsvCompression of(String contentEncoding, String contentType) {
+    CsvCompression compression = AUTO;
+    if (contentEncoding != null) {
+      for (String coding : contentEncoding.split(",")) {
+        CsvCompression codingCompression =
+            fromContentCoding(coding.trim().toLowerCase(Locale.ROOT));
+        if (codingCompression != AUTO) {
+          if (compression != AUTO) {
+            throw new InvalidUserDataException(
+                "Only one Content-Encoding is supported but found: " + contentEncoding);
+          }
+          compression = codingCompression;
+        }
+      }
+    }
+    if (compression == AUTO && contentType != null) {
+      String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+      if (mediaType.equals("application/gzip") || mediaType.equals("application/x-gzip")) {
+        compression = GZIP;
+      } else if (mediaType.equals("application/zlib")) {
+        compression = DEFLATE;
+      }
+    }
+    return compression;
+  }
+
+  /** Returns a stream inflating the file as it is read. */
+  public InputStream decompress(InputStream inputStream) throws IOException {
+    PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+    byte[] magic = new byte[2];
+    int magicLength = pushbackInputStream.readNBytes(magic, 0, 2);
+    pushbackInputStream.unread(magic, 0, magicLength);
+    boolean gzipMagic =
+        magicLength == 2
+            && (magic[0] & 0xff) == GZIP_MAGIC_FIRST
+            && (magic[1] & 0xff) == GZIP_MAGIC_SECOND;
+    boolean zlibHeader = magicLength == 2 && isZlibHeader(magic[0] & 0xff, magic[1] & 0xff);
+    if (this == GZIP || (this == AUTO && gzipMagic)) {
+      return new GZIPInputStream(pushbackInputStream, BUFFER_SIZE);
+    }
+    if (this == DEFLATE || (this == AUTO && zlibHeader)) {
+      return new InflaterInputStream(pushbackInputStream, new Inflater(!zlibHeader), BUFFER_SIZE);
+    }
+    return pushbackInputStream;
+  }
+
+  private static CsvCompression fromContentCoding(String coding) {
+    switch (coding) {
+      case "gzip":
+      case "x-gzip":
+        return GZIP;
+      case "deflate":
+        return DEFLATE;
+      case "":
+      case "identity":
+        return AUTO;
+      default:
+        throw new InvalidUserDataException("Unsupported Content-Encoding: " + coding);
+    }
+  }
+
+  /**
+   * A zlib header with a 32K window and a valid check. Only the usual compression levels are
+   * accepted, so that a csv file starting with {@code x} followed by a space, {@code ?}, {@code ^}
+   * or <code>}</code> is not taken for zlib content.
+   */
+  private static boolean isZlibHeader(int first, int second) {
+    return first == ZLIB_DEFLATE_METHOD
+        && (second == 0x01 || second == 0x5e || second == 0x9c || second == 0xda);
+  }
+}
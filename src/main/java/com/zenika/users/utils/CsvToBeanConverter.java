@@ -6,6 +6,8 @@ import com.opencsv.bean.CsvToBeanBuilder;
 import com.opencsv.bean.CsvToBeanFilter;
 import com.opencsv.exceptions.CsvConstraintViolationException;
 import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.metrics.Stage;
+import com.zenika.users.metrics.StageTimings;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -15,12 +17,16 @@ import javax.validation.Validation;
 import javax.validation.Validator;
 import javax.validation.ValidatorFactory;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
@@ -33,16 +39,105 @@ public final class CsvToBeanConverter {
     log.info("Converting input stream to beans");
     try (Reader reader =
         new BufferedReader(new InputStreamReader(inputStreamCsvData, StandardCharsets.UTF_8))) {
-      CsvToBean<T> csvToBean = new CsvToBeanBuilder<T>(reader).withType(var).build();
-      csvToBean.setFilter(getSkipCommentsFilter());
-      csvToBean.setVerifiers(List.of(getBeanVerifier()));
-      return csvToBean.parse();
+      return buildCsvToBean(reader, var, null).parse();
     } catch (Exception ex) {
       log.error("Failed to convert input stream to bean", ex);
-      throw new InvalidUserDataException(ex.getMessage() + " " + ex.getCause().getMessage(), ex);
+      throw new InvalidUserDataException(getErrorMessage(ex), ex);
     }
   }
 
+  /**
+   * Converts the csv content to beans one row at a time and hands them to the consumer in chunks
+   * of at most {@code chunkSize} beans, so that only a single chunk is held in memory at a time.
+   * Exceptions thrown by the consumer are propagated as is.
+   *
+   * @return total number of beans converted
+   */
+  public static <T> long convertCsvToBeanInChunks(
+      InputStream inputStreamCsvData,
+      Class<T> var,
+      int chunkSize,
+      Consumer<List<T>> chunkConsumer) {
+    return convertCsvToBeanInChunks(inputStreamCsvData, var, chunkSize, chunkConsumer, null);
+  }
+
+  /**
+   * Same as {@link #convertCsvToBeanInChunks(InputStream, Class, int, Consumer)}, also adding the
+   * time spent in bean validation to the {@link Stage#VALIDATE} stage of {@code stageTimings}.
+   */
+  public static <T> long convertCsvToBeanInChunks(
+      InputStream inputStreamCsvData,
+      Class<T> var,
+      int chunkSize,
+      Consumer<List<T>> chunkConsumer,
+      StageTimings stageTimings) {
+    log.info("Converting input stream to beans in chunks of {}", chunkSize);
+    long beanCount = 0;
+    try (Reader reader =
+        new BufferedReader(new InputStreamReader(inputStreamCsvData, StandardCharsets.UTF_8))) {
+      Iterator<T> beans = iterator(reader, var, stageTimings);
+      List<T> chunk;
+      while (!(chunk = nextChunk(beans, chunkSize)).isEmpty()) {
+        beanCount += chunk.size();
+        chunkConsumer.accept(chunk);
+      }
+    } catch (IOException ex) {
+      log.error("Failed to read input stream", ex);
+      throw new InvalidUserDataException(getErrorMessage(ex), ex);
+    }
+    return beanCount;
+  }
+
+  private static <T> Iterator<T> iterator(Reader reader, Class<T> var, StageTimings stageTimings) {
+    try {
+      return buildCsvToBean(reader, var, stageTimings).iterator();
+    } catch (Exception ex) {
+      log.error("Failed to convert input stream to bean", ex);
+      throw new InvalidUserDataException(getErrorMessage(ex), ex);
+    }
+  }
+
+  private static <T> List<T> nextChunk(Iterator<T> beans, int chunkSize) {
+    List<T> chunk = new ArrayList<>(chunkSize);
+    try {
+      while (chunk.size() < chunkSize && beans.hasNext()) {
+        chunk.add(beans.next());
+      }
+    } catch (Exception ex) {
+      log.error("Failed to convert input stream to bean", ex);
+      throw new InvalidUserDataException(getErrorMessage(ex), ex);
+    }
+    return chunk;
+  }
+
+  private static <T> CsvToBean<T> buildCsvToBean(
+      Reader reader, Class<T> var, StageTimings stageTimings) {
+    CsvToBean<T> csvToBean = new CsvToBeanBuilder<T>(reader).withType(var).build();
+    csvToBean.setFilter(getSkipCommentsFilter());
+    BeanVerifier<T> beanVerifier = getBeanVerifier();
+    csvToBean.setVerifiers(
+        List.of(stageTimings == null ? beanVerifier : timed(beanVerifier, stageTimings)));
+    return csvToBean;
+  }
+
+  private static <T> BeanVerifier<T> timed(
+      BeanVerifier<T> beanVerifier, StageTimings stageTimings) {
+    return item -> {
+      long startNanos = stageTimings.start();
+      try {
+        return beanVerifier.verifyBean(item);
+      } finally {
+        stageTimings.stop(Stage.VALIDATE, startNanos);
+      }
+    };
+  }
+
+  private static String getErrorMessage(Exception ex) {
+    return ex.getCause() == null
+        ? ex.getMessage()
+        : ex.getMessage() + " " + ex.getCause().getMessage();
+  }
+
   private static CsvToBeanFilter getSkipCommentsFilter() {
     return lineElements -> !lineElements[0].startsWith(COMMENT_MARKER);
   }
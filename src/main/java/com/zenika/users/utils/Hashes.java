@@ -0,0 +1,41 @@
+package com.zenika.users.utils;
+
+/**
+ * 64 bit hashing of user fields, FNV-1a over the values followed by the MurmurHash3 finalizer.
+ * Finished hashes are never {@code 0}, so that open addressing tables can use {@code 0} as the
+ * empty slot marker.
+ */
+public final class Hashes {
+
+  public static final long SEED = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long NULL_MARKER = 0x9e3779b97f4a7c15L;
+
+  private Hashes() {}
+
+  /** Hashes the characters followed by the length, so that successive values cannot run together. */
+  public static long update(long hash, String value) {
+    if (value == null) {
+      return (hash ^ NULL_MARKER) * FNV_PRIME;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    return (hash ^ value.length()) * FNV_PRIME;
+  }
+
+  public static long update(long hash, long value) {
+    return (hash ^ value) * FNV_PRIME;
+  }
+
+  /** Spreads every input bit over every output bit, never returning {@code 0}. */
+  public static long finish(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash;
+  }
+}
@@ -0,0 +1,79 @@
+package com.zenika.users.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.users.exception.InvalidUserDataException;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Encodes the sort key values of the last row of a page into an opaque, URL safe cursor and back.
+ * The cursor also carries the sort specification and the salary range it was created for so that it
+ * cannot be replayed against a different ordering or range.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
+public final class KeysetCursorCodec {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final TypeReference<List<Object>> CURSOR_TYPE = new TypeReference<>() {};
+
+  private static final int KEY_VALUES_START = 3;
+
+  public static String encode(
+      String sortSpecification, double minSalary, double maxSalary, List<Object> keyValues) {
+    List<Object> cursor = new ArrayList<>(keyValues.size() + KEY_VALUES_START);
+    cursor.add(sortSpecification);
+    cursor.add(minSalary);
+    cursor.add(maxSalary);
+    cursor.addAll(keyValues);
+    try {
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(OBJECT_MAPPER.writeValueAsBytes(cursor));
+    } catch (Exception ex) {
+      throw new IllegalStateException("Failed to encode cursor", ex);
+    }
+  }
+
+  public static List<Object> decode(
+      String sortSpecification, double minSalary, double maxSalary, String encodedCursor) {
+    List<Object> cursor;
+    try {
+      cursor =
+          OBJECT_MAPPER.readValue(
+              new String(Base64.getUrlDecoder().decode(encodedCursor), StandardCharsets.UTF_8),
+              CURSOR_TYPE);
+    } catch (Exception ex) {
+      log.info("Invalid cursor {} provided", encodedCursor, ex);
+      throw new InvalidUserDataException("cursor provided " + encodedCursor + " is not valid");
+    }
+    if (cursor.isEmpty() || !sortSpecification.equals(cursor.get(0))) {
+      throw new InvalidUserDataException(
+          "cursor provided " + encodedCursor + " does not match sortBy " + sortSpecification);
+    }
+    if (cursor.size() < KEY_VALUES_START
+        || !isSalary(cursor.get(1), minSalary)
+        || !isSalary(cursor.get(2), maxSalary)) {
+      throw new InvalidUserDataException(
+          "cursor provided "
+              + encodedCursor
+              + " does not match minSalary "
+              + minSalary
+              + " and maxSalary "
+              + maxSalary);
+    }
+    return cursor.subList(KEY_VALUES_START, cursor.size());
+  }
+
+  private static boolean isSalary(Object value, double salary) {
+    return value instanceof Number
+        && Double.compare(((Number) value).doubleValue(), salary) == 0;
+  }
+}
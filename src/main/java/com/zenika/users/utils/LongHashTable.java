@@ -0,0 +1,95 @@
+package com.zenika.users.utils;
+
+/**
+ * Open addressing map from a 64 bit key to a 64 bit value stored in two {@code long} arrays, so an
+ * entry costs 32 bytes at most and no object. Key {@code 0} marks an empty slot and callers must
+ * never use it. Not thread safe.
+ */
+public final class LongHashTable {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int size;
+
+  public LongHashTable() {
+    this(0);
+  }
+
+  public LongHashTable(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new long[capacity];
+  }
+
+  /** Returns the value of the key, or {@code 0} when the key is absent. */
+  public long get(long key) {
+    int mask = keys.length - 1;
+    for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return 0;
+  }
+
+  public boolean containsKey(long key) {
+    int mask = keys.length - 1;
+    for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void put(long key, long value) {
+    if ((size + 1) * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (keys[slot] != 0 && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    if (keys[slot] == 0) {
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  public void putAll(LongHashTable longHashTable) {
+    for (int slot = 0; slot < longHashTable.keys.length; slot++) {
+      if (longHashTable.keys[slot] != 0) {
+        put(longHashTable.keys[slot], longHashTable.values[slot]);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[capacity];
+    values = new long[capacity];
+    size = 0;
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != 0) {
+        put(oldKeys[slot], oldValues[slot]);
+      }
+    }
+  }
+
+  /** Keys are already hashes, the upper bits are folded in only to spread sequential ones. */
+  private static int slot(long key, int mask) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,383 @@
+package com.zenika.users.utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs {@link UsersCsvParser} over line aligned byte ranges of large uploads on a {@link
+ * ForkJoinPool}. Uploads smaller than the sequential threshold are parsed on the calling thread.
+ *
+ * <p>Larger uploads are spooled to a temporary file. While spooling, record boundaries are tracked
+ * by counting quote characters, so a range never starts inside a quoted multi-line field. Ranges
+ * are parsed concurrently, at most two per thread ahead of the consumer, and their rows are handed
+ * to the consumer in file order and in the same chunks as the sequential parser. Error messages,
+ * including line numbers, are the same as those of the sequential parser. Content read with
+ * {@link #spool} can be parsed again without reading the input stream twice.
+ */
+@Slf4j
+public class ParallelUsersCsvParser implements Closeable {
+
+  private static final byte QUOTE = '"';
+  private static final byte ESCAPE = '\\';
+  private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+  private final ForkJoinPool forkJoinPool;
+  private final int parallelism;
+  private final int sequentialThresholdBytes;
+  private final long segmentBytes;
+
+  public ParallelUsersCsvParser(int parallelism, int sequentialThresholdBytes, long segmentBytes) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1 but was " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.sequentialThresholdBytes = sequentialThresholdBytes;
+    this.segmentBytes = segmentBytes;
+    this.forkJoinPool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Parses the csv content and hands the rows to the consumer in file order, in chunks of at most
+   * {@code chunkSize}, like {@link UsersCsvParser#parseInChunks}.
+   *
+   * @return total number of rows parsed
+   */
+  public long parseInChunks(
+      InputStream inputStreamCsvData, int chunkSize, Consumer<List<UsersCsvDto>> chunkConsumer) {
+    if (parallelism == 1) {
+      return UsersCsvParser.parseInChunks(inputStreamCsvData, chunkSize, chunkConsumer);
+    }
+    try (SpooledCsv spooledCsv = spool(inputStreamCsvData)) {
+      return spooledCsv.parseInChunks(chunkSize, chunkConsumer);
+    }
+  }
+
+  /**
+   * Reads the whole csv content, keeping it in memory below the sequential threshold and in a
+   * temporary file otherwise, so that it can be parsed as many times as needed until closed.
+   */
+  public SpooledCsv spool(InputStream inputStreamCsvData) {
+    Path spoolFile = null;
+    try {
+      byte[] head = inputStreamCsvData.readNBytes(sequentialThresholdBytes);
+      if (head.length < sequentialThresholdBytes) {
+        return new SpooledCsv(head, null, null);
+      }
+      spoolFile = Files.createTempFile("users-upload-", ".csv");
+      RecordBoundaryScanner scanner = new RecordBoundaryScanner(segmentBytes);
+      spool(head, inputStreamCsvData, spoolFile, scanner);
+      if (parallelism == 1) {
+        return new SpooledCsv(null, spoolFile, null);
+      } else if (scanner.escapeFound) {
+        // escaped quotes do not toggle quoting, record boundaries found by counting quotes may be
+        // wrong
+        log.info("Escape character found, input stream will be parsed sequentially");
+        return new SpooledCsv(null, spoolFile, null);
+      }
+      return new SpooledCsv(null, spoolFile, scanner.finish());
+    } catch (IOException ex) {
+      deleteSpoolFile(spoolFile);
+      log.error("Failed to read input stream", ex);
+      throw new InvalidUserDataException(ex.getMessage(), ex);
+    } catch (RuntimeException ex) {
+      deleteSpoolFile(spoolFile);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void close() {
+    forkJoinPool.shutdown();
+  }
+
+  private void spool(
+      byte[] head, InputStream inputStreamCsvData, Path spoolFile, RecordBoundaryScanner scanner)
+      throws IOException {
+    try (OutputStream spooledCsvData = Files.newOutputStream(spoolFile)) {
+      scanner.scan(head, head.length);
+      spooledCsvData.write(head);
+      byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+      int read;
+      while ((read = inputStreamCsvData.read(buffer)) >= 0) {
+        scanner.scan(buffer, read);
+        spooledCsvData.write(buffer, 0, read);
+      }
+    }
+  }
+
+  private long parseSegments(
+      Path spoolFile,
+      List<Segment> segments,
+      int chunkSize,
+      Consumer<List<UsersCsvDto>> chunkConsumer)
+      throws IOException {
+    // the first range starts with the header, which every other range needs before parsing
+    UsersCsvParser firstSegmentParser = parserFor(spoolFile, segments.get(0), null);
+    try {
+      firstSegmentParser.readHeaderOnly();
+    } catch (IOException | RuntimeException ex) {
+      firstSegmentParser.close();
+      throw ex;
+    }
+    Deque<Future<List<UsersCsvDto>>> pendingSegments = new ArrayDeque<>();
+    pendingSegments.add(forkJoinPool.submit(() -> readRows(firstSegmentParser)));
+    int nextSegment = 1;
+    long rowCount = 0;
+    List<UsersCsvDto> chunk = new ArrayList<>(chunkSize);
+    try {
+      while (!pendingSegments.isEmpty()) {
+        while (nextSegment < segments.size() && pendingSegments.size() < 2 * parallelism) {
+          Segment segment = segments.get(nextSegment++);
+          pendingSegments.add(
+              forkJoinPool.submit(
+                  () -> readRows(parserFor(spoolFile, segment, firstSegmentParser))));
+        }
+        for (UsersCsvDto usersCsvDto : awaitSegment(pendingSegments.poll())) {
+          chunk.add(usersCsvDto);
+          if (chunk.size() == chunkSize) {
+            rowCount += chunk.size();
+            chunkConsumer.accept(chunk);
+            chunk = new ArrayList<>(chunkSize);
+          }
+        }
+      }
+    } finally {
+      pendingSegments.forEach(pendingSegment -> pendingSegment.cancel(true));
+    }
+    if (!chunk.isEmpty()) {
+      rowCount += chunk.size();
+      chunkConsumer.accept(chunk);
+    }
+    return rowCount;
+  }
+
+  private List<UsersCsvDto> readRows(UsersCsvParser parser) throws IOException {
+    List<UsersCsvDto> rows = new ArrayList<>();
+    try (parser) {
+      UsersCsvDto usersCsvDto;
+      while ((usersCsvDto = parser.next()) != null) {
+        rows.add(usersCsvDto);
+      }
+    }
+    return rows;
+  }
+
+  private UsersCsvParser parserFor(Path spoolFile, Segment segment, UsersCsvParser headerParser)
+      throws IOException {
+    FileChannel channel = FileChannel.open(spoolFile);
+    channel.position(segment.start);
+    InputStreamReader reader =
+        new InputStreamReader(
+            new LimitedInputStream(Channels.newInputStream(channel), segment.end - segment.start),
+            StandardCharsets.UTF_8);
+    return headerParser == null
+        ? new UsersCsvParser(reader)
+        : new UsersCsvParser(reader, headerParser, segment.linesBefore);
+  }
+
+  private List<UsersCsvDto> awaitSegment(Future<List<UsersCsvDto>> pendingSegment)
+      throws IOException {
+    try {
+      return pendingSegment.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing users", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private void deleteSpoolFile(Path spoolFile) {
+    if (spoolFile == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(spoolFile);
+    } catch (IOException ex) {
+      log.warn("Failed to delete spooled upload {}", spoolFile, ex);
+    }
+  }
+
+  /** Csv content read by {@link #spool}, which deletes its temporary file when closed. */
+  public final class SpooledCsv implements Closeable {
+    private final byte[] content;
+    private final Path spoolFile;
+    private final List<Segment> segments;
+
+    /**
+     * @param content the whole content when held in memory, {@code null} when spooled to a file
+     * @param segments ranges of the spooled file, {@code null} to parse it sequentially
+     */
+    private SpooledCsv(byte[] content, Path spoolFile, List<Segment> segments) {
+      this.content = content;
+      this.spoolFile = spoolFile;
+      this.segments = segments;
+    }
+
+    /**
+     * Parses the content and hands the rows to the consumer like {@link
+     * ParallelUsersCsvParser#parseInChunks}.
+     *
+     * @return total number of rows parsed
+     */
+    public long parseInChunks(int chunkSize, Consumer<List<UsersCsvDto>> chunkConsumer) {
+      try {
+        if (content != null) {
+          return UsersCsvParser.parseInChunks(
+              new ByteArrayInputStream(content), chunkSize, chunkConsumer);
+        } else if (segments == null) {
+          try (InputStream spooledCsvData = Files.newInputStream(spoolFile)) {
+            return UsersCsvParser.parseInChunks(spooledCsvData, chunkSize, chunkConsumer);
+          }
+        }
+        log.info(
+            "Parsing {} bytes in {} ranges with parallelism {} and chunks of {}",
+            segments.get(segments.size() - 1).end,
+            segments.size(),
+            parallelism,
+            chunkSize);
+        return parseSegments(spoolFile, segments, chunkSize, chunkConsumer);
+      } catch (IOException ex) {
+        log.error("Failed to read input stream", ex);
+        throw new InvalidUserDataException(ex.getMessage(), ex);
+      }
+    }
+
+    @Override
+    public void close() {
+      deleteSpoolFile(spoolFile);
+    }
+  }
+
+  /** Byte range of whole csv records and the number of lines before it. */
+  private static final class Segment {
+    private final long start;
+    private final long end;
+    private final long linesBefore;
+
+    private Segment(long start, long end, long linesBefore) {
+      this.start = start;
+      this.end = end;
+      this.linesBefore = linesBefore;
+    }
+  }
+
+  /**
+   * Splits the content into segments of at least {@code segmentBytes} ending after a line
+   * terminator outside quotes. Lines are counted like {@link UsersCsvParser} counts them.
+   */
+  private static final class RecordBoundaryScanner {
+    private final long segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private long position;
+    private long segmentStart;
+    private long linesBeforeSegment;
+    private long lines;
+    private boolean inQuotes;
+    private boolean previousCarriageReturn;
+    private boolean escapeFound;
+
+    private RecordBoundaryScanner(long segmentBytes) {
+      this.segmentBytes = segmentBytes;
+    }
+
+    private void scan(byte[] bytes, int length) {
+      for (int i = 0; i < length; i++) {
+        byte b = bytes[i];
+        position++;
+        if (b == QUOTE) {
+          inQuotes = !inQuotes;
+        } else if (b == ESCAPE) {
+          escapeFound = true;
+        } else if (b == '\r') {
+          lines++;
+        } else if (b == '\n') {
+          if (!previousCarriageReturn) {
+            lines++;
+          }
+          if (!inQuotes) {
+            recordEnd();
+          }
+        }
+        previousCarriageReturn = b == '\r';
+      }
+    }
+
+    private void recordEnd() {
+      if (position - segmentStart >= segmentBytes) {
+        segments.add(new Segment(segmentStart, position, linesBeforeSegment));
+        segmentStart = position;
+        linesBeforeSegment = lines;
+      }
+    }
+
+    private List<Segment> finish() {
+      if (position > segmentStart || segments.isEmpty()) {
+        segments.add(new Segment(segmentStart, position, linesBeforeSegment));
+      }
+      return segments;
+    }
+  }
+
+  /** Stops reading after a given number of bytes. */
+  private static final class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    private LimitedInputStream(InputStream inputStream, long limit) {
+      super(inputStream);
+      this.remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = super.read();
+      if (read >= 0) {
+        remaining--;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = super.read(bytes, offset, (int) Math.min(length, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+  }
+}
@@ -0,0 +1,543 @@
+package com.zenika.users.utils;
+
+import com.opencsv.CSVParser;
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Hand written parser for the {@code id,login,name,salary,startDate} upload schema. It produces the
+ * same {@link UsersCsvDto} values and error messages as {@link CsvToBeanConverter}, without the
+ * reflection and annotation processing of the OpenCSV bean binding.
+ *
+ * <p>Lines are read into a reusable char buffer. Lines without quotes or escape characters are
+ * split in place and salary and start date are parsed straight from the buffer. Lines containing
+ * them are tokenized by the OpenCSV {@link CSVParser} so that quoting and multi-line fields behave
+ * exactly as in {@link CsvToBeanConverter}. The {@code @Min} constraint of {@link UsersCsvDto} is
+ * checked inline instead of through bean validation.
+ */
+@Slf4j
+public final class UsersCsvParser implements Closeable {
+
+  private static final char COMMENT_MARKER = '#';
+  private static final char SEPARATOR = ',';
+  private static final char QUOTE = '"';
+  private static final char ESCAPE = '\\';
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private static final String[] REQUIRED_HEADERS = {"ID", "LOGIN", "NAME", "SALARY", "STARTDATE"};
+  private static final String[] FIELD_NAMES = {"id", "login", "name", "salary", "startDate"};
+  private static final int ID = 0;
+  private static final int LOGIN = 1;
+  private static final int NAME = 2;
+  private static final int SALARY = 3;
+  private static final int START_DATE = 4;
+
+  private static final DateTimeFormatter DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("[yyyy-MM-dd][dd-MMM-yy]");
+  private static final Map<String, Integer> SHORT_MONTHS = shortMonths(Locale.getDefault());
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  private final Reader reader;
+  private final CSVParser quotedLineParser = new CSVParser();
+
+  private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+  private int bufferPosition;
+  private int bufferLimit;
+  private boolean endOfInput;
+  private boolean skipLineFeed;
+  private long linesRead;
+
+  private int lineStart;
+  private int lineEnd;
+
+  private char[] record;
+  private int[] fieldStarts = new int[8];
+  private int[] fieldEnds = new int[8];
+  private int fieldCount;
+
+  private int headerCount = -1;
+  private final int[] columnIndexes = new int[REQUIRED_HEADERS.length];
+  private int[] fieldsInColumnOrder;
+
+  public UsersCsvParser(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Parser for a line aligned part of the csv content after its header, which was already read by
+   * {@code headerParser}. Line numbers in error messages continue from {@code linesBefore}.
+   */
+  UsersCsvParser(Reader reader, UsersCsvParser headerParser, long linesBefore) {
+    this.reader = reader;
+    this.headerCount = headerParser.headerCount;
+    System.arraycopy(headerParser.columnIndexes, 0, columnIndexes, 0, columnIndexes.length);
+    this.fieldsInColumnOrder = headerParser.fieldsInColumnOrder;
+    this.linesRead = linesBefore;
+  }
+
+  /**
+   * Parses the csv content one row at a time and hands the rows to the consumer in chunks of at
+   * most {@code chunkSize}, like {@link CsvToBeanConverter#convertCsvToBeanInChunks}.
+   *
+   * @return total number of rows parsed
+   */
+  public static long parseInChunks(
+      InputStream inputStreamCsvData, int chunkSize, Consumer<List<UsersCsvDto>> chunkConsumer) {
+    log.info("Parsing input stream in chunks of {}", chunkSize);
+    long rowCount = 0;
+    try (UsersCsvParser parser =
+        new UsersCsvParser(new InputStreamReader(inputStreamCsvData, StandardCharsets.UTF_8))) {
+      List<UsersCsvDto> chunk = new ArrayList<>(chunkSize);
+      UsersCsvDto usersCsvDto;
+      while ((usersCsvDto = parser.next()) != null) {
+        chunk.add(usersCsvDto);
+        if (chunk.size() == chunkSize) {
+          rowCount += chunk.size();
+          chunkConsumer.accept(chunk);
+          chunk = new ArrayList<>(chunkSize);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        rowCount += chunk.size();
+        chunkConsumer.accept(chunk);
+      }
+    } catch (IOException ex) {
+      log.error("Failed to read input stream", ex);
+      throw new InvalidUserDataException(ex.getMessage(), ex);
+    }
+    return rowCount;
+  }
+
+  public static List<UsersCsvDto> parse(InputStream inputStreamCsvData) {
+    List<UsersCsvDto> rows = new ArrayList<>();
+    try (UsersCsvParser parser =
+        new UsersCsvParser(new InputStreamReader(inputStreamCsvData, StandardCharsets.UTF_8))) {
+      UsersCsvDto usersCsvDto;
+      while ((usersCsvDto = parser.next()) != null) {
+        rows.add(usersCsvDto);
+      }
+    } catch (IOException ex) {
+      log.error("Failed to read input stream", ex);
+      throw new InvalidUserDataException(ex.getMessage(), ex);
+    }
+    return rows;
+  }
+
+  /**
+   * Returns the next row, skipping comment lines, or {@code null} once the input is exhausted.
+   *
+   * @throws InvalidUserDataException if the header or the row is invalid
+   */
+  public UsersCsvDto next() throws IOException {
+    if (headerCount < 0) {
+      readHeader();
+    }
+    while (readRecord()) {
+      if (fieldStarts[0] < fieldEnds[0] && record[fieldStarts[0]] == COMMENT_MARKER) {
+        continue;
+      }
+      return toUsersCsvDto();
+    }
+    return null;
+  }
+
+  public long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Reads and validates the header without reading any row.
+   *
+   * @throws InvalidUserDataException if a required header is missing
+   */
+  void readHeaderOnly() throws IOException {
+    if (headerCount < 0) {
+      readHeader();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void readHeader() throws IOException {
+    List<String> headers = new ArrayList<>();
+    if (readRecord()) {
+      for (int i = 0; i < fieldCount; i++) {
+        headers.add(fieldAsString(i));
+      }
+    }
+    Arrays.fill(columnIndexes, -1);
+    for (int column = 0; column < headers.size(); column++) {
+      String header = headers.get(column).toUpperCase();
+      for (int field = 0; field < REQUIRED_HEADERS.length; field++) {
+        if (REQUIRED_HEADERS[field].equals(header)) {
+          columnIndexes[field] = column;
+        }
+      }
+    }
+    List<String> missingHeaders = new ArrayList<>();
+    for (int field = 0; field < REQUIRED_HEADERS.length; field++) {
+      if (columnIndexes[field] < 0) {
+        missingHeaders.add(REQUIRED_HEADERS[field]);
+      }
+    }
+    if (!missingHeaders.isEmpty()) {
+      throw new InvalidUserDataException(
+          "Error capturing CSV header! Header is missing required fields "
+              + missingHeaders
+              + ". The list of headers encountered is ["
+              + String.join(",", headers)
+              + "].");
+    }
+    headerCount = headers.size();
+    fieldsInColumnOrder =
+        Arrays.stream(new int[] {ID, LOGIN, NAME, SALARY, START_DATE})
+            .boxed()
+            .sorted((first, second) -> columnIndexes[first] - columnIndexes[second])
+            .mapToInt(Integer::intValue)
+            .toArray();
+  }
+
+  private UsersCsvDto toUsersCsvDto() {
+    if (fieldCount != headerCount) {
+      throw rowError("Number of data fields does not match number of headers.");
+    }
+    UsersCsvDto usersCsvDto = new UsersCsvDto();
+    for (int field : fieldsInColumnOrder) {
+      int column = columnIndexes[field];
+      int start = fieldStarts[column];
+      int end = fieldEnds[column];
+      if (isBlank(start, end)) {
+        throw rowError(
+            "Field '" + FIELD_NAMES[field] + "' is mandatory but no value was provided.");
+      }
+      switch (field) {
+        case ID:
+          usersCsvDto.setId(new String(record, start, end - start));
+          break;
+        case LOGIN:
+          usersCsvDto.setLogin(new String(record, start, end - start));
+          break;
+        case NAME:
+          usersCsvDto.setName(new String(record, start, end - start));
+          break;
+        case SALARY:
+          usersCsvDto.setSalary(parseSalary(start, end));
+          break;
+        default:
+          usersCsvDto.setStartDate(parseStartDate(start, end));
+      }
+    }
+    double salary = usersCsvDto.getSalary();
+    if (Double.isNaN(salary) || Double.compare(salary, 0.0) < 0) {
+      throw rowError("Salary cannot be negative");
+    }
+    return usersCsvDto;
+  }
+
+  private double parseSalary(int start, int end) {
+    int trimmedStart = start;
+    int trimmedEnd = end;
+    while (trimmedStart < trimmedEnd && record[trimmedStart] <= ' ') {
+      trimmedStart++;
+    }
+    while (trimmedEnd > trimmedStart && record[trimmedEnd - 1] <= ' ') {
+      trimmedEnd--;
+    }
+    double salary = parseSimpleDecimal(trimmedStart, trimmedEnd);
+    if (!Double.isNaN(salary)) {
+      return salary;
+    }
+    String value = new String(record, trimmedStart, trimmedEnd - trimmedStart);
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException ex) {
+      throw rowError(
+          "Conversion of " + new String(record, start, end - start) + " to double failed.");
+    }
+  }
+
+  /**
+   * Parses {@code [+-]digits[.digits]} with at most 15 significant digits. The mantissa and the
+   * power of ten are then exact doubles, so a single division gives the correctly rounded result
+   * that {@link Double#parseDouble} would. Returns NaN for anything else.
+   */
+  private double parseSimpleDecimal(int start, int end) {
+    int position = start;
+    boolean negative = false;
+    if (position < end && (record[position] == '-' || record[position] == '+')) {
+      negative = record[position] == '-';
+      position++;
+    }
+    long mantissa = 0;
+    int significantDigits = 0;
+    int fractionDigits = 0;
+    boolean digitFound = false;
+    boolean fraction = false;
+    for (; position < end; position++) {
+      char c = record[position];
+      if (c >= '0' && c <= '9') {
+        digitFound = true;
+        if (mantissa != 0 || c != '0') {
+          if (++significantDigits > MAX_EXACT_DIGITS) {
+            return Double.NaN;
+          }
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (fraction && ++fractionDigits >= POWERS_OF_TEN.length) {
+          return Double.NaN;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (!digitFound) {
+      return Double.NaN;
+    }
+    double value = mantissa / POWERS_OF_TEN[fractionDigits];
+    return negative ? -value : value;
+  }
+
+  private LocalDate parseStartDate(int start, int end) {
+    LocalDate startDate = parseSimpleDate(start, end);
+    if (startDate != null) {
+      return startDate;
+    }
+    try {
+      return LocalDate.parse(new String(record, start, end - start), DATE_FORMATTER);
+    } catch (DateTimeParseException ex) {
+      // OpenCSV reports date conversion failures without a message
+      throw rowError(null);
+    }
+  }
+
+  /**
+   * Parses the {@code yyyy-MM-dd} and {@code dd-MMM-yy} shapes directly. Days after the 28th are
+   * left to the formatter, which adjusts invalid days of short months, and so is year 0000, which
+   * {@code yyyy} rejects as a year of era starts at 1.
+   */
+  private LocalDate parseSimpleDate(int start, int end) {
+    int length = end - start;
+    if (length == 10 && record[start + 4] == '-' && record[start + 7] == '-') {
+      int year = digits(start, 4);
+      int month = digits(start + 5, 2);
+      int day = digits(start + 8, 2);
+      if (year >= 1 && month >= 1 && month <= 12 && day >= 1 && day <= 28) {
+        return LocalDate.of(year, month, day);
+      }
+    } else if (length == 9 && record[start + 2] == '-' && record[start + 6] == '-') {
+      int day = digits(start, 2);
+      Integer month = SHORT_MONTHS.get(new String(record, start + 3, 3));
+      int year = digits(start + 7, 2);
+      if (day >= 1 && day <= 28 && month != null && year >= 0) {
+        return LocalDate.of(2000 + year, month, day);
+      }
+    }
+    return null;
+  }
+
+  private int digits(int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = record[i];
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private boolean isBlank(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(record[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private InvalidUserDataException rowError(String detail) {
+    StringBuilder fields = new StringBuilder();
+    for (int i = 0; i < fieldCount; i++) {
+      if (i > 0) {
+        fields.append(SEPARATOR);
+      }
+      fields.append(record, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+    }
+    return new InvalidUserDataException(
+        "Error parsing CSV line: " + linesRead + ". [" + fields + "] " + detail);
+  }
+
+  private String fieldAsString(int field) {
+    return new String(record, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+  }
+
+  /** Reads the next csv record into {@link #record} and the field boundaries. */
+  private boolean readRecord() throws IOException {
+    if (!readLine()) {
+      return false;
+    }
+    for (int i = lineStart; i < lineEnd; i++) {
+      if (buffer[i] == QUOTE || buffer[i] == ESCAPE) {
+        readQuotedRecord();
+        return true;
+      }
+    }
+    record = buffer;
+    fieldCount = 0;
+    int fieldStart = lineStart;
+    for (int i = lineStart; i < lineEnd; i++) {
+      if (buffer[i] == SEPARATOR) {
+        addField(fieldStart, i);
+        fieldStart = i + 1;
+      }
+    }
+    addField(fieldStart, lineEnd);
+    return true;
+  }
+
+  private void readQuotedRecord() throws IOException {
+    String[] fields = new String[0];
+    do {
+      String[] lineFields =
+          quotedLineParser.parseLineMulti(new String(buffer, lineStart, lineEnd - lineStart));
+      String[] combinedFields = Arrays.copyOf(fields, fields.length + lineFields.length);
+      System.arraycopy(lineFields, 0, combinedFields, fields.length, lineFields.length);
+      fields = combinedFields;
+    } while (quotedLineParser.isPending() && readLine());
+    if (quotedLineParser.isPending()) {
+      String pendingText = quotedLineParser.getPendingText();
+      throw new InvalidUserDataException(
+          "Error parsing CSV line: "
+              + linesRead
+              + ", values: "
+              + pendingText
+              + " Unterminated quoted field at end of CSV line. Beginning of lost text: ["
+              + pendingText
+              + "]");
+    }
+    int length = Arrays.stream(fields).mapToInt(String::length).sum();
+    record = new char[length];
+    fieldCount = 0;
+    int position = 0;
+    for (String field : fields) {
+      field.getChars(0, field.length(), record, position);
+      addField(position, position + field.length());
+      position += field.length();
+    }
+  }
+
+  private void addField(int start, int end) {
+    if (fieldCount == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+    }
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = end;
+    fieldCount++;
+  }
+
+  /**
+   * Finds the next line in the buffer, refilling it as needed. Lines end with {@code \n}, {@code
+   * \r} or {@code \r\n} like {@link BufferedReader#readLine()}.
+   */
+  private boolean readLine() throws IOException {
+    int scanPosition = bufferPosition;
+    while (true) {
+      if (skipLineFeed && bufferPosition < bufferLimit) {
+        skipLineFeed = false;
+        if (buffer[bufferPosition] == '\n') {
+          bufferPosition++;
+          scanPosition = Math.max(scanPosition, bufferPosition);
+        }
+      }
+      for (int i = scanPosition; i < bufferLimit; i++) {
+        char c = buffer[i];
+        if (c == '\n' || c == '\r') {
+          lineStart = bufferPosition;
+          lineEnd = i;
+          bufferPosition = i + 1;
+          skipLineFeed = c == '\r';
+          linesRead++;
+          return true;
+        }
+      }
+      if (endOfInput) {
+        if (bufferPosition == bufferLimit) {
+          return false;
+        }
+        lineStart = bufferPosition;
+        lineEnd = bufferLimit;
+        bufferPosition = bufferLimit;
+        linesRead++;
+        return true;
+      }
+      scanPosition = fillBuffer();
+    }
+  }
+
+  /**
+   * Moves the unread part of the buffer to its start, growing it when a single line does not fit,
+   * and reads more input after it.
+   *
+   * @return position from which the line terminator search continues
+   */
+  private int fillBuffer() throws IOException {
+    int unread = bufferLimit - bufferPosition;
+    if (unread == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    } else if (bufferPosition > 0) {
+      System.arraycopy(buffer, bufferPosition, buffer, 0, unread);
+    }
+    bufferPosition = 0;
+    bufferLimit = unread;
+    int read = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+    if (read < 0) {
+      endOfInput = true;
+    } else {
+      bufferLimit += read;
+    }
+    return unread;
+  }
+
+  private static Map<String, Integer> shortMonths(Locale locale) {
+    DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("MMM", locale);
+    Map<String, Integer> shortMonths = new HashMap<>();
+    for (Month month : Month.values()) {
+      String shortMonth = monthFormatter.format(month);
+      if (shortMonth.length() == 3) {
+        shortMonths.put(shortMonth, month.getValue());
+      }
+    }
+    return shortMonths;
+  }
+}
@@ -0,0 +1,83 @@
+package com.zenika.users.utils;
+
+import com.zenika.users.entity.Users;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes users in the {@code id,login,name,salary,startDate} upload schema, so that the output is
+ * read back unchanged by {@link UsersCsvParser} and {@link CsvToBeanConverter}.
+ *
+ * <p>Fields containing a separator, quote, escape character or line break are quoted, with quotes
+ * doubled and escape characters escaped as the OpenCSV default parser expects. Both parsers read
+ * line by line, so a {@code \r\n} inside a quoted field is read back as {@code \n}. Salaries are
+ * written without exponent and start dates as {@code yyyy-MM-dd} in UTC, the zone used when
+ * mapping uploaded dates.
+ */
+public class UsersCsvWriter implements Flushable {
+
+  public static final String HEADER = "id,login,name,salary,startDate";
+
+  private static final DateTimeFormatter DATE_FORMATTER =
+      DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneOffset.UTC);
+
+  private final Writer writer;
+
+  public UsersCsvWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  public void writeHeader() throws IOException {
+    writer.write(HEADER);
+    writer.write('\n');
+  }
+
+  public void write(Users users) throws IOException {
+    writeField(users.getId());
+    writer.write(',');
+    writeField(users.getLogin());
+    writer.write(',');
+    writeField(users.getName());
+    writer.write(',');
+    writer.write(BigDecimal.valueOf(users.getSalary()).toPlainString());
+    writer.write(',');
+    writer.write(DATE_FORMATTER.format(users.getStartDate().toInstant()));
+    writer.write('\n');
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  private void writeField(String value) throws IOException {
+    if (!needsQuotes(value)) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write(c);
+      }
+      writer.write(c);
+    }
+    writer.write('"');
+  }
+
+  private static boolean needsQuotes(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == ',' || c == '"' || c == '\\' || c == '\r' || c == '\n') {
+        return true;
+      }
+    }
+    return false;
+  }
+}
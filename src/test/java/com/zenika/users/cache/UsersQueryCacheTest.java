@@ -0,0 +1,170 @@
+package com.zenika.users.cache;
+
+import com.zenika.users.config.UsersCacheProperties;
+import com.zenika.users.config.UsersIndexProperties;
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.dto.UsersQueryCacheStatsDto;
+import com.zenika.users.service.UsersUploadedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UsersQueryCacheTest {
+
+  private DatasetVersion datasetVersion;
+  private UsersCacheProperties usersCacheProperties;
+  private UsersQueryCache usersQueryCache;
+  private AtomicInteger queryCount;
+
+  @BeforeEach
+  void setup() {
+    datasetVersion = new DatasetVersion(new UsersIndexProperties());
+    usersCacheProperties = new UsersCacheProperties();
+    usersQueryCache = new UsersQueryCache(datasetVersion, usersCacheProperties);
+    queryCount = new AtomicInteger();
+  }
+
+  @Test
+  @DisplayName("Repeated queries should be served from the cache and counted as hits")
+  void getCountsHitsAndMisses() {
+    UsersListDto first = get(0, 10);
+
+    assertEquals(first.toString(), get(0, 10).toString());
+    get(10, 10);
+
+    assertEquals(2, queryCount.get());
+    UsersQueryCacheStatsDto stats = usersQueryCache.getStats();
+    assertEquals(1, stats.getHits());
+    assertEquals(2, stats.getMisses());
+    assertEquals(2, stats.getEntries());
+  }
+
+  @Test
+  @DisplayName("The least recently used entry should be evicted above the maximum entries")
+  void getEvictsLeastRecentlyUsedEntry() {
+    usersCacheProperties.setMaxEntries(2);
+    get(0, 10);
+    get(10, 10);
+    get(0, 10);
+    get(20, 10);
+
+    get(0, 10);
+    get(10, 10);
+
+    assertEquals(4, queryCount.get());
+    assertEquals(2, usersQueryCache.getStats().getEvictions());
+    assertEquals(2, usersQueryCache.getStats().getEntries());
+  }
+
+  @Test
+  @DisplayName("Entries should be evicted above the maximum weight and results too heavy not cached")
+  void getEvictsAboveMaximumWeight() {
+    usersCacheProperties.setMaxWeight(DataSize.ofKilobytes(4));
+    get(0, 10);
+    get(10, 10);
+    get(20, 10);
+    get(0, 100);
+    get(0, 100);
+
+    UsersQueryCacheStatsDto stats = usersQueryCache.getStats();
+    assertEquals(5, queryCount.get());
+    assertEquals(1, stats.getEvictions());
+    assertEquals(2, stats.getEntries());
+    assertTrue(stats.getWeightBytes() <= 4096);
+  }
+
+  @Test
+  @DisplayName("A result heavier than the maximum weight should be neither cached nor copied")
+  void getDoesNotCopyResultAboveMaximumWeight() {
+    usersCacheProperties.setMaxWeight(DataSize.ofKilobytes(4));
+    AtomicInteger iterations = new AtomicInteger();
+    List<UsersDto> users =
+        new ArrayList<>(givenUsersListDto(0, 100).getResults()) {
+          @Override
+          public Iterator<UsersDto> iterator() {
+            iterations.incrementAndGet();
+            return super.iterator();
+          }
+        };
+    UsersListDto oversized = new UsersListDto(users);
+
+    UsersListDto result = usersQueryCache.get(0, 4000, "id: ASC", 0, 100, () -> oversized);
+
+    assertSame(oversized, result);
+    assertEquals(1, iterations.get());
+    assertEquals(0, usersQueryCache.getStats().getEntries());
+    assertEquals(0, usersQueryCache.getStats().getWeightBytes());
+  }
+
+  @Test
+  @DisplayName("An upload should invalidate every entry computed under the previous version")
+  void getAfterUploadQueriesAgain() {
+    get(0, 10);
+    get(10, 10);
+
+    datasetVersion.onUsersUploaded(new UsersUploadedEvent(1, 0));
+    get(0, 10);
+
+    assertEquals(3, queryCount.get());
+    UsersQueryCacheStatsDto stats = usersQueryCache.getStats();
+    assertEquals(2, stats.getInvalidations());
+    assertEquals(1, stats.getEntries());
+    assertEquals(1, stats.getDatasetVersion());
+  }
+
+  @Test
+  @DisplayName("Modifying a result should not change the cached entry served to other requests")
+  void getReturnsCopiesOfCachedResult() {
+    UsersListDto first = get(0, 10);
+    first.getResults().get(0).setName("changed");
+    first.getResults().get(0).getStartDate().setTime(1);
+    UsersListDto second = get(0, 10);
+    second.getResults().clear();
+
+    UsersListDto third = get(0, 10);
+
+    assertNotSame(second, third);
+    assertEquals(10, third.getResults().size());
+    assertEquals("name0", third.getResults().get(0).getName());
+    assertEquals(0, third.getResults().get(0).getStartDate().getTime());
+    assertEquals(1, queryCount.get());
+  }
+
+  @Test
+  @DisplayName("A disabled cache should run every query")
+  void getWhenDisabled() {
+    usersCacheProperties.setEnabled(false);
+    get(0, 10);
+    get(0, 10);
+
+    assertEquals(2, queryCount.get());
+    assertEquals(0, usersQueryCache.getStats().getEntries());
+  }
+
+  private UsersListDto get(int offset, int limit) {
+    return usersQueryCache.get(
+        0, 4000, "id: ASC", offset, limit, () -> givenUsersListDto(offset, limit));
+  }
+
+  private UsersListDto givenUsersListDto(int offset, int limit) {
+    queryCount.incrementAndGet();
+    List<UsersDto> users = new ArrayList<>();
+    for (int i = offset; i < offset + limit; i++) {
+      users.add(new UsersDto(String.format("e%04d", i), "login" + i, "name" + i, i, new Date(0)));
+    }
+    return new UsersListDto(users);
+  }
+}
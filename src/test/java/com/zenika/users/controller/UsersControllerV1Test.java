@@ -1,40 +1,83 @@
 package com.zenika.users.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.zenika.users.config.UsersBinaryFormatsConfiguration;
 import com.zenika.users.dto.ResponseMessage;
 import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.dto.UploadJobState;
+import com.zenika.users.dto.UploadSessionDto;
+import com.zenika.users.dto.UploadSessionState;
 import com.zenika.users.dto.UsersDto;
+import com.zenika.users.dto.UsersFieldsListDto;
 import com.zenika.users.dto.UsersListDto;
+import com.zenika.users.exception.UploadJobRejectedException;
+import com.zenika.users.exception.UploadSessionNotFoundException;
+import com.zenika.users.service.UploadJobService;
+import com.zenika.users.service.UploadSessionService;
 import com.zenika.users.service.UserService;
 import com.zenika.users.testutils.TestFileReader;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(controllers = UsersControllerV1.class)
+@Import(UsersBinaryFormatsConfiguration.class)
 public class UsersControllerV1Test {
 
+  private static final String EXPORTED_CSV =
+      "id,login,name,salary,startDate\ne0001,harry,Harry Potter,1234.0,2001-11-16\n";
+
+  private static final Date START_DATE = new Date(1_005_868_800_123L);
+
   @Autowired private MockMvc mockMvc;
   @MockBean private UserService userService;
+  @MockBean private UploadJobService uploadJobService;
+  @MockBean private UploadSessionService uploadSessionService;
 
   @Test
   @DisplayName("When file contains all new users, upload should return 201")
@@ -74,6 +117,72 @@ public class UsersControllerV1Test {
         .andReturn();
   }
 
+  @Test
+  @DisplayName("When upload is called with async, a queued upload job should be returned with 202")
+  void uploadFileAsyncShouldReturn202() throws Exception {
+    MockMultipartFile file = givenValidMultipartFile();
+    when(uploadJobService.submitUpload(any(), any()))
+        .thenReturn(new UploadJobDto("job1", UploadJobState.QUEUED, 0, 0, 0, null));
+    mockMvc
+        .perform(multipart("/v1/users/upload").file(file).param("async", "true"))
+        .andDo(print())
+        .andExpect(status().isAccepted())
+        .andExpect(header().string("Location", "http://localhost/v1/users/upload/jobs/job1"))
+        .andExpect(jsonPath("$.jobId").value("job1"))
+        .andExpect(jsonPath("$.state").value("QUEUED"))
+        .andExpect(jsonPath("$.result").doesNotExist())
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When upload is called with async and the job queue is full, upload should return 503")
+  void uploadFileAsyncWithFullQueueShouldReturn503() throws Exception {
+    MockMultipartFile file = givenValidMultipartFile();
+    when(uploadJobService.submitUpload(any(), any()))
+        .thenThrow(new UploadJobRejectedException("retry later"));
+    mockMvc
+        .perform(multipart("/v1/users/upload").file(file).param("async", "true"))
+        .andDo(print())
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(jsonPath("$.message").value(ResponseMessage.UPLOAD_JOBS_BUSY.getMessage()))
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When a completed upload job is fetched, its progress and result should be returned")
+  void fetchUploadJobShouldReturnResult() throws Exception {
+    when(uploadJobService.getUploadJob("job1"))
+        .thenReturn(
+            Optional.of(
+                new UploadJobDto(
+                    "job1",
+                    UploadJobState.SUCCEEDED,
+                    8,
+                    8,
+                    4000,
+                    new SimpleResponseDto(ResponseMessage.USERS_CREATED, 8, 0, 0))));
+    mockMvc
+        .perform(get("/v1/users/upload/jobs/job1"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state").value("SUCCEEDED"))
+        .andExpect(jsonPath("$.rowsSaved").value(8))
+        .andExpect(jsonPath("$.result.created").value(8))
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When an unknown upload job is fetched, request should fail with 404")
+  void fetchUnknownUploadJobShouldReturn404() throws Exception {
+    when(uploadJobService.getUploadJob("job1")).thenReturn(Optional.empty());
+    mockMvc
+        .perform(get("/v1/users/upload/jobs/job1"))
+        .andDo(print())
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.message").value(ResponseMessage.UPLOAD_JOB_NOT_FOUND.getMessage()))
+        .andReturn();
+  }
+
   @Test
   @DisplayName("When fetch users is called without any query parameters, request should be served")
   void fetchUsersWithoutAnyQueryParametersShouldReturn200() throws Exception {
@@ -86,8 +195,272 @@ public class UsersControllerV1Test {
         .andReturn();
   }
 
+  @Test
+  @DisplayName("When fetch users is called, the response should carry the ETag of the query")
+  void fetchUsersShouldReturnETag() throws Exception {
+    givenUserServiceReturnUserResult();
+    givenUserServiceReturnsETag("\"v1\"");
+    mockMvc
+        .perform(get("/v1/users").header("If-None-Match", "\"v0\""))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"v1\""))
+        .andExpect(jsonPath("$.results").exists())
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When fetch users is called with a matching ETag, 304 should be returned unqueried")
+  void fetchUsersWithMatchingETagShouldReturn304() throws Exception {
+    givenUserServiceReturnsETag("\"v1\"");
+    mockMvc
+        .perform(get("/v1/users").header("If-None-Match", "\"v0\", \"v1\""))
+        .andDo(print())
+        .andExpect(status().isNotModified())
+        .andExpect(header().string("ETag", "\"v1\""))
+        .andExpect(content().string(""))
+        .andReturn();
+    verify(userService, never()).getUsers(anyDouble(), anyDouble(), anyInt(), anyInt(), any());
+  }
+
+  @Test
+  @DisplayName("When fetch users accepts Smile or CBOR, users should be encoded in that format")
+  void fetchUsersAcceptingBinaryFormatShouldEncodeIt() throws Exception {
+    givenUserServiceReturnUserResult();
+    for (String mediaType : List.of("application/x-jackson-smile", "application/cbor")) {
+      byte[] body =
+          mockMvc
+              .perform(get("/v1/users").header("Accept", mediaType))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andExpect(content().contentType(mediaType))
+              .andExpect(header().string("Vary", "Accept"))
+              .andReturn()
+              .getResponse()
+              .getContentAsByteArray();
+      ObjectMapper objectMapper =
+          new ObjectMapper(
+              mediaType.endsWith("cbor") ? new CBORFactory() : new SmileFactory());
+      UsersDto usersDto = objectMapper.readValue(body, UsersListDto.class).getResults().get(0);
+      assertEquals("loginId", usersDto.getLogin());
+      assertEquals(START_DATE, usersDto.getStartDate());
+    }
+  }
+
+  @Test
+  @DisplayName("When fetch users is called with stream, users should be written to the response")
+  void fetchUsersWithStreamShouldWriteResponse() throws Exception {
+    doAnswer(
+            invocation -> {
+              invocation.<OutputStream>getArgument(5).write("{\"results\":[]}".getBytes());
+              return null;
+            })
+        .when(userService)
+        .writeUsers(anyDouble(), anyDouble(), anyInt(), anyInt(), any(), any());
+    mockMvc
+        .perform(get("/v1/users").param("stream", "true"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$.results").isArray())
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When export is called, users should be written as a csv attachment")
+  void exportUsersShouldWriteCsv() throws Exception {
+    givenServiceExportsCsv();
+    mockMvc
+        .perform(get("/v1/users/export").param("minSalary", "1000"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("text/csv;charset=UTF-8"))
+        .andExpect(header().string("Content-Disposition", "attachment; filename=\"users.csv\""))
+        .andExpect(header().doesNotExist("Content-Encoding"))
+        .andExpect(content().string(EXPORTED_CSV))
+        .andReturn();
+    verify(userService).exportUsers(eq(1000.0), eq(Double.POSITIVE_INFINITY), any());
+  }
+
+  @Test
+  @DisplayName("When export is called accepting gzip, the csv should be gzip compressed")
+  void exportUsersAcceptingGzipShouldCompress() throws Exception {
+    givenServiceExportsCsv();
+    byte[] body =
+        mockMvc
+            .perform(get("/v1/users/export").header("Accept-Encoding", "gzip, deflate"))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Encoding", "gzip"))
+            .andExpect(header().string("Vary", "Accept-Encoding"))
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+    try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      assertEquals(EXPORTED_CSV, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  @DisplayName("When export fails while gzip compressing, the gzip stream should still be closed")
+  void exportUsersFailingShouldCloseGzipStream() throws Exception {
+    ArgumentCaptor<OutputStream> outputStreamCaptor = ArgumentCaptor.forClass(OutputStream.class);
+    doThrow(new IOException("export failed"))
+        .when(userService)
+        .exportUsers(anyDouble(), anyDouble(), outputStreamCaptor.capture());
+    assertThrows(
+        IOException.class,
+        () -> mockMvc.perform(get("/v1/users/export").header("Accept-Encoding", "gzip")));
+    OutputStream outputStream = outputStreamCaptor.getValue();
+    assertThrows(IOException.class, () -> outputStream.write(0));
+  }
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "gzip;q=0 | false",
+        "gzip; q=0.0, deflate | false",
+        "*, gzip;q=0 | false",
+        "deflate;q=1, identity | false",
+        "gzip;q=abc | false",
+        "deflate, gzip;q=0.5 | true",
+        "x-gzip | true",
+        "*;q=0.1 | true",
+        "GZIP;Q=1 | true"
+      })
+  @DisplayName(
+      "When export is called, gzip should only be used if Accept-Encoding gives it a quality")
+  void exportUsersShouldFollowAcceptEncodingQuality(String acceptEncoding, boolean gzip)
+      throws Exception {
+    givenServiceExportsCsv();
+    mockMvc
+        .perform(get("/v1/users/export").header("Accept-Encoding", acceptEncoding))
+        .andExpect(status().isOk())
+        .andExpect(
+            gzip
+                ? header().string("Content-Encoding", "gzip")
+                : header().doesNotExist("Content-Encoding"));
+  }
+
+  private void givenServiceExportsCsv() throws IOException {
+    doAnswer(
+            invocation -> {
+              invocation
+                  .<OutputStream>getArgument(2)
+                  .write(EXPORTED_CSV.getBytes(StandardCharsets.UTF_8));
+              return null;
+            })
+        .when(userService)
+        .exportUsers(anyDouble(), anyDouble(), any());
+  }
+
+  @Test
+  @DisplayName("When fetch users is called with a cursor, keyset pagination should be used")
+  void fetchUsersWithCursorShouldReturnNextCursor() throws Exception {
+    UsersListDto usersListDto =
+        new UsersListDto(List.of(new UsersDto("001", "loginId", "name", 1000, new Date())), "abc");
+    when(userService.getUsersAfterCursor(anyDouble(), anyDouble(), anyInt(), any(), eq("")))
+        .thenReturn(usersListDto);
+    mockMvc
+        .perform(get("/v1/users").param("cursor", "").param("limit", "1"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.nextCursor").value("abc"))
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When fetch users is called with fields, only those fields should be returned")
+  void fetchUsersWithFieldsShouldReturnOnlyThem() throws Exception {
+    Map<String, Object> user = new LinkedHashMap<>();
+    user.put("id", "001");
+    user.put("salary", 1000.0);
+    when(userService.getUsersFields(
+            anyDouble(), anyDouble(), anyInt(), anyInt(), any(), isNull(), any()))
+        .thenReturn(new UsersFieldsListDto(List.of(user)));
+    mockMvc
+        .perform(get("/v1/users").param("fields", "id,salary"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(content().json("{\"results\":[{\"id\":\"001\",\"salary\":1000.0}]}", true))
+        .andReturn();
+    verify(userService)
+        .getUsersFields(
+            eq(0.0),
+            eq(4000.0),
+            eq(0),
+            eq(0),
+            any(),
+            isNull(),
+            eq(new String[] {"id", "salary"}));
+    verify(userService, never()).getUsers(anyDouble(), anyDouble(), anyInt(), anyInt(), any());
+  }
+
+  @Test
+  @DisplayName("When fetch users is called with both cursor and offset, request should fail with 400")
+  void fetchUsersWithCursorAndOffsetShouldReturn400() throws Exception {
+    mockMvc
+        .perform(get("/v1/users").param("cursor", "").param("offset", "10"))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When an upload session is created, 201 should be returned with its location")
+  void createUploadSessionShouldReturn201() throws Exception {
+    when(uploadSessionService.createSession())
+        .thenReturn(new UploadSessionDto("s1", UploadSessionState.OPEN, 0, 0));
+    mockMvc
+        .perform(post("/v1/users/upload/sessions"))
+        .andDo(print())
+        .andExpect(status().isCreated())
+        .andExpect(header().string("Location", "http://localhost/v1/users/upload/sessions/s1"))
+        .andExpect(jsonPath("$.sessionId").value("s1"))
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When a part is appended to an upload session, the new checkpoint should be returned")
+  void appendToUploadSessionShouldReturnCheckpoint() throws Exception {
+    when(uploadSessionService.appendToSession(eq("s1"), eq(42L), any()))
+        .thenReturn(new UploadSessionDto("s1", UploadSessionState.OPEN, 120, 3));
+    mockMvc
+        .perform(
+            patch("/v1/users/upload/sessions/s1")
+                .param("offset", "42")
+                .contentType("text/csv")
+                .content("e1,l1,n,1000,2001-01-01\n"))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.byteOffset").value(120))
+        .andExpect(jsonPath("$.rowsStaged").value(3))
+        .andReturn();
+  }
+
+  @Test
+  @DisplayName("When an unknown upload session is published, 404 should be returned")
+  void publishUnknownUploadSessionShouldReturn404() throws Exception {
+    when(uploadSessionService.publishSession("s1"))
+        .thenThrow(new UploadSessionNotFoundException("s1"));
+    mockMvc
+        .perform(post("/v1/users/upload/sessions/s1/publish"))
+        .andDo(print())
+        .andExpect(status().isNotFound())
+        .andExpect(
+            jsonPath("$.message").value(ResponseMessage.UPLOAD_SESSION_NOT_FOUND.getMessage()))
+        .andReturn();
+  }
+
+  private void givenUserServiceReturnsETag(String eTag) {
+    when(userService.getUsersETag(
+            anyDouble(), anyDouble(), anyInt(), anyInt(), any(), any(), any(), any()))
+        .thenReturn(eTag);
+  }
+
   private void givenUserServiceReturnUserResult() {
-    UsersDto usersDto = new UsersDto("001", "loginId", "name", 1000, new Date());
+    UsersDto usersDto = new UsersDto("001", "loginId", "name", 1000, START_DATE);
     when(userService.getUsers(anyDouble(), anyDouble(), anyInt(), anyInt(), any()))
         .thenReturn(new UsersListDto(List.of(usersDto)));
   }
@@ -0,0 +1,175 @@
+package com.zenika.users.controller;
+
+import com.zenika.users.dto.ResponseMessage;
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.service.UserService;
+import com.zenika.users.testutils.TestFileReader;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(controllers = UsersControllerV2.class)
+public class UsersControllerV2Test {
+
+  private static final String USERS_NDJSON =
+      "{\"id\":\"e0001\",\"login\":\"hpotter\",\"name\":\"Harry Potter\",\"salary\":1234.0}\n"
+          + "{\"id\":\"e0002\",\"login\":\"rwesley\",\"name\":\"Ron Weasley\",\"salary\":19234.5}\n";
+
+  @Autowired private MockMvc mockMvc;
+  @MockBean private UserService userService;
+
+  @Test
+  @DisplayName("When the request body is a csv file, upload should return 201 asynchronously")
+  void uploadRequestBodyShouldReturn201() throws Exception {
+    when(userService.uploadUsers(any(InputStream.class)))
+        .thenReturn(new SimpleResponseDto(ResponseMessage.USERS_CREATED, 8, 0, 0, 0));
+    MvcResult mvcResult =
+        mockMvc
+            .perform(
+                post("/v2/users/upload")
+                    .contentType("text/csv")
+                    .content(
+                        TestFileReader.readFile(TestFileReader.VALID_CSV_DATA_SOURCE)
+                            .readAllBytes()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc
+        .perform(asyncDispatch(mvcResult))
+        .andDo(print())
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.message").value(ResponseMessage.USERS_CREATED.getMessage()))
+        .andExpect(jsonPath("$.created").value(8));
+  }
+
+  @Test
+  @DisplayName("When the request body is gzip encoded, the csv file should be inflated as read")
+  void uploadGzipRequestBodyShouldInflateIt() throws Exception {
+    byte[] csv = TestFileReader.readFile(TestFileReader.VALID_CSV_DATA_SOURCE).readAllBytes();
+    ByteArrayOutputStream gzippedCsv = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(gzippedCsv)) {
+      outputStream.write(csv);
+    }
+    when(userService.uploadUsers(any(InputStream.class)))
+        .thenAnswer(
+            invocation -> {
+              InputStream inputStream = invocation.getArgument(0);
+              assertArrayEquals(csv, inputStream.readAllBytes());
+              return new SimpleResponseDto(ResponseMessage.USERS_CREATED, 8, 0, 0, 0);
+            });
+    MvcResult mvcResult =
+        mockMvc
+            .perform(
+                post("/v2/users/upload")
+                    .contentType("text/csv")
+                    .header("Content-Encoding", "gzip")
+                    .content(gzippedCsv.toByteArray()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isCreated());
+  }
+
+  @Test
+  @DisplayName("When the request body has an unsupported encoding, upload should return 400")
+  void uploadUnsupportedEncodingShouldReturn400() throws Exception {
+    mockMvc
+        .perform(
+            post("/v2/users/upload")
+                .contentType("text/csv")
+                .header("Content-Encoding", "br")
+                .content("id"))
+        .andDo(print())
+        .andExpect(status().isBadRequest());
+    verify(userService, never()).uploadUsers(any(InputStream.class));
+  }
+
+  @Test
+  @DisplayName("When the upload is invalid, the asynchronous upload should return 400")
+  void uploadInvalidRequestBodyShouldReturn400() throws Exception {
+    when(userService.uploadUsers(any(InputStream.class)))
+        .thenThrow(new InvalidUserDataException("Found duplicate id values: e0001"));
+    MvcResult mvcResult =
+        mockMvc
+            .perform(post("/v2/users/upload").contentType("text/csv").content("id"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc
+        .perform(asyncDispatch(mvcResult))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.errorDetails").value("Found duplicate id values: e0001"));
+  }
+
+  @Test
+  @DisplayName("When fetch users is called, users should be streamed as NDJSON")
+  void fetchUsersShouldStreamNdjson() throws Exception {
+    doAnswer(
+            invocation -> {
+              invocation
+                  .<OutputStream>getArgument(5)
+                  .write(USERS_NDJSON.getBytes(StandardCharsets.UTF_8));
+              return null;
+            })
+        .when(userService)
+        .writeUsersAsNdjson(anyDouble(), anyDouble(), anyInt(), anyInt(), any(), any());
+    MvcResult mvcResult =
+        mockMvc
+            .perform(get("/v2/users").param("maxSalary", "50000").param("sortBy", "salary,desc"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc
+        .perform(asyncDispatch(mvcResult))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+        .andExpect(content().string(USERS_NDJSON));
+    verify(userService)
+        .writeUsersAsNdjson(
+            eq(0.0), eq(50000.0), eq(0), eq(0), eq(new String[] {"salary", "desc"}), any());
+  }
+
+  @Test
+  @DisplayName("When fetch users has an invalid sortBy, 400 should be returned before streaming")
+  void fetchUsersWithInvalidSortByShouldReturn400() throws Exception {
+    doThrow(new InvalidUserDataException("sort field name provided startDate is not supported"))
+        .when(userService)
+        .validateUsersQuery(anyInt(), any());
+    mockMvc
+        .perform(get("/v2/users").param("sortBy", "startDate,asc"))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(request().asyncNotStarted());
+    verify(userService, never())
+        .writeUsersAsNdjson(anyDouble(), anyDouble(), anyInt(), anyInt(), any(), any());
+  }
+}
@@ -0,0 +1,172 @@
+package com.zenika.users.delta;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.utils.LongHashTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UsersContentHashesTest {
+
+  private static final Date START_DATE = new Date(1_000_000_000_000L);
+
+  private UsersRepository usersRepository;
+  private UsersUploadProperties usersUploadProperties;
+  private UsersContentHashes usersContentHashes;
+
+  @BeforeEach
+  void setup() {
+    usersRepository = mock(UsersRepository.class);
+    usersUploadProperties = new UsersUploadProperties();
+    usersUploadProperties.setSkipUnchanged(true);
+    usersContentHashes = new UsersContentHashes(usersRepository, usersUploadProperties);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  @DisplayName("Changing any field should change the content hash")
+  void contentHashDependsOnEveryField() {
+    Users users = new Users("e1", "login", "name", 1000.5, START_DATE);
+    long contentHash = UsersContentHashes.contentHash(users);
+
+    assertEquals(
+        contentHash,
+        UsersContentHashes.contentHash(
+            new Users("e2", "login", "name", 1000.5, new Timestamp(START_DATE.getTime()))));
+    assertNotEquals(
+        contentHash,
+        UsersContentHashes.contentHash(new Users("e1", "login2", "name", 1000.5, START_DATE)));
+    assertNotEquals(
+        contentHash,
+        UsersContentHashes.contentHash(new Users("e1", "login", "name ", 1000.5, START_DATE)));
+    assertNotEquals(
+        contentHash,
+        UsersContentHashes.contentHash(new Users("e1", "login", "name", 1000.51, START_DATE)));
+    assertNotEquals(
+        contentHash,
+        UsersContentHashes.contentHash(
+            new Users("e1", "login", "name", 1000.5, new Date(START_DATE.getTime() + 1))));
+    assertNotEquals(
+        UsersContentHashes.contentHash(new Users("e1", "ab", "c", 1000.5, START_DATE)),
+        UsersContentHashes.contentHash(new Users("e1", "a", "bc", 1000.5, START_DATE)));
+  }
+
+  @Test
+  @DisplayName("Only new and changed users should be returned once the stored users are read")
+  void filterChangedReturnsNewAndChangedUsers() {
+    givenStoredUsers(
+        new Users("e1", "login1", "name1", 1000, START_DATE),
+        new Users("e2", "login2", "name2", 2000, START_DATE));
+    usersContentHashes.rebuild();
+    Users changedUser = new Users("e2", "login2", "name2", 2500, START_DATE);
+    Users newUser = new Users("e3", "login3", "name3", 3000, START_DATE);
+
+    List<Users> changedUsers =
+        usersContentHashes.filterChanged(
+            List.of(new Users("e1", "login1", "name1", 1000, START_DATE), changedUser, newUser));
+
+    assertEquals(List.of(changedUser, newUser), changedUsers);
+  }
+
+  @Test
+  @DisplayName("Written users should only be skipped once their transaction commits")
+  void recordWrittenAppliesOnCommit() {
+    List<Users> usersList = List.of(new Users("e1", "login1", "name1", 1000, START_DATE));
+    TransactionSynchronizationManager.initSynchronization();
+
+    usersContentHashes.recordWritten(usersList);
+
+    assertEquals(usersList, usersContentHashes.filterChanged(usersList));
+    completeTransaction(true);
+    assertEquals(List.of(), usersContentHashes.filterChanged(usersList));
+  }
+
+  @Test
+  @DisplayName("Written users should not be skipped when their transaction rolls back")
+  void recordWrittenDropsOnRollback() {
+    List<Users> usersList = List.of(new Users("e1", "login1", "name1", 1000, START_DATE));
+    TransactionSynchronizationManager.initSynchronization();
+
+    usersContentHashes.recordWritten(usersList);
+    completeTransaction(false);
+
+    assertEquals(usersList, usersContentHashes.filterChanged(usersList));
+    assertFalse(TransactionSynchronizationManager.hasResource(usersContentHashes));
+  }
+
+  @Test
+  @DisplayName("Every user should be returned when skip-unchanged is off")
+  void filterChangedWithSkipUnchangedOff() {
+    List<Users> usersList = List.of(new Users("e1", "login1", "name1", 1000, START_DATE));
+    usersContentHashes.recordWritten(usersList);
+    usersUploadProperties.setSkipUnchanged(false);
+
+    assertEquals(usersList, usersContentHashes.filterChanged(usersList));
+  }
+
+  @Test
+  @DisplayName("The hash table should keep every entry while growing")
+  void longHashTableGrows() {
+    LongHashTable longHashTable = new LongHashTable();
+    for (long key = 1; key <= 100_000; key++) {
+      longHashTable.put(key << 32, key);
+    }
+    longHashTable.put(1L << 32, -1);
+
+    assertEquals(100_000, longHashTable.size());
+    assertEquals(-1, longHashTable.get(1L << 32));
+    assertEquals(100_000, longHashTable.get(100_000L << 32));
+    assertEquals(0, longHashTable.get(100_001L << 32));
+  }
+
+  private void givenStoredUsers(Users... usersList) {
+    when(usersRepository.count()).thenReturn((long) usersList.length);
+    doAnswer(
+            invocation -> {
+              Consumer<Users> consumer = invocation.getArgument(0);
+              List.of(usersList).forEach(consumer);
+              return null;
+            })
+        .when(usersRepository)
+        .forEachUser(any());
+  }
+
+  private void completeTransaction(boolean committed) {
+    List<TransactionSynchronization> synchronizations =
+        TransactionSynchronizationManager.getSynchronizations();
+    if (committed) {
+      synchronizations.forEach(TransactionSynchronization::afterCommit);
+    }
+    synchronizations.forEach(
+        synchronization ->
+            synchronization.afterCompletion(
+                committed
+                    ? TransactionSynchronization.STATUS_COMMITTED
+                    : TransactionSynchronization.STATUS_ROLLED_BACK));
+    TransactionSynchronizationManager.clearSynchronization();
+  }
+}
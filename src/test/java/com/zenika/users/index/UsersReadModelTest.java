@@ -0,0 +1,140 @@
+package com.zenika.users.index;
+
+import com.zenika.users.cache.DatasetVersion;
+import com.zenika.users.config.UsersIndexProperties;
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.dto.UsersDto;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.OffsetBasedPageRequest;
+import com.zenika.users.repository.UsersRepository;
+import com.zenika.users.service.UsersUploadedEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "users.index.enabled=true"})
+@EnableConfigurationProperties({UsersUploadProperties.class, UsersIndexProperties.class})
+@Import({UsersReadModel.class, DatasetVersion.class})
+public class UsersReadModelTest {
+
+  @Autowired private UsersRepository usersRepository;
+  @Autowired private UsersReadModel usersReadModel;
+  @Autowired private EntityManager entityManager;
+
+  @ParameterizedTest
+  @ValueSource(strings = {"id", "salary,id", "salary:DESC,id", "name,salary:DESC,id:DESC"})
+  @DisplayName("The read model should return the same pages as the database")
+  void findBySalaryRangeMatchesDatabase(String sortSpecification) {
+    givenUsersInDatabase(500);
+    usersReadModel.rebuild();
+    Sort sort = toSort(sortSpecification);
+
+    for (int offset : new int[] {0, 40, 499}) {
+      List<String> expected =
+          usersRepository
+              .findBySalaryGreaterThanEqualAndSalaryLessThan(
+                  2003, 2011, new OffsetBasedPageRequest(offset, 25, sort))
+              .stream()
+              .map(Users::getId)
+              .collect(Collectors.toList());
+      List<String> actual =
+          usersReadModel.findBySalaryRange(2003, 2011, sort, offset, 25).orElseThrow().stream()
+              .map(UsersDto::getId)
+              .collect(Collectors.toList());
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  @DisplayName(
+      "An upload should keep the previous index and version until the rebuilt index is swapped in")
+  void onUsersUploadedRebuildsInBackground() throws InterruptedException {
+    UsersRepository blockingUsersRepository = mock(UsersRepository.class);
+    CountDownLatch rebuildAllowed = new CountDownLatch(1);
+    doAnswer(invocation -> givenUsers(invocation.getArgument(0), 1))
+        .doAnswer(
+            invocation -> {
+              rebuildAllowed.await();
+              return givenUsers(invocation.getArgument(0), 2);
+            })
+        .when(blockingUsersRepository)
+        .forEachUser(any());
+    UsersIndexProperties usersIndexProperties = new UsersIndexProperties();
+    usersIndexProperties.setEnabled(true);
+    DatasetVersion datasetVersion = new DatasetVersion(usersIndexProperties);
+    UsersReadModel readModel =
+        new UsersReadModel(blockingUsersRepository, usersIndexProperties, datasetVersion);
+    readModel.onApplicationReady();
+
+    try {
+      readModel.onUsersUploaded(new UsersUploadedEvent(1, 0));
+      datasetVersion.onUsersUploaded(new UsersUploadedEvent(1, 0));
+
+      assertEquals(1, readModel.findBySalaryRange(0, 5000, Sort.by("id"), 0, 0).get().size());
+      assertEquals(0, datasetVersion.current());
+      rebuildAllowed.countDown();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (datasetVersion.current() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, datasetVersion.current());
+      assertEquals(2, readModel.findBySalaryRange(0, 5000, Sort.by("id"), 0, 0).get().size());
+    } finally {
+      rebuildAllowed.countDown();
+      readModel.shutdown();
+    }
+  }
+
+  private static Void givenUsers(Consumer<Users> consumer, int count) {
+    for (int i = 0; i < count; i++) {
+      consumer.accept(new Users("u" + i, "login" + i, "name" + i, 2000, new Date()));
+    }
+    return null;
+  }
+
+  private void givenUsersInDatabase(int count) {
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(
+          new Users(
+              String.format("u%07d", i), "login" + i, "name" + i % 7, 2000 + i % 13, new Date()));
+    }
+    usersRepository.saveAll(users);
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+  private Sort toSort(String sortSpecification) {
+    List<Sort.Order> orders = new ArrayList<>();
+    for (String property : sortSpecification.split(",")) {
+      String[] propertyAndDirection = property.split(":");
+      orders.add(
+          new Sort.Order(
+              propertyAndDirection.length > 1
+                  ? Sort.Direction.fromString(propertyAndDirection[1])
+                  : Sort.Direction.ASC,
+              propertyAndDirection[0]));
+    }
+    return Sort.by(orders);
+  }
+}
@@ -0,0 +1,159 @@
+package com.zenika.users.index;
+
+import com.zenika.users.dto.UsersDto;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UsersSalaryIndexTest {
+
+  private static final int USERS_COUNT = 2_000;
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "salary",
+        "salary:DESC",
+        "salary,id:DESC",
+        "id",
+        "id:DESC",
+        "login:DESC",
+        "name,id",
+        "name:DESC,salary,id:DESC",
+        "salary:DESC,name,login"
+      })
+  @DisplayName("Pages of the index should match sorting and paging the whole salary range")
+  void findMatchesSortedRange(String sortSpecification) {
+    List<UsersDto> users = givenUsers();
+    UsersSalaryIndex usersSalaryIndex = givenIndex(users);
+    Sort sort = toSort(sortSpecification);
+
+    for (double[] salaryRange :
+        new double[][] {{0, 1_000_000}, {2000, 2100}, {2050, 2050}, {2100, 2000}, {5000, 9000}}) {
+      List<String> expected = expectedIds(users, salaryRange[0], salaryRange[1], sort);
+      for (int offset : new int[] {0, 1, 7, 500, expected.size(), USERS_COUNT + 1}) {
+        for (int limit : new int[] {0, 1, 13, 100}) {
+          List<String> actual =
+              ids(usersSalaryIndex.find(salaryRange[0], salaryRange[1], sort, offset, limit));
+          int from = Math.min(offset, expected.size());
+          int to = limit > 0 ? Math.min(from + limit, expected.size()) : expected.size();
+          assertEquals(
+              expected.subList(from, to),
+              actual,
+              sortSpecification + " " + salaryRange[0] + "-" + salaryRange[1] + " " + offset);
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("An empty index should return empty pages")
+  void findOnEmptyIndex() {
+    UsersSalaryIndex usersSalaryIndex = UsersSalaryIndex.builder().build();
+    assertTrue(usersSalaryIndex.find(0, 4000, Sort.by("name"), 0, 0).isEmpty());
+  }
+
+  @Test
+  @DisplayName("The index should return every field of the stored users")
+  void findReturnsAllFields() {
+    Date startDate = new Date(1_000_000L);
+    UsersSalaryIndex usersSalaryIndex =
+        UsersSalaryIndex.builder().add("e1", "login", "name", 1234.5, startDate).build();
+    UsersDto usersDto = usersSalaryIndex.find(0, 4000, Sort.by("id"), 0, 0).get(0);
+    assertEquals("e1", usersDto.getId());
+    assertEquals("login", usersDto.getLogin());
+    assertEquals("name", usersDto.getName());
+    assertEquals(1234.5, usersDto.getSalary());
+    assertEquals(startDate, usersDto.getStartDate());
+  }
+
+  /**
+   * Reference result, the sort key ends with salary and id like the storage order of the index
+   * so that rows equal on every sort field come out in the same order.
+   */
+  private List<String> expectedIds(
+      List<UsersDto> users, double minSalary, double maxSalary, Sort sort) {
+    Comparator<UsersDto> comparator = null;
+    for (Sort.Order order : sort) {
+      Comparator<UsersDto> fieldComparator = fieldComparator(order.getProperty());
+      if (order.isDescending()) {
+        fieldComparator = fieldComparator.reversed();
+      }
+      comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+    }
+    comparator =
+        comparator.thenComparing(fieldComparator("salary")).thenComparing(fieldComparator("id"));
+    return users.stream()
+        .filter(user -> user.getSalary() >= minSalary && user.getSalary() < maxSalary)
+        .sorted(comparator)
+        .map(UsersDto::getId)
+        .collect(Collectors.toList());
+  }
+
+  private Comparator<UsersDto> fieldComparator(String property) {
+    switch (property) {
+      case "id":
+        return Comparator.comparing(UsersDto::getId);
+      case "login":
+        return Comparator.comparing(UsersDto::getLogin);
+      case "name":
+        return Comparator.comparing(UsersDto::getName);
+      default:
+        return Comparator.comparingDouble(UsersDto::getSalary);
+    }
+  }
+
+  private List<UsersDto> givenUsers() {
+    Random random = new Random(42);
+    List<UsersDto> users = new ArrayList<>(USERS_COUNT);
+    for (int i = 0; i < USERS_COUNT; i++) {
+      users.add(
+          new UsersDto(
+              String.format("u%05d", random.nextInt(1_000_000) * 10 + i % 10),
+              "login" + i,
+              "name" + random.nextInt(50),
+              2000 + random.nextInt(300) / 2.0,
+              new Date(random.nextInt(1_000_000) * 1000L)));
+    }
+    return users;
+  }
+
+  private UsersSalaryIndex givenIndex(List<UsersDto> users) {
+    UsersSalaryIndex.Builder builder = UsersSalaryIndex.builder();
+    users.forEach(
+        user ->
+            builder.add(
+                user.getId(), user.getLogin(), user.getName(), user.getSalary(), user.getStartDate()));
+    return builder.build();
+  }
+
+  private List<String> ids(List<UsersDto> users) {
+    return users.stream().map(UsersDto::getId).collect(Collectors.toList());
+  }
+
+  private Sort toSort(String sortSpecification) {
+    List<Sort.Order> orders = new ArrayList<>();
+    for (String property : sortSpecification.split(",")) {
+      String[] propertyAndDirection = property.split(":");
+      orders.add(
+          new Sort.Order(
+              propertyAndDirection.length > 1
+                  ? Sort.Direction.fromString(propertyAndDirection[1])
+                  : Sort.Direction.ASC,
+              propertyAndDirection[0]));
+    }
+    return Sort.by(orders);
+  }
+}
@@ -0,0 +1,176 @@
+package com.zenika.users.lock;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.exception.UploadConflictException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UsersUploadLocksTest {
+
+  private UsersUploadProperties usersUploadProperties;
+  private UsersUploadLocks usersUploadLocks;
+
+  @BeforeEach
+  void setup() {
+    usersUploadProperties = new UsersUploadProperties();
+    usersUploadProperties.setLockTimeout(Duration.ofMillis(200));
+    usersUploadLocks = new UsersUploadLocks(usersUploadProperties);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      completeTransaction();
+    }
+  }
+
+  @Test
+  @DisplayName("An upload writing a locked id should fail with a conflict after the timeout")
+  void lockedIdConflicts() throws Exception {
+    lockInOtherTransaction(
+        List.of(users("e1", "login1")),
+        () -> {
+          TransactionSynchronizationManager.initSynchronization();
+          assertThrows(
+              UploadConflictException.class,
+              () -> usersUploadLocks.lockForTransaction(List.of(users("e1", "other"))));
+        });
+  }
+
+  @Test
+  @DisplayName("An upload writing a locked login under another id should fail with a conflict")
+  void lockedLoginConflicts() throws Exception {
+    lockInOtherTransaction(
+        List.of(users("e1", "login1")),
+        () -> {
+          TransactionSynchronizationManager.initSynchronization();
+          assertThrows(
+              UploadConflictException.class,
+              () -> usersUploadLocks.lockForTransaction(List.of(users("e2", "login1"))));
+        });
+  }
+
+  @Test
+  @DisplayName("Uploads of unrelated users should not wait for each other")
+  void unrelatedUsersProceed() throws Exception {
+    lockInOtherTransaction(
+        List.of(users("e1", "login1")),
+        () -> {
+          TransactionSynchronizationManager.initSynchronization();
+          assertDoesNotThrow(
+              () -> usersUploadLocks.lockForTransaction(List.of(users("e2", "login2"))));
+        });
+  }
+
+  @Test
+  @DisplayName("Locks should be released once the transaction completes")
+  void locksReleasedAfterCompletion() {
+    TransactionSynchronizationManager.initSynchronization();
+    usersUploadLocks.lockForTransaction(List.of(users("e1", "login1")));
+    usersUploadLocks.lockForTransaction(List.of(users("e1", "login1"), users("e2", "login2")));
+    completeTransaction();
+
+    CompletableFuture<Void> otherTransaction =
+        CompletableFuture.runAsync(
+            () -> {
+              TransactionSynchronizationManager.initSynchronization();
+              try {
+                usersUploadLocks.lockForTransaction(List.of(users("e1", "login1")));
+              } finally {
+                completeTransaction();
+              }
+            });
+    assertDoesNotThrow(() -> otherTransaction.get(5, TimeUnit.SECONDS));
+    assertFalse(TransactionSynchronizationManager.hasResource(usersUploadLocks));
+  }
+
+  @Test
+  @DisplayName("An upload closing a wait cycle should fail at once instead of deadlocking")
+  void deadlockFailsImmediately() throws Exception {
+    usersUploadProperties.setLockTimeout(Duration.ofSeconds(30));
+    CountDownLatch firstLocked = new CountDownLatch(1);
+    CompletableFuture<Void> otherTransaction =
+        CompletableFuture.runAsync(
+            () -> {
+              TransactionSynchronizationManager.initSynchronization();
+              try {
+                usersUploadLocks.lockForTransaction(List.of(users("e1", "login1")));
+                firstLocked.countDown();
+                usersUploadLocks.lockForTransaction(List.of(users("e2", "login2")));
+              } finally {
+                completeTransaction();
+              }
+            });
+    TransactionSynchronizationManager.initSynchronization();
+    usersUploadLocks.lockForTransaction(List.of(users("e2", "login2")));
+    firstLocked.await(5, TimeUnit.SECONDS);
+    // let the other transaction start waiting for e2
+    Thread.sleep(100);
+
+    long startTime = System.nanoTime();
+    assertThrows(
+        UploadConflictException.class,
+        () -> usersUploadLocks.lockForTransaction(List.of(users("e1", "login1"))));
+    assertTrue(System.nanoTime() - startTime < Duration.ofSeconds(5).toNanos());
+    completeTransaction();
+    assertDoesNotThrow(() -> otherTransaction.get(5, TimeUnit.SECONDS));
+  }
+
+  /** Holds the locks of the users on another thread while the assertions run. */
+  private void lockInOtherTransaction(List<Users> usersList, Runnable assertions)
+      throws Exception {
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    CompletableFuture<Void> otherTransaction =
+        CompletableFuture.runAsync(
+            () -> {
+              TransactionSynchronizationManager.initSynchronization();
+              try {
+                usersUploadLocks.lockForTransaction(usersList);
+                locked.countDown();
+                done.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+              } finally {
+                completeTransaction();
+              }
+            });
+    locked.await(5, TimeUnit.SECONDS);
+    try {
+      assertions.run();
+    } finally {
+      done.countDown();
+      otherTransaction.get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void completeTransaction() {
+    List<TransactionSynchronization> synchronizations =
+        TransactionSynchronizationManager.getSynchronizations();
+    synchronizations.forEach(
+        synchronization ->
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    TransactionSynchronizationManager.clearSynchronization();
+  }
+
+  private static Users users(String id, String login) {
+    return new Users(id, login, "name", 1000, new Date());
+  }
+}
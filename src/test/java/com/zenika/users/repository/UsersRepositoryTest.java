@@ -0,0 +1,309 @@
+package com.zenika.users.repository;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@Slf4j
+@DataJpaTest(
+    properties = {
+      "spring.jpa.show-sql=false",
+      "spring.jpa.properties.hibernate.generate_statistics=true"
+    })
+@EnableConfigurationProperties(UsersUploadProperties.class)
+public class UsersRepositoryTest {
+
+  private static final int LIMIT = 50;
+  private static final int PRELOADED_USERS = 1;
+
+  @Autowired private UsersRepository usersRepository;
+  @Autowired private EntityManager entityManager;
+  @Autowired private EntityManagerFactory entityManagerFactory;
+
+  private Statistics statistics;
+
+  @BeforeEach
+  void setup() {
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1_000, 10_000})
+  @DisplayName("Fetching a deep page should only hydrate the requested rows regardless of table size")
+  void findBySalaryRangeHydratesOnlyRequestedPage(int tableSize) {
+    givenUsersInDatabase(tableSize);
+    statistics.clear();
+
+    List<Users> users =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, new OffsetBasedPageRequest(tableSize - LIMIT, LIMIT, Sort.by("id")));
+
+    assertEquals(LIMIT, users.size());
+    assertEquals(userId(tableSize - LIMIT), users.get(0).getId());
+    assertEquals(LIMIT, statistics.getEntityLoadCount());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1_000, 10_000})
+  @DisplayName("A limit of 0 should return every row after the offset")
+  void findBySalaryRangeWithoutLimitReturnsRemainingRows(int tableSize) {
+    givenUsersInDatabase(tableSize);
+
+    List<Users> users =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, new OffsetBasedPageRequest(10, 0, Sort.by("id")));
+
+    assertEquals(tableSize - 10, users.size());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"id", "salary,id", "salary:DESC,id", "name,salary:DESC,id:DESC", "login:DESC"})
+  @DisplayName("Seeking page by page should return the same rows as a single sorted query")
+  void findBySalaryRangeAfterKeyWalksWholeRange(String sortSpecification) {
+    givenUsersWithRepeatingValuesInDatabase(200);
+    Sort sort = toSort(sortSpecification);
+    List<Users> expected =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, new OffsetBasedPageRequest(0, 0, sort));
+
+    List<Users> actual = new ArrayList<>();
+    List<Object> lastKey = List.of();
+    List<Users> page;
+    do {
+      page = usersRepository.findBySalaryRangeAfterKey(2000, 1_000_000, sort, lastKey, 17);
+      actual.addAll(page);
+      if (!page.isEmpty()) {
+        lastKey = sortKey(page.get(page.size() - 1), sort);
+      }
+    } while (page.size() == 17);
+
+    assertEquals(200, actual.size());
+    assertEquals(
+        expected.stream().map(Users::getId).collect(Collectors.toList()),
+        actual.stream().map(Users::getId).collect(Collectors.toList()));
+  }
+
+  @Test
+  @DisplayName("findFieldsBySalaryRange should select only the fields without hydrating users")
+  void findFieldsBySalaryRangeSelectsOnlyFields() {
+    givenUsersWithRepeatingValuesInDatabase(200);
+    Sort sort = toSort("salary:DESC,id");
+    List<Users> expected =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, new OffsetBasedPageRequest(20, 10, sort));
+    entityManager.clear();
+    statistics.clear();
+
+    List<Tuple> rows =
+        usersRepository.findFieldsBySalaryRange(
+            2000, 1_000_000, List.of("id", "salary"), sort, List.of(), 20, 10);
+    List<Tuple> rowsAfterKey =
+        usersRepository.findFieldsBySalaryRange(
+            2000, 1_000_000, List.of("salary", "id"), sort, sortKey(expected.get(4), sort), 0, 5);
+
+    assertEquals(0, statistics.getEntityLoadCount());
+    assertEquals(2, rows.get(0).getElements().size());
+    assertEquals(
+        expected.stream().map(Users::getId).collect(Collectors.toList()),
+        rows.stream().map(row -> row.get("id")).collect(Collectors.toList()));
+    assertEquals(expected.get(0).getSalary(), rows.get(0).get("salary"));
+    assertEquals(
+        expected.subList(5, 10).stream().map(Users::getId).collect(Collectors.toList()),
+        rowsAfterKey.stream().map(row -> row.get("id")).collect(Collectors.toList()));
+  }
+
+  @Test
+  @DisplayName("Streaming a salary range should return the same rows as the list query")
+  void streamBySalaryRangeReturnsSameRowsAsList() {
+    givenUsersInDatabase(1_000);
+    OffsetBasedPageRequest pageRequest = new OffsetBasedPageRequest(10, 0, Sort.by("salary"));
+    List<String> expectedIds =
+        usersRepository.findBySalaryGreaterThanEqualAndSalaryLessThan(2000, 1_000_000, pageRequest)
+            .stream()
+            .map(Users::getId)
+            .collect(Collectors.toList());
+    entityManager.clear();
+
+    List<String> streamedIds = new ArrayList<>();
+    try (Stream<Users> users =
+        usersRepository.streamBySalaryGreaterThanEqualAndSalaryLessThan(
+            2000, 1_000_000, pageRequest)) {
+      users.forEach(
+          user -> {
+            streamedIds.add(user.getId());
+            usersRepository.detach(user);
+            assertFalse(entityManager.contains(user));
+          });
+    }
+
+    assertEquals(990, streamedIds.size());
+    assertEquals(expectedIds, streamedIds);
+  }
+
+  @Test
+  @DisplayName("upsertAll should insert new users, update changed users and skip unchanged users")
+  void upsertAllInsertsAndUpdates() {
+    givenUsersInDatabase(3);
+    Users unchangedUser = usersRepository.findById(userId(2)).orElseThrow();
+    List<Users> users =
+        List.of(
+            new Users(userId(1), "login1", "renamed", 5000, new Date(0)),
+            unchangedUser,
+            new Users(userId(3), "login3", "name3", 6000, new Date(0)));
+
+    int writtenRows = usersRepository.upsertAll(users);
+
+    assertEquals(2, writtenRows);
+    assertEquals(4 + PRELOADED_USERS, usersRepository.count());
+    Users updatedUser = usersRepository.findById(userId(1)).orElseThrow();
+    assertEquals("renamed", updatedUser.getName());
+    assertEquals(5000, updatedUser.getSalary());
+    assertEquals(0, updatedUser.getStartDate().getTime());
+    assertEquals("name3", usersRepository.findById(userId(3)).orElseThrow().getName());
+  }
+
+  @Test
+  @DisplayName("upsertAll and saveAll throughput should be reported in rows per second")
+  void upsertAllThroughputAgainstSaveAll() {
+    int rowCount = 20_000;
+    List<Users> savedUsers = new ArrayList<>(rowCount);
+    List<Users> upsertedUsers = new ArrayList<>(rowCount);
+    for (int i = 0; i < rowCount; i++) {
+      savedUsers.add(new Users(userId(i), "login" + i, "name" + i, 2000 + i, new Date(0)));
+      int upsertedIndex = rowCount + i;
+      upsertedUsers.add(
+          new Users(
+              userId(upsertedIndex), "login" + upsertedIndex, "name" + i, 2000 + i, new Date(0)));
+    }
+
+    long saveAllRowsPerSecond = rowsPerSecond(rowCount, () -> usersRepository.saveAll(savedUsers));
+    long upsertAllRowsPerSecond =
+        rowsPerSecond(rowCount, () -> usersRepository.upsertAll(upsertedUsers));
+
+    log.info(
+        "saveAll: {} rows/s, upsertAll: {} rows/s", saveAllRowsPerSecond, upsertAllRowsPerSecond);
+    assertEquals(2 * rowCount + PRELOADED_USERS, usersRepository.count());
+  }
+
+  @Test
+  @DisplayName("findExistingIds should only return the IDs stored in the database")
+  void findExistingIdsReturnsStoredIds() {
+    givenUsersInDatabase(3);
+    statistics.clear();
+
+    List<String> existingIds = usersRepository.findExistingIds(List.of(userId(0), userId(2), "x"));
+
+    assertEquals(
+        List.of(userId(0), userId(2)), existingIds.stream().sorted().collect(Collectors.toList()));
+    assertEquals(0, statistics.getEntityLoadCount());
+  }
+
+  @Test
+  @DisplayName("findByLogins should return the id of the stored users holding the logins")
+  void findByLoginsReturnsStoredLogins() {
+    givenUsersInDatabase(3);
+    statistics.clear();
+
+    List<UsersLogin> usersLogins = usersRepository.findByLogins(List.of("login1", "x"));
+
+    assertEquals(1, usersLogins.size());
+    assertEquals(userId(1), usersLogins.get(0).getId());
+    assertEquals("login1", usersLogins.get(0).getLogin());
+    assertEquals(0, statistics.getEntityLoadCount());
+  }
+
+  @Test
+  @DisplayName("forEachUserBySalaryRange should read the users in the range ordered by id")
+  void forEachUserBySalaryRangeReadsRangeInIdOrder() {
+    givenUsersInDatabase(100);
+    statistics.clear();
+    List<Users> users = new ArrayList<>();
+
+    usersRepository.forEachUserBySalaryRange(2010, Double.POSITIVE_INFINITY, users::add);
+
+    assertEquals(
+        IntStream.range(10, 100).mapToObj(this::userId).collect(Collectors.toList()),
+        users.stream().map(Users::getId).collect(Collectors.toList()));
+    assertEquals("login10", users.get(0).getLogin());
+    assertEquals(0, statistics.getEntityLoadCount());
+  }
+
+  private long rowsPerSecond(int rowCount, Runnable write) {
+    long startTime = System.nanoTime();
+    write.run();
+    entityManager.flush();
+    entityManager.clear();
+    return rowCount * 1_000_000_000L / Math.max(1, System.nanoTime() - startTime);
+  }
+
+  private Sort toSort(String sortSpecification) {
+    List<Sort.Order> orders = new ArrayList<>();
+    for (String property : sortSpecification.split(",")) {
+      String[] propertyAndDirection = property.split(":");
+      orders.add(
+          new Sort.Order(
+              propertyAndDirection.length > 1
+                  ? Sort.Direction.fromString(propertyAndDirection[1])
+                  : Sort.Direction.ASC,
+              propertyAndDirection[0]));
+    }
+    return Sort.by(orders);
+  }
+
+  private List<Object> sortKey(Users users, Sort sort) {
+    BeanWrapper beanWrapper = new BeanWrapperImpl(users);
+    return sort.stream()
+        .map(order -> beanWrapper.getPropertyValue(order.getProperty()))
+        .collect(Collectors.toList());
+  }
+
+  private void givenUsersWithRepeatingValuesInDatabase(int count) {
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(new Users(userId(i), "login" + i, "name" + i % 7, 2000 + i % 13, new Date()));
+    }
+    usersRepository.saveAll(users);
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+  private void givenUsersInDatabase(int count) {
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(new Users(userId(i), "login" + i, "name" + i, 2000 + i, new Date()));
+    }
+    usersRepository.saveAll(users);
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+  private String userId(int index) {
+    return String.format("u%07d", index);
+  }
+}
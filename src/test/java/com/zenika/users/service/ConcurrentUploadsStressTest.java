@@ -0,0 +1,126 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.repository.UsersRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Fires concurrent uploads that each create their own users and may all rewrite the same shared
+ * users, then checks that every upload succeeded with exact counts and that the shared users were
+ * written by a single upload. Uploads without shared users run in parallel, the others are
+ * serialised by {@code UsersUploadLocks}; both throughputs are logged.
+ */
+@Slf4j
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.NONE,
+    properties = {
+      "spring.jpa.show-sql=false",
+      "spring.datasource.url=jdbc:h2:mem:concurrent-uploads",
+      "users.upload.chunk-size=500",
+      // uploads sharing users run one after the other, the last one waits for all the others
+      "users.upload.lock-timeout=2m"
+    })
+class ConcurrentUploadsStressTest {
+
+  private static final int UPLOADS = 8;
+  private static final int OWN_USERS = 5_000;
+
+  @Autowired private UserService userService;
+  @Autowired private UsersRepository usersRepository;
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1_000})
+  @DisplayName("Concurrent uploads of overlapping users should all succeed with exact counts")
+  void concurrentOverlappingUploads(int sharedUsers) throws Exception {
+    long initialCount = usersRepository.count();
+    ExecutorService executorService = Executors.newFixedThreadPool(UPLOADS);
+    long startTime = System.nanoTime();
+    List<Future<SimpleResponseDto>> results = new ArrayList<>();
+    for (int upload = 0; upload < UPLOADS; upload++) {
+      byte[] csv = csv(upload, sharedUsers);
+      results.add(
+          executorService.submit(() -> userService.uploadUsers(new ByteArrayInputStream(csv))));
+    }
+    long created = 0;
+    long updated = 0;
+    for (Future<SimpleResponseDto> result : results) {
+      created += result.get().getCreated();
+      updated += result.get().getUpdated();
+    }
+    long elapsedNanos = System.nanoTime() - startTime;
+    executorService.shutdown();
+    log.info(
+        "{} concurrent uploads of {} rows with {} shared users in {} ms ({} rows/s)",
+        UPLOADS,
+        sharedUsers + OWN_USERS,
+        sharedUsers,
+        elapsedNanos / 1_000_000,
+        UPLOADS * (sharedUsers + OWN_USERS) * 1_000_000_000L / elapsedNanos);
+
+    assertEquals(sharedUsers + UPLOADS * OWN_USERS, created);
+    assertEquals((UPLOADS - 1) * sharedUsers, updated);
+    assertEquals(initialCount + created, usersRepository.count());
+    Set<Double> sharedSalaries = new HashSet<>();
+    usersRepository
+        .findAllById(
+            IntStream.range(0, sharedUsers)
+                .mapToObj(ConcurrentUploadsStressTest::sharedId)
+                .collect(Collectors.toList()))
+        .forEach(users -> sharedSalaries.add(users.getSalary()));
+    assertEquals(sharedUsers == 0 ? 0 : 1, sharedSalaries.size());
+  }
+
+  /** Shared users first, with a salary telling which upload wrote them, then its own users. */
+  private static byte[] csv(int upload, int sharedUsers) {
+    StringBuilder csv = new StringBuilder("id,login,name,salary,startDate\n");
+    for (int i = 0; i < sharedUsers; i++) {
+      csv.append(sharedId(i))
+          .append(",shared")
+          .append(i)
+          .append(",name,")
+          .append(1000 + upload)
+          .append(",2001-11-16\n");
+    }
+    for (int i = 0; i < OWN_USERS; i++) {
+      csv.append("u")
+          .append(sharedUsers)
+          .append('-')
+          .append(upload)
+          .append('-')
+          .append(i)
+          .append(",login")
+          .append(sharedUsers)
+          .append('-')
+          .append(upload)
+          .append('-')
+          .append(i)
+          .append(",name,")
+          .append(2000 + i)
+          .append(",2001-11-16\n");
+    }
+    return csv.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String sharedId(int index) {
+    return "s" + index;
+  }
+}
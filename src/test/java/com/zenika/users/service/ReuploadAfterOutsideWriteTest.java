@@ -0,0 +1,57 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Uploads with the default settings, where rows changed by anything other than an upload must still
+ * be written back when the same file is uploaded again.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.NONE,
+    properties = {
+      "spring.jpa.show-sql=false",
+      "spring.datasource.url=jdbc:h2:mem:reupload-after-outside-write"
+    })
+class ReuploadAfterOutsideWriteTest {
+
+  private static final String CSV =
+      "id,login,name,salary,startDate\n"
+          + "o1,outside1,name1,1000,2001-01-01\n"
+          + "o2,outside2,name2,2000,2001-01-01\n";
+
+  @Autowired private UserService userService;
+  @Autowired private UsersRepository usersRepository;
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @Test
+  @DisplayName("A row changed outside an upload should be updated when the same file is uploaded")
+  void reuploadRestoresRowChangedOutsideUpload() {
+    userService.uploadUsers(toInputStream(CSV));
+    jdbcTemplate.update("UPDATE USERS SET SALARY = 9999, NAME = 'changed' WHERE ID = 'o1'");
+
+    SimpleResponseDto response = userService.uploadUsers(toInputStream(CSV));
+
+    assertEquals(1, response.getUpdated());
+    assertEquals(1, response.getUnchanged());
+    assertEquals(0, response.getSkipped());
+    Users restoredUser = usersRepository.findById("o1").orElseThrow();
+    assertEquals(1000, restoredUser.getSalary());
+    assertEquals("name1", restoredUser.getName());
+  }
+
+  private ByteArrayInputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,195 @@
+package com.zenika.users.service;
+
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.dto.ResponseMessage;
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadJobDto;
+import com.zenika.users.dto.UploadJobState;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.exception.UploadJobRejectedException;
+import com.zenika.users.utils.CsvCompression;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UploadJobServiceImplTest {
+
+  @TempDir Path spoolDirectory;
+
+  private UserService userService;
+  private UploadJobServiceImpl uploadJobService;
+
+  @BeforeEach
+  void setup() {
+    userService = mock(UserService.class);
+    UsersUploadProperties usersUploadProperties = new UsersUploadProperties();
+    usersUploadProperties.getJobs().setThreads(1);
+    usersUploadProperties.getJobs().setQueueCapacity(1);
+    usersUploadProperties.getJobs().setDirectory(spoolDirectory.toString());
+    uploadJobService = new UploadJobServiceImpl(userService, usersUploadProperties);
+  }
+
+  @AfterEach
+  void tearDown() {
+    uploadJobService.shutdown();
+  }
+
+  @Test
+  @DisplayName("A submitted upload job should report its progress and result once completed")
+  void submitUploadReportsProgressAndResult() throws Exception {
+    when(userService.uploadUsers(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              UploadProgress uploadProgress = invocation.getArgument(1);
+              uploadProgress.rowsParsed(8);
+              uploadProgress.rowsSaved(8);
+              return new SimpleResponseDto(ResponseMessage.USERS_CREATED, 8, 0, 0);
+            });
+
+    UploadJobDto submittedJob =
+        uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO);
+    UploadJobDto completedJob = awaitCompletion(submittedJob.getJobId());
+
+    assertEquals(UploadJobState.SUCCEEDED, completedJob.getState());
+    assertEquals(8, completedJob.getRowsParsed());
+    assertEquals(8, completedJob.getRowsSaved());
+    assertEquals(ResponseMessage.USERS_CREATED, completedJob.getResult().getMessage());
+    assertEquals(8, completedJob.getResult().getCreated());
+    assertArrayEquals(new File[0], spoolDirectory.toFile().listFiles());
+  }
+
+  @Test
+  @DisplayName("An upload job with invalid data should fail with the error details")
+  void submitUploadWithInvalidDataFails() throws Exception {
+    when(userService.uploadUsers(any(), any()))
+        .thenThrow(new InvalidUserDataException("Found duplicate id values: e0001"));
+
+    UploadJobDto submittedJob =
+        uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO);
+    UploadJobDto completedJob = awaitCompletion(submittedJob.getJobId());
+
+    assertEquals(UploadJobState.FAILED, completedJob.getState());
+    assertEquals(ResponseMessage.ERROR_OCCURRED_BAD_INPUT, completedJob.getResult().getMessage());
+    assertEquals(
+        "Found duplicate id values: e0001", completedJob.getResult().getErrorDetails());
+  }
+
+  @Test
+  @DisplayName("An upload job failing on the database should not be reported as bad input")
+  void submitUploadWithRepositoryFailureFailsAsServerError() throws Exception {
+    when(userService.uploadUsers(any(), any()))
+        .thenThrow(new DataAccessResourceFailureException("Connection refused"));
+
+    UploadJobDto submittedJob =
+        uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO);
+    UploadJobDto completedJob = awaitCompletion(submittedJob.getJobId());
+
+    assertEquals(UploadJobState.FAILED, completedJob.getState());
+    assertEquals(ResponseMessage.INTERNAL_ERROR, completedJob.getResult().getMessage());
+    assertEquals(
+        HttpStatus.INTERNAL_SERVER_ERROR, completedJob.getResult().getMessage().getResponseStatus());
+    assertEquals("Connection refused", completedJob.getResult().getErrorDetails());
+  }
+
+  @Test
+  @DisplayName("Submitting an upload job should be rejected when the job queue is full")
+  void submitUploadWithFullQueueIsRejected() throws Exception {
+    CountDownLatch runningJobReleased = new CountDownLatch(1);
+    when(userService.uploadUsers(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              runningJobReleased.await(10, TimeUnit.SECONDS);
+              return new SimpleResponseDto(ResponseMessage.USERS_UPDATED, 0, 0, 8);
+            });
+    UploadJobDto runningJob =
+        uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO);
+    awaitState(runningJob.getJobId(), UploadJobState.RUNNING);
+    UploadJobDto queuedJob =
+        uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO);
+
+    assertEquals(UploadJobState.QUEUED, queuedJob.getState());
+    assertThrows(
+        UploadJobRejectedException.class,
+        () -> uploadJobService.submitUpload(givenCsvInputStream(), CsvCompression.AUTO));
+    runningJobReleased.countDown();
+    assertEquals(UploadJobState.SUCCEEDED, awaitCompletion(queuedJob.getJobId()).getState());
+  }
+
+  @Test
+  @DisplayName("A gzip upload job should be spooled compressed and inflated while it runs")
+  void submitGzipUploadIsInflatedWhileRunning() throws Exception {
+    byte[] csv = givenCsvInputStream().readAllBytes();
+    ByteArrayOutputStream gzippedCsv = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(gzippedCsv)) {
+      outputStream.write(csv);
+    }
+    when(userService.uploadUsers(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              try (Stream<Path> spoolFiles = Files.list(spoolDirectory)) {
+                assertEquals(
+                    gzippedCsv.size(), Files.size(spoolFiles.findFirst().orElseThrow()));
+              }
+              InputStream inputStream = invocation.getArgument(0);
+              assertArrayEquals(csv, inputStream.readAllBytes());
+              return new SimpleResponseDto(ResponseMessage.USERS_CREATED, 1, 0, 0);
+            });
+
+    UploadJobDto submittedJob =
+        uploadJobService.submitUpload(
+            new ByteArrayInputStream(gzippedCsv.toByteArray()), CsvCompression.GZIP);
+
+    assertEquals(UploadJobState.SUCCEEDED, awaitCompletion(submittedJob.getJobId()).getState());
+  }
+
+  @Test
+  @DisplayName("Fetching an unknown upload job should return nothing")
+  void getUnknownUploadJob() {
+    assertTrue(uploadJobService.getUploadJob("unknown").isEmpty());
+  }
+
+  private UploadJobDto awaitCompletion(String jobId) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    UploadJobDto uploadJobDto = uploadJobService.getUploadJob(jobId).orElseThrow();
+    while (uploadJobDto.getResult() == null && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      uploadJobDto = uploadJobService.getUploadJob(jobId).orElseThrow();
+    }
+    return uploadJobDto;
+  }
+
+  private void awaitState(String jobId, UploadJobState state) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (uploadJobService.getUploadJob(jobId).orElseThrow().getState() != state
+        && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private InputStream givenCsvInputStream() {
+    return new ByteArrayInputStream(
+        "id,login,name,salary,startDate\ne1,l,n,1,2001-01-01\n".getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,218 @@
+package com.zenika.users.service;
+
+import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UploadSessionDto;
+import com.zenika.users.dto.UploadSessionState;
+import com.zenika.users.entity.Users;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.exception.UploadConflictException;
+import com.zenika.users.exception.UploadSessionNotFoundException;
+import com.zenika.users.repository.StagedUsersRepositoryCustomImpl;
+import com.zenika.users.repository.UsersRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.NONE,
+    properties = {
+      "spring.jpa.show-sql=false",
+      "spring.datasource.url=jdbc:h2:mem:upload-sessions",
+      "users.upload.chunk-size=2"
+    })
+class UploadSessionServiceImplTest {
+
+  private static final String HEADER = "id,login,name,salary,startDate\n";
+
+  @Autowired private UploadSessionService uploadSessionService;
+  @Autowired private UsersRepository usersRepository;
+  @SpyBean private StagedUsersRepositoryCustomImpl stagedUsersRepositoryCustom;
+
+  @BeforeEach
+  void setup() {
+    usersRepository.deleteAll();
+    usersRepository.save(new Users("s1", "stored1", "name", 1000, new Date(0)));
+  }
+
+  @Test
+  @DisplayName("An invalid row should keep the chunks before it staged and resume from them")
+  void resumeAfterInvalidRow() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    String validCsv = csv("e1,l1", "e2,l2", "e3,l3", "e4,l4", "e5,l5");
+    String invalidCsv = validCsv.replace("e4,l4,n,1000", "e4,l4,n,-1");
+
+    InvalidUserDataException ex =
+        assertThrows(
+            InvalidUserDataException.class,
+            () -> uploadSessionService.appendToSession(sessionId, 0, toInputStream(invalidCsv)));
+
+    UploadSessionDto uploadSession = uploadSessionService.getSession(sessionId).orElseThrow();
+    assertEquals(2, uploadSession.getRowsStaged());
+    long checkpoint = validCsv.indexOf("e3");
+    assertEquals(checkpoint, uploadSession.getByteOffset());
+    assertTrue(
+        ex.getMessage().endsWith("Rows up to 2 are staged, resume the upload from byte " + checkpoint),
+        ex.getMessage());
+    assertFalse(usersRepository.existsById("e1"));
+
+    String rest = validCsv.substring((int) checkpoint);
+    uploadSession = uploadSessionService.appendToSession(sessionId, checkpoint, toInputStream(rest));
+    assertEquals(5, uploadSession.getRowsStaged());
+    assertEquals(validCsv.length(), uploadSession.getByteOffset());
+  }
+
+  @Test
+  @DisplayName("Sending the whole file again should skip the bytes before the checkpoint")
+  void resendWholeFile() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    String firstPart = csv("e1,l1", "e2,l2");
+    String wholeFile = firstPart + "e3,l3,n,1000,2001-01-01\n";
+
+    uploadSessionService.appendToSession(sessionId, 0, toInputStream(firstPart));
+    UploadSessionDto uploadSession =
+        uploadSessionService.appendToSession(sessionId, 0, toInputStream(wholeFile));
+
+    assertEquals(3, uploadSession.getRowsStaged());
+    assertEquals(wholeFile.length(), uploadSession.getByteOffset());
+  }
+
+  @Test
+  @DisplayName("Publishing should write the staged users in one go with exact counts")
+  void publishStagedUsers() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    uploadSessionService.appendToSession(
+        sessionId,
+        0,
+        toInputStream(
+            HEADER
+                + "s1,stored1,name,1000,1970-01-01\n"
+                + "e1,l1,n,1000,2001-01-01\n"
+                + "e2,l2,n,1000,2001-01-01\n"));
+    assertFalse(usersRepository.existsById("e1"));
+
+    SimpleResponseDto response = uploadSessionService.publishSession(sessionId);
+
+    assertEquals(2, response.getCreated());
+    assertEquals(0, response.getUpdated());
+    assertEquals(1, response.getUnchanged());
+    assertEquals(3, usersRepository.count());
+    assertEquals(
+        UploadSessionState.PUBLISHED,
+        uploadSessionService.getSession(sessionId).orElseThrow().getState());
+    assertThrows(
+        InvalidUserDataException.class, () -> uploadSessionService.publishSession(sessionId));
+  }
+
+  @Test
+  @DisplayName("Duplicates across chunks should be reported with the row numbers of both")
+  void rejectDuplicatesAcrossChunks() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+
+    InvalidUserDataException ex =
+        assertThrows(
+            InvalidUserDataException.class,
+            () ->
+                uploadSessionService.appendToSession(
+                    sessionId, 0, toInputStream(csv("e1,l1", "e2,l2", "e1,l3", "e4,l2"))));
+
+    assertTrue(
+        ex.getMessage()
+            .startsWith(
+                "Found duplicate id values: e1 (data rows 1 and 3); "
+                    + "Found duplicate login values: l2 (data rows 2 and 4)"),
+        ex.getMessage());
+  }
+
+  @Test
+  @DisplayName("Publishing a login used by another stored user should fail and keep the session")
+  void rejectLoginTakenAtPublish() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    uploadSessionService.appendToSession(sessionId, 0, toInputStream(csv("e1,l1", "e2,stored1")));
+
+    InvalidUserDataException ex =
+        assertThrows(
+            InvalidUserDataException.class, () -> uploadSessionService.publishSession(sessionId));
+
+    assertEquals(
+        "Found login values already used by other users: stored1 (data row 2, used by id s1)",
+        ex.getMessage());
+    assertFalse(usersRepository.existsById("e1"));
+    assertEquals(2, uploadSessionService.getSession(sessionId).orElseThrow().getRowsStaged());
+  }
+
+  @Test
+  @DisplayName("Publishing should fail with a conflict when the session is appended to meanwhile")
+  void publishDuringAppend() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    String firstPart = csv("e1,l1");
+    String wholeFile = firstPart + "e2,l2,n,1000,2001-01-01\n";
+    uploadSessionService.appendToSession(sessionId, 0, toInputStream(firstPart));
+    doAnswer(
+            invocation -> {
+              CompletableFuture.runAsync(
+                      () -> {
+                        try {
+                          uploadSessionService.appendToSession(
+                              sessionId, 0, toInputStream(wholeFile));
+                        } catch (IOException ex) {
+                          throw new UncheckedIOException(ex);
+                        }
+                      })
+                  .get();
+              return invocation.callRealMethod();
+            })
+        .when(stagedUsersRepositoryCustom)
+        .publish(sessionId);
+
+    assertThrows(
+        UploadConflictException.class, () -> uploadSessionService.publishSession(sessionId));
+
+    UploadSessionDto uploadSession = uploadSessionService.getSession(sessionId).orElseThrow();
+    assertEquals(UploadSessionState.OPEN, uploadSession.getState());
+    assertEquals(2, uploadSession.getRowsStaged());
+    assertFalse(usersRepository.existsById("e1"));
+  }
+
+  @Test
+  @DisplayName("Aborting should drop the session and its staged users")
+  void abortSession() throws Exception {
+    String sessionId = uploadSessionService.createSession().getSessionId();
+    uploadSessionService.appendToSession(sessionId, 0, toInputStream(csv("e1,l1")));
+
+    uploadSessionService.abortSession(sessionId);
+
+    assertTrue(uploadSessionService.getSession(sessionId).isEmpty());
+    assertThrows(
+        UploadSessionNotFoundException.class, () -> uploadSessionService.publishSession(sessionId));
+  }
+
+  /** Builds a csv with a row per {@code id,login} pair. */
+  private String csv(String... idsAndLogins) {
+    StringBuilder csv = new StringBuilder(HEADER);
+    for (String idAndLogin : idsAndLogins) {
+      csv.append(idAndLogin).append(",n,1000,2001-01-01\n");
+    }
+    return csv.toString();
+  }
+
+  private InputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -1,52 +1,110 @@
 package com.zenika.users.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.users.cache.DatasetVersion;
+import com.zenika.users.cache.UsersQueryCache;
+import com.zenika.users.config.UsersCacheProperties;
+import com.zenika.users.config.UsersIndexProperties;
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.config.UsersUploadProperties.CsvParserType;
+import com.zenika.users.delta.UsersContentHashes;
 import com.zenika.users.dto.ResponseMessage;
 import com.zenika.users.dto.SimpleResponseDto;
+import com.zenika.users.dto.UsersFieldsListDto;
 import com.zenika.users.dto.UsersListDto;
 import com.zenika.users.entity.Users;
 import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.index.UsersReadModel;
+import com.zenika.users.lock.UsersUploadLocks;
 import com.zenika.users.mapper.UsersCsvDtoToUsersMapper;
+import com.zenika.users.metrics.UsersMetrics;
 import com.zenika.users.mapper.UsersToUsersListDtoMapper;
+import com.zenika.users.repository.UsersLogin;
 import com.zenika.users.repository.UsersRepository;
 import com.zenika.users.testutils.TestFileReader;
+import com.zenika.users.utils.ParallelUsersCsvParser;
+import com.zenika.users.utils.UsersCsvWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.exception.JDBCConnectionException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.mapstruct.factory.Mappers;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
+import javax.persistence.Tuple;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static com.zenika.users.testutils.TestFileReader.DUPLICATE_ID_CSV_DATA_SOURCE;
 import static com.zenika.users.testutils.TestFileReader.VALID_CSV_DATA_SOURCE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class UserServiceImplTest {
 
   private UsersRepository usersRepository;
   private UserService userService;
+  private UsersUploadProperties usersUploadProperties;
+  private DatasetVersion datasetVersion;
+  private MeterRegistry meterRegistry;
+  private UsersContentHashes usersContentHashes;
+  @Captor private ArgumentCaptor<List<Object>> lastKeyArgumentCaptor;
+  @Captor private ArgumentCaptor<List<Users>> usersListArgumentCaptor;
 
   @BeforeEach
   void setup() {
+    MockitoAnnotations.openMocks(this);
     usersRepository = mock(UsersRepository.class);
     UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper =
         Mappers.getMapper(UsersCsvDtoToUsersMapper.class);
     UsersToUsersListDtoMapper usersToUsersDtoMapper =
         Mappers.getMapper(UsersToUsersListDtoMapper.class);
+    usersUploadProperties = new UsersUploadProperties();
+    datasetVersion = new DatasetVersion(new UsersIndexProperties());
+    meterRegistry = new SimpleMeterRegistry();
+    usersContentHashes = spy(new UsersContentHashes(usersRepository, usersUploadProperties));
     userService =
-        new UserServiceImpl(usersRepository, usersCsvDtoToUsersMapper, usersToUsersDtoMapper);
+        new UserServiceImpl(
+            usersRepository,
+            usersCsvDtoToUsersMapper,
+            usersToUsersDtoMapper,
+            usersUploadProperties,
+            new ParallelUsersCsvParser(2, 0, 64),
+            new ObjectMapper(),
+            new UsersReadModel(usersRepository, new UsersIndexProperties(), datasetVersion),
+            mock(ApplicationEventPublisher.class),
+            new UsersQueryCache(datasetVersion, new UsersCacheProperties()),
+            new UsersMetrics(meterRegistry),
+            usersContentHashes,
+            new UsersUploadLocks(usersUploadProperties),
+            datasetVersion);
   }
 
   @Test
@@ -59,6 +117,9 @@ public class UserServiceImplTest {
     givenUsersRepositorySaveAllSuccess();
     SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
     assertEquals(ResponseMessage.USERS_CREATED, simpleResponseDto.getMessage());
+    assertEquals(4, simpleResponseDto.getCreated());
+    assertEquals(4, simpleResponseDto.getUpdated());
+    assertEquals(0, simpleResponseDto.getUnchanged());
   }
 
   @Test
@@ -71,6 +132,121 @@ public class UserServiceImplTest {
     givenUsersRepositorySaveAllSuccess();
     SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
     assertEquals(ResponseMessage.USERS_UPDATED, simpleResponseDto.getMessage());
+    assertEquals(0, simpleResponseDto.getCreated());
+    assertEquals(8, simpleResponseDto.getUpdated());
+    assertEquals(0, simpleResponseDto.getUnchanged());
+  }
+
+  @Test
+  @DisplayName("Calling upload users should record every upload stage, the rows and the bytes read")
+  void uploadUsersRecordsStageMetrics() throws IOException {
+    byte[] csv = givenValidUsersCsvInputStream().readAllBytes();
+    givenRepositoryHasOnlySomeUsersAlready();
+    givenUsersRepositorySaveAllSuccess();
+    userService.uploadUsers(new ByteArrayInputStream(csv));
+
+    for (String stage :
+        List.of("parse", "validate", "map", "duplicate-check", "existence-probe", "save")) {
+      assertEquals(
+          1, meterRegistry.get("users.upload.stage").tag("stage", stage).timer().count(), stage);
+    }
+    assertEquals(1, meterRegistry.get("users.upload").tag("outcome", "success").timer().count());
+    assertEquals(8, meterRegistry.get("users.upload.rows").counter().count());
+    assertEquals(csv.length, meterRegistry.get("users.upload.bytes").counter().count());
+  }
+
+  @Test
+  @DisplayName("Calling upload users should record a failed upload without its rows")
+  void uploadUsersRecordsFailedUpload() throws IOException {
+    InputStream inputStream = TestFileReader.readFile(DUPLICATE_ID_CSV_DATA_SOURCE);
+    assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+
+    assertEquals(1, meterRegistry.get("users.upload").tag("outcome", "failure").timer().count());
+    assertEquals(0, meterRegistry.get("users.upload.rows").counter().count());
+    assertEquals(0, meterRegistry.get("users.upload.stage").tag("stage", "save").timer().count());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users should count users not written by the upsert as unchanged")
+  void uploadUsersWithUnchangedUsers() throws IOException {
+    InputStream inputStream = givenValidUsersCsvInputStream();
+    givenRepositoryHasAllUsersAlready();
+    when(usersRepository.upsertAll(any())).thenReturn(3);
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
+    assertEquals(ResponseMessage.USERS_UPDATED, simpleResponseDto.getMessage());
+    assertEquals(0, simpleResponseDto.getCreated());
+    assertEquals(3, simpleResponseDto.getUpdated());
+    assertEquals(5, simpleResponseDto.getUnchanged());
+    verify(usersRepository, never()).findAllById(any());
+  }
+
+  @Test
+  @DisplayName("Uploading the same file again should skip every row without writing it")
+  void uploadUsersAgainSkipsUnchangedUsers() throws IOException {
+    usersUploadProperties.setSkipUnchanged(true);
+    byte[] csv = givenValidUsersCsvInputStream().readAllBytes();
+    givenRepositoryHasOnlySomeUsersAlready();
+    givenUsersRepositorySaveAllSuccess();
+    userService.uploadUsers(new ByteArrayInputStream(csv));
+
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(new ByteArrayInputStream(csv));
+
+    assertEquals(ResponseMessage.USERS_UPDATED, simpleResponseDto.getMessage());
+    assertEquals(0, simpleResponseDto.getCreated());
+    assertEquals(0, simpleResponseDto.getUpdated());
+    assertEquals(8, simpleResponseDto.getUnchanged());
+    assertEquals(8, simpleResponseDto.getSkipped());
+    verify(usersRepository, times(1)).upsertAll(any());
+    verify(usersRepository, times(1)).findExistingIds(any());
+  }
+
+  @ParameterizedTest
+  @EnumSource(
+      value = CsvParserType.class,
+      names = {"HAND_WRITTEN", "PARALLEL"})
+  @DisplayName(
+      "Uploading a file again with a changed row should only write that row, "
+          + "checking every chunk against the stored hashes once")
+  void uploadUsersAgainWritesChangedUsersOnly(CsvParserType csvParserType) throws IOException {
+    usersUploadProperties.setSkipUnchanged(true);
+    usersUploadProperties.setParser(csvParserType);
+    usersUploadProperties.setChunkSize(3);
+    String csv = new String(givenValidUsersCsvInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    givenRepositoryHasOnlySomeUsersAlready();
+    givenUsersRepositorySaveAllSuccess();
+    userService.uploadUsers(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    clearInvocations(usersRepository, usersContentHashes);
+    when(usersRepository.findExistingIds(any()))
+        .thenAnswer(invocation -> List.copyOf(invocation.getArgument(0)));
+
+    SimpleResponseDto simpleResponseDto =
+        userService.uploadUsers(
+            new ByteArrayInputStream(
+                csv.replace("Lord Voldemort,523.4", "Lord Voldemort,600")
+                    .getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(1, simpleResponseDto.getUpdated());
+    assertEquals(7, simpleResponseDto.getSkipped());
+    verify(usersContentHashes, times(3)).filterChanged(any());
+    verify(usersRepository).upsertAll(usersListArgumentCaptor.capture());
+    assertEquals(
+        List.of("e0005"),
+        usersListArgumentCaptor.getValue().stream().map(Users::getId).collect(Collectors.toList()));
+  }
+
+  @Test
+  @DisplayName("By default, uploading the same file again should write every row")
+  void uploadUsersAgainWithoutSkipUnchangedWritesUsers() throws IOException {
+    byte[] csv = givenValidUsersCsvInputStream().readAllBytes();
+    givenRepositoryHasOnlySomeUsersAlready();
+    givenUsersRepositorySaveAllSuccess();
+    userService.uploadUsers(new ByteArrayInputStream(csv));
+
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(new ByteArrayInputStream(csv));
+
+    assertEquals(0, simpleResponseDto.getSkipped());
+    verify(usersRepository, times(2)).upsertAll(any());
   }
 
   @Test
@@ -90,6 +266,171 @@ public class UserServiceImplTest {
     assertThrows(InvalidUserDataException.class, executable);
   }
 
+  @Test
+  @DisplayName("Calling upload users should persist the file in chunks of the configured size")
+  void uploadUsersInChunks() throws IOException {
+    usersUploadProperties.setChunkSize(3);
+    InputStream inputStream = givenValidUsersCsvInputStream();
+    givenUsersRepositorySaveAllSuccess();
+    userService.uploadUsers(inputStream);
+    verify(usersRepository, times(3)).upsertAll(any());
+    verify(usersRepository, times(3)).findExistingIds(any());
+  }
+
+  @Test
+  @DisplayName("Calling upload users with the hand written parser should persist the same users")
+  void uploadUsersWithHandWrittenParser() throws IOException {
+    usersUploadProperties.setParser(CsvParserType.HAND_WRITTEN);
+    InputStream inputStream = givenValidUsersCsvInputStream();
+    givenUsersRepositorySaveAllSuccess();
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
+    assertEquals(ResponseMessage.USERS_CREATED, simpleResponseDto.getMessage());
+    assertEquals(8, simpleResponseDto.getCreated());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users with the parallel parser and duplicate IDs should "
+          + "report duplicates in file order")
+  void uploadUsersWithParallelParserAndDuplicateIds() throws IOException {
+    usersUploadProperties.setParser(CsvParserType.PARALLEL);
+    usersUploadProperties.setChunkSize(3);
+    InputStream inputStream = givenCsvInputStreamWithDuplicateIds();
+    givenUsersRepositorySaveAllSuccess();
+    InvalidUserDataException exception =
+        assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+    assertEquals("Found duplicate id values: e0002, e0001", exception.getMessage());
+    verify(usersRepository, never()).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users with duplicate IDs in different chunks should "
+          + "report every duplicate before saving any chunk")
+  void uploadUsersWithDuplicateIdsAcrossChunks() throws IOException {
+    usersUploadProperties.setChunkSize(3);
+    InputStream inputStream = givenCsvInputStreamWithDuplicateIds();
+    givenUsersRepositorySaveAllSuccess();
+    InvalidUserDataException exception =
+        assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+    assertEquals("Found duplicate id values: e0002, e0001", exception.getMessage());
+    verify(usersRepository, never()).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users with duplicate logins in different chunks should "
+          + "report both data rows of every duplicate before saving any chunk")
+  void uploadUsersWithDuplicateLoginsAcrossChunks() {
+    usersUploadProperties.setChunkSize(2);
+    InputStream inputStream =
+        csvInputStream(
+            "e0001,hpotter,Harry Potter,1234.56,2001-11-16",
+            "e0002,rwesley,Ron Weasley,19234.50,2001-11-16",
+            "e0003,hpotter,Severus Snape,4000.0,2001-11-16",
+            "e0004,rhagrid,Rubeus Hagrid,3999.999,2001-11-16",
+            "e0005,rwesley,Lord Voldemort,523.4,2001-11-16");
+    givenUsersRepositorySaveAllSuccess();
+    InvalidUserDataException exception =
+        assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+    assertEquals(
+        "Found duplicate login values: hpotter (data rows 1 and 3), rwesley (data rows 2 and 5)",
+        exception.getMessage());
+    verify(usersRepository, never()).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName("Calling upload users should only report logins sharing a hash when they are equal")
+  void confirmDuplicateLoginsComparesLogins() throws IOException {
+    // every login of the same length collides
+    UserServiceImpl.UploadContext uploadContext =
+        new UserServiceImpl.UploadContext(login -> login.length());
+    List<Users> usersList =
+        List.of(
+            new Users("e0001", "hpotter", "Harry Potter", 1234.56, new Date()),
+            new Users("e0002", "rwesley", "Ron Weasley", 19234.50, new Date()),
+            new Users("e0003", "rhagrid", "Rubeus Hagrid", 3999.999, new Date()),
+            new Users("e0004", "rwesley", "Lord Voldemort", 523.4, new Date()));
+
+    UserServiceImpl.validateForDuplicateLogins(usersList, uploadContext);
+    UserServiceImpl.confirmDuplicateLogins(usersList::forEach, uploadContext);
+
+    assertEquals(List.of("rwesley (data rows 2 and 4)"), uploadContext.getDuplicateLogins());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users with a conflict in the last chunk should "
+          + "report it before saving any chunk")
+  void uploadUsersWithConflictInLastChunk() {
+    usersUploadProperties.setChunkSize(2);
+    InputStream inputStream =
+        csvInputStream(
+            "e0001,hpotter,Harry Potter,1234.56,2001-11-16",
+            "e0002,rwesley,Ron Weasley,19234.50,2001-11-16",
+            "e0003,rhagrid,Rubeus Hagrid,3999.999,2001-11-16");
+    when(usersRepository.findByLogins(Set.of("rhagrid")))
+        .thenReturn(List.of(usersLogin("e0009", "rhagrid")));
+    givenUsersRepositorySaveAllSuccess();
+    InvalidUserDataException exception =
+        assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+    assertEquals(
+        "Found login values already used by other users: rhagrid (data row 3, used by id e0009)",
+        exception.getMessage());
+    verify(usersRepository, never()).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users should accept a login given up by a stored user "
+          + "in an earlier chunk")
+  void uploadUsersWithLoginGivenUpInEarlierChunk() {
+    usersUploadProperties.setChunkSize(1);
+    InputStream inputStream =
+        csvInputStream(
+            "e0001,hpotter2,Harry Potter,1234.56,2001-11-16",
+            "e0002,hpotter,Ron Weasley,19234.50,2001-11-16");
+    when(usersRepository.findByLogins(Set.of("hpotter")))
+        .thenReturn(List.of(usersLogin("e0001", "hpotter")));
+    givenUsersRepositorySaveAllSuccess();
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
+    assertEquals(2, simpleResponseDto.getCreated());
+    verify(usersRepository, times(2)).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users with a login held by another stored user should "
+          + "report the row before writing it")
+  void uploadUsersWithLoginTakenByStoredUser() {
+    InputStream inputStream =
+        csvInputStream(
+            "e0001,hpotter,Harry Potter,1234.56,2001-11-16",
+            "e0002,rwesley,Ron Weasley,19234.50,2001-11-16");
+    when(usersRepository.findByLogins(any())).thenReturn(List.of(usersLogin("e0009", "rwesley")));
+    InvalidUserDataException exception =
+        assertThrows(InvalidUserDataException.class, () -> userService.uploadUsers(inputStream));
+    assertEquals(
+        "Found login values already used by other users: rwesley (data row 2, used by id e0009)",
+        exception.getMessage());
+    verify(usersRepository, never()).upsertAll(any());
+  }
+
+  @Test
+  @DisplayName(
+      "Calling upload users should accept a login given up by a stored user "
+          + "earlier in the same chunk")
+  void uploadUsersWithLoginGivenUpEarlierInChunk() {
+    InputStream inputStream =
+        csvInputStream(
+            "e0001,hpotter2,Harry Potter,1234.56,2001-11-16",
+            "e0002,hpotter,Ron Weasley,19234.50,2001-11-16");
+    when(usersRepository.findByLogins(any())).thenReturn(List.of(usersLogin("e0001", "hpotter")));
+    givenUsersRepositorySaveAllSuccess();
+    SimpleResponseDto simpleResponseDto = userService.uploadUsers(inputStream);
+    assertEquals(2, simpleResponseDto.getCreated());
+  }
+
   @Test
   @DisplayName(
       "Calling upload users should return InvalidUserDataException "
@@ -135,6 +476,13 @@ public class UserServiceImplTest {
     assertThrows(InvalidUserDataException.class, executable);
   }
 
+  @Test
+  @DisplayName("getUsers should throw InvalidUserDataException when offset is negative")
+  void getUsersGivenNegativeOffset() {
+    Executable executable = () -> userService.getUsers(0, 1000, -1, 0, new String[] {"id,asc"});
+    assertThrows(InvalidUserDataException.class, executable);
+  }
+
   @Test
   @DisplayName("getUsers should return filtered result when sortBy has the default passed value")
   void getUsersGivenDefaultSortBy() {
@@ -144,18 +492,32 @@ public class UserServiceImplTest {
     assertEquals("e0003", users.getResults().get(2).getId());
   }
 
+  @Test
+  @DisplayName("getUsers should push offset and limit down to the repository")
+  void getUsersPushesOffsetAndLimitToRepository() {
+    ArgumentCaptor<Pageable> pageableArgumentCaptor = ArgumentCaptor.forClass(Pageable.class);
+    givenRepositoryReturnsSortedUserDetails();
+    userService.getUsers(500, 5000, 500000, 50, new String[]{"salary,asc"});
+    verify(usersRepository)
+        .findBySalaryGreaterThanEqualAndSalaryLessThan(
+            eq(500.0), eq(5000.0), pageableArgumentCaptor.capture());
+    Pageable pageable = pageableArgumentCaptor.getValue();
+    assertEquals(500000, pageable.getOffset());
+    assertEquals(50, pageable.getPageSize());
+  }
+
   @Test
   @DisplayName("getUsers should return filtered result when all parameters are correct")
   void getUsersGivenCorrectInputs() {
-    ArgumentCaptor<Sort> sortArgumentCaptor = ArgumentCaptor.forClass(Sort.class);
+    ArgumentCaptor<Pageable> pageableArgumentCaptor = ArgumentCaptor.forClass(Pageable.class);
     givenRepositoryReturnsSortedUserDetails();
     UsersListDto users = userService.getUsers(500, 5000, 1, 3,
         new String[]{"salary,asc", "name,desc"});
     assertEquals(3, users.getResults().size());
     assertEquals("e0003", users.getResults().get(2).getId());
     verify(usersRepository).
-        findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), sortArgumentCaptor.capture());
-    Sort sort = sortArgumentCaptor.getValue();
+        findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), pageableArgumentCaptor.capture());
+    Sort sort = pageableArgumentCaptor.getValue().getSort();
     List<Sort.Order> orders = sort.toList();
     assertEquals("salary", orders.get(0).getProperty());
     assertEquals(Sort.Direction.ASC, orders.get(0).getDirection());
@@ -163,18 +525,292 @@ public class UserServiceImplTest {
     assertEquals(Sort.Direction.DESC, orders.get(1).getDirection());
   }
 
+  @Test
+  @DisplayName("getUsers should record the query and mapping stages only when the cache misses")
+  void getUsersRecordsStageMetrics() {
+    givenRepositoryReturnsSortedUserDetails();
+    userService.getUsers(500, 5000, 1, 3, new String[] {"salary,asc"});
+    userService.getUsers(500, 5000, 1, 3, new String[] {"salary,asc"});
+
+    assertEquals(2, meterRegistry.get("users.fetch").timer().count());
+    assertEquals(2, meterRegistry.get("users.fetch.stage").tag("stage", "validate").timer().count());
+    assertEquals(1, meterRegistry.get("users.fetch.stage").tag("stage", "query").timer().count());
+    assertEquals(1, meterRegistry.get("users.fetch.stage").tag("stage", "map").timer().count());
+    assertEquals(6, meterRegistry.get("users.fetch.rows").counter().count());
+  }
+
+  @Test
+  @DisplayName("getUsers should query the repository once per normalised query and data set version")
+  void getUsersCachesResultsUntilUpload() {
+    givenRepositoryReturnsSortedUserDetails();
+    UsersListDto users = userService.getUsers(500, 5000, 1, 3, new String[] {"name", "desc"});
+
+    assertEquals(
+        users.toString(),
+        userService.getUsers(500, 5000, 1, 3, new String[] {"NAME,DESC"}).toString());
+    verify(usersRepository, times(1))
+        .findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any());
+
+    datasetVersion.onUsersUploaded(new UsersUploadedEvent(1, 0));
+    userService.getUsers(500, 5000, 1, 3, new String[] {"name,desc"});
+    verify(usersRepository, times(2))
+        .findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any());
+  }
+
+  @Test
+  @DisplayName("getUsersETag should change with the data set version and the normalised query only")
+  void getUsersETagFollowsVersionAndNormalisedQuery() {
+    String[] sortBy = {"name,desc"};
+    String eTag = userService.getUsersETag(500, 5000, 1, 3, sortBy, null, null, null);
+
+    assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""), eTag);
+    assertEquals(
+        eTag,
+        userService.getUsersETag(
+            500, 5000, 1, 3, new String[] {"NAME", "DESC"}, null, null, null));
+    assertNotEquals(eTag, userService.getUsersETag(500, 5000, 1, 4, sortBy, null, null, null));
+    assertNotEquals(eTag, userService.getUsersETag(500, 5000, 1, 3, sortBy, "", null, null));
+    assertNotEquals(
+        eTag, userService.getUsersETag(500, 5000, 1, 3, sortBy, null, null, "application/cbor"));
+    String[] fields = {"id", "salary"};
+    String fieldsETag = userService.getUsersETag(500, 5000, 1, 3, sortBy, null, fields, null);
+    assertNotEquals(eTag, fieldsETag);
+    assertEquals(
+        fieldsETag,
+        userService.getUsersETag(
+            500, 5000, 1, 3, sortBy, null, new String[] {"ID", "salary", "id"}, null));
+    assertNotEquals(
+        fieldsETag,
+        userService.getUsersETag(
+            500, 5000, 1, 3, sortBy, null, new String[] {"salary", "id"}, null));
+    datasetVersion.onUsersUploaded(new UsersUploadedEvent(1, 0));
+    assertNotEquals(eTag, userService.getUsersETag(500, 5000, 1, 3, sortBy, null, null, null));
+    verifyNoInteractions(usersRepository);
+  }
+
+  @Test
+  @DisplayName("writeUsers should write the same JSON as getUsers and detach every written user")
+  void writeUsersGivenCorrectInputs() throws IOException {
+    givenRepositoryReturnsSortedUserDetails();
+    when(usersRepository
+        .streamBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any()))
+        .thenReturn(getSortedUsers().subList(1, 4).stream());
+    ObjectMapper objectMapper = new ObjectMapper();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    userService.writeUsers(500, 5000, 1, 3, new String[] {"salary,asc"}, outputStream);
+
+    assertEquals(
+        objectMapper.writeValueAsString(
+            userService.getUsers(500, 5000, 1, 3, new String[] {"salary,asc"})),
+        outputStream.toString(StandardCharsets.UTF_8));
+    verify(usersRepository, times(3)).detach(any());
+  }
+
+  @Test
+  @DisplayName("writeUsersAsNdjson should write one JSON user per line in the order of getUsers")
+  void writeUsersAsNdjsonGivenCorrectInputs() throws IOException {
+    givenRepositoryReturnsSortedUserDetails();
+    when(usersRepository
+        .streamBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any()))
+        .thenReturn(getSortedUsers().subList(1, 4).stream());
+    ObjectMapper objectMapper = new ObjectMapper();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    userService.writeUsersAsNdjson(500, 5000, 1, 3, new String[] {"salary,asc"}, outputStream);
+
+    StringBuilder expectedNdjson = new StringBuilder();
+    for (Object usersDto :
+        userService.getUsers(500, 5000, 1, 3, new String[] {"salary,asc"}).getResults()) {
+      expectedNdjson.append(objectMapper.writeValueAsString(usersDto)).append('\n');
+    }
+    assertEquals(expectedNdjson.toString(), outputStream.toString(StandardCharsets.UTF_8));
+    verify(usersRepository, times(3)).detach(any());
+  }
+
+  @Test
+  @DisplayName("writeUsers should throw InvalidUserDataException before writing when sortBy is invalid")
+  void writeUsersGivenWrongSortByField() {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Executable executable =
+        () -> userService.writeUsers(0, 1000, 0, 0, new String[] {"startDate,asc"}, outputStream);
+    assertThrows(InvalidUserDataException.class, executable);
+    assertEquals(0, outputStream.size());
+  }
+
+  @Test
+  @DisplayName("exportUsers should write the header and one upload row per user")
+  void exportUsersWritesUploadFile() throws IOException {
+    doAnswer(
+            invocation -> {
+              getSortedUsers().subList(0, 2).forEach(invocation.<Consumer<Users>>getArgument(2));
+              return null;
+            })
+        .when(usersRepository)
+        .forEachUserBySalaryRange(eq(500.0), eq(5000.0), any());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    userService.exportUsers(500, 5000, outputStream);
+
+    String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(3, lines.length);
+    assertEquals(UsersCsvWriter.HEADER, lines[0]);
+    assertTrue(lines[1].startsWith(getSortedUsers().get(0).getId() + ","));
+  }
+
+  @Test
+  @DisplayName("getUsersAfterCursor should return a cursor that seeks past the last returned row")
+  void getUsersAfterCursorReturnsNextCursor() {
+    when(usersRepository.findBySalaryRangeAfterKey(
+            anyDouble(), anyDouble(), any(), anyList(), anyInt()))
+        .thenReturn(getSortedUsers().subList(0, 2));
+    UsersListDto firstPage =
+        userService.getUsersAfterCursor(0, 5000, 2, new String[] {"salary,desc"}, "");
+    userService.getUsersAfterCursor(
+        0, 5000, 2, new String[] {"salary,desc"}, firstPage.getNextCursor());
+
+    ArgumentCaptor<Sort> sortArgumentCaptor = ArgumentCaptor.forClass(Sort.class);
+    verify(usersRepository, times(2))
+        .findBySalaryRangeAfterKey(
+            anyDouble(),
+            anyDouble(),
+            sortArgumentCaptor.capture(),
+            lastKeyArgumentCaptor.capture(),
+            eq(2));
+    assertEquals(
+        List.of(Sort.Order.desc("salary"), Sort.Order.asc("id")),
+        sortArgumentCaptor.getValue().toList());
+    assertEquals(List.of(), lastKeyArgumentCaptor.getAllValues().get(0));
+    assertEquals(List.of(1234.56, "e0001"), lastKeyArgumentCaptor.getAllValues().get(1));
+  }
+
+  @Test
+  @DisplayName("getUsersAfterCursor should not return a cursor for the last page")
+  void getUsersAfterCursorWithoutNextPage() {
+    when(usersRepository.findBySalaryRangeAfterKey(
+            anyDouble(), anyDouble(), any(), anyList(), anyInt()))
+        .thenReturn(getSortedUsers().subList(0, 1));
+    UsersListDto lastPage = userService.getUsersAfterCursor(0, 5000, 2, new String[] {"id,asc"}, "");
+    assertNull(lastPage.getNextCursor());
+  }
+
+  @Test
+  @DisplayName("getUsersAfterCursor should throw InvalidUserDataException for a cursor of another sort")
+  void getUsersAfterCursorGivenCursorOfAnotherSort() {
+    when(usersRepository.findBySalaryRangeAfterKey(
+            anyDouble(), anyDouble(), any(), anyList(), anyInt()))
+        .thenReturn(getSortedUsers().subList(0, 2));
+    String cursor =
+        userService.getUsersAfterCursor(0, 5000, 2, new String[] {"salary,desc"}, "").getNextCursor();
+    Executable executable =
+        () -> userService.getUsersAfterCursor(0, 5000, 2, new String[] {"name,asc"}, cursor);
+    assertThrows(InvalidUserDataException.class, executable);
+  }
+
+  @Test
+  @DisplayName(
+      "getUsersAfterCursor should throw InvalidUserDataException for a cursor of another range")
+  void getUsersAfterCursorGivenCursorOfAnotherRange() {
+    when(usersRepository.findBySalaryRangeAfterKey(
+            anyDouble(), anyDouble(), any(), anyList(), anyInt()))
+        .thenReturn(getSortedUsers().subList(0, 2));
+    String cursor =
+        userService.getUsersAfterCursor(0, 5000, 2, new String[] {"salary,desc"}, "").getNextCursor();
+    Executable executable =
+        () -> userService.getUsersAfterCursor(0, 4000, 2, new String[] {"salary,desc"}, cursor);
+    InvalidUserDataException exception = assertThrows(InvalidUserDataException.class, executable);
+    assertTrue(
+        exception.getMessage().endsWith("does not match minSalary 0.0 and maxSalary 4000.0"));
+  }
+
+  @Test
+  @DisplayName("getUsersFields should select only the validated fields in the database")
+  void getUsersFieldsSelectsOnlyFields() {
+    Tuple row = givenRow(Map.of("salary", 1234.56, "id", "e0001"));
+    when(usersRepository.findFieldsBySalaryRange(
+            anyDouble(), anyDouble(), anyList(), any(), anyList(), anyInt(), anyInt()))
+        .thenReturn(List.of(row));
+
+    UsersFieldsListDto users =
+        userService.getUsersFields(
+            500, 5000, 1, 3, new String[] {"salary,asc"}, null, new String[] {"SALARY", "id"});
+
+    assertEquals(List.of(Map.of("salary", 1234.56, "id", "e0001")), users.getResults());
+    assertEquals(List.of("salary", "id"), List.copyOf(users.getResults().get(0).keySet()));
+    verify(usersRepository)
+        .findFieldsBySalaryRange(
+            500, 5000, List.of("salary", "id"), Sort.by("salary"), List.of(), 1, 3);
+    verify(usersRepository, never())
+        .findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any());
+  }
+
+  @Test
+  @DisplayName("getUsersFields should also select the sort key of a cursor without returning it")
+  void getUsersFieldsAfterCursorReturnsNextCursor() {
+    Tuple row = givenRow(Map.of("login", "l1", "salary", 1234.56, "id", "e0001"));
+    when(usersRepository.findFieldsBySalaryRange(
+            anyDouble(), anyDouble(), anyList(), any(), anyList(), anyInt(), anyInt()))
+        .thenReturn(List.of(row));
+
+    UsersFieldsListDto page =
+        userService.getUsersFields(
+            0, 5000, 0, 1, new String[] {"salary,desc"}, "", new String[] {"login"});
+
+    assertEquals(List.of(Map.of("login", "l1")), page.getResults());
+    assertEquals(
+        userService
+            .getUsersFields(
+                0, 5000, 0, 1, new String[] {"salary,desc"}, "", new String[] {"salary", "id"})
+            .getNextCursor(),
+        page.getNextCursor());
+    verify(usersRepository)
+        .findFieldsBySalaryRange(
+            0,
+            5000,
+            List.of("login", "salary", "id"),
+            Sort.by(Sort.Order.desc("salary"), Sort.Order.asc("id")),
+            List.of(),
+            0,
+            1);
+  }
+
+  @Test
+  @DisplayName("getUsersFields should throw InvalidUserDataException for unknown or missing fields")
+  void getUsersFieldsGivenWrongFields() {
+    InvalidUserDataException ex =
+        assertThrows(
+            InvalidUserDataException.class,
+            () ->
+                userService.getUsersFields(
+                    0, 1000, 0, 0, new String[] {"id,asc"}, null, new String[] {"startDate"}));
+    assertEquals("fields field name provided startDate is not supported", ex.getMessage());
+    assertThrows(
+        InvalidUserDataException.class,
+        () ->
+            userService.getUsersFields(
+                0, 1000, 0, 0, new String[] {"id,asc"}, null, new String[] {" "}));
+    verifyNoInteractions(usersRepository);
+  }
+
+  private Tuple givenRow(Map<String, Object> values) {
+    Tuple row = mock(Tuple.class);
+    values.forEach((field, value) -> when(row.get(field)).thenReturn(value));
+    return row;
+  }
+
   private void givenRepositoryReturnsSortedUserDetails() {
     when(usersRepository
         .findBySalaryGreaterThanEqualAndSalaryLessThan(anyDouble(), anyDouble(), any()))
-        .thenReturn(getSortedUsers());
+        .thenReturn(getSortedUsers().subList(1, 4));
   }
 
   private void givenUsersRepositoryThrowsException(Exception exception) {
-    when(usersRepository.saveAll(any())).thenThrow(exception);
+    when(usersRepository.upsertAll(any())).thenThrow(exception);
   }
 
   private void givenUsersRepositorySaveAllSuccess() {
-    when(usersRepository.saveAll(any())).thenReturn(generateUsers());
+    when(usersRepository.upsertAll(any()))
+        .thenAnswer(invocation -> invocation.<List<Users>>getArgument(0).size());
   }
 
   private InputStream givenValidUsersCsvInputStream() throws IOException {
@@ -185,14 +821,34 @@ public class UserServiceImplTest {
     return TestFileReader.readFile(DUPLICATE_ID_CSV_DATA_SOURCE);
   }
 
+  private static InputStream csvInputStream(String... rows) {
+    String csv = "id,login,name,salary,startDate\n" + String.join("\n", rows);
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static UsersLogin usersLogin(String id, String login) {
+    return new UsersLogin() {
+      @Override
+      public String getId() {
+        return id;
+      }
+
+      @Override
+      public String getLogin() {
+        return login;
+      }
+    };
+  }
+
   private void givenRepositoryHasAllUsersAlready() {
-    when(usersRepository.findAllById(any())).thenReturn(generateUsers());
+    when(usersRepository.findExistingIds(any()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
   }
 
   private void givenRepositoryHasOnlySomeUsersAlready() {
-    List<Users> users = generateUsers();
-    List<Users> subList = users.stream().skip(users.size() / 2).collect(Collectors.toList());
-    when(usersRepository.findAllById(any())).thenReturn(subList);
+    List<String> ids = generateUsers().stream().map(Users::getId).collect(Collectors.toList());
+    when(usersRepository.findExistingIds(any()))
+        .thenReturn(ids.subList(ids.size() / 2, ids.size()));
   }
 
   private List<Users> generateUsers() {
@@ -0,0 +1,86 @@
+package com.zenika.users.snapshot;
+
+import com.zenika.users.entity.Users;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UsersSnapshotFileTest {
+
+  @TempDir Path directory;
+
+  @Test
+  @DisplayName("Users read back from a snapshot should be equal to the users written")
+  void writeAndReadRoundTrip() throws IOException {
+    Path file = directory.resolve("users.snapshot");
+    List<Users> users = givenUsers(20_000);
+
+    assertEquals(20_000, UsersSnapshotFile.write(file, users::forEach));
+    List<Users> readUsers = new ArrayList<>();
+    assertEquals(20_000, UsersSnapshotFile.read(file, readUsers::add));
+
+    assertEquals(users, readUsers);
+  }
+
+  @Test
+  @DisplayName("An empty table should be written as an empty snapshot")
+  void writeAndReadEmptySnapshot() throws IOException {
+    Path file = directory.resolve("users.snapshot");
+
+    assertEquals(0, UsersSnapshotFile.write(file, consumer -> {}));
+
+    assertEquals(0, UsersSnapshotFile.read(file, users -> {}));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 9, 5_000, -13, -1})
+  @DisplayName("Reading a snapshot with a modified byte should fail")
+  void readCorruptedSnapshot(int position) throws IOException {
+    Path file = directory.resolve("users.snapshot");
+    UsersSnapshotFile.write(file, givenUsers(200)::forEach);
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[Math.floorMod(position, bytes.length)] ^= 0x10;
+    Files.write(file, bytes);
+
+    assertThrows(IOException.class, () -> UsersSnapshotFile.read(file, users -> {}));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 8, 100, 1})
+  @DisplayName("Reading a truncated snapshot should fail")
+  void readTruncatedSnapshot(int removedBytes) throws IOException {
+    Path file = directory.resolve("users.snapshot");
+    UsersSnapshotFile.write(file, givenUsers(200)::forEach);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, removedBytes == 0 ? 4 : bytes.length - removedBytes));
+
+    assertThrows(IOException.class, () -> UsersSnapshotFile.read(file, users -> {}));
+  }
+
+  private List<Users> givenUsers(int count) {
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(
+          new Users(
+              "e" + i,
+              "login" + i,
+              i % 3 == 0 ? "Zoë, \"Ünïcödé\" " + i : "name" + i,
+              1000 + i / 7.0,
+              new Date(86_400_000L * i)));
+    }
+    return users;
+  }
+}
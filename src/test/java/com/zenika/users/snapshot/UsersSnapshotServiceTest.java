@@ -0,0 +1,94 @@
+package com.zenika.users.snapshot;
+
+import com.zenika.users.config.UsersSnapshotProperties;
+import com.zenika.users.config.UsersUploadProperties;
+import com.zenika.users.entity.Users;
+import com.zenika.users.repository.UsersRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@EnableConfigurationProperties(UsersUploadProperties.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UsersSnapshotServiceTest {
+
+  @Autowired private UsersRepository usersRepository;
+  @Autowired private PlatformTransactionManager transactionManager;
+  @TempDir Path directory;
+  private UsersSnapshotService usersSnapshotService;
+
+  @BeforeEach
+  void setup() {
+    UsersSnapshotProperties usersSnapshotProperties = new UsersSnapshotProperties();
+    usersSnapshotProperties.setEnabled(true);
+    usersSnapshotProperties.setFile(directory.resolve("users.snapshot"));
+    UsersUploadProperties usersUploadProperties = new UsersUploadProperties();
+    usersUploadProperties.setChunkSize(100);
+    usersSnapshotService =
+        new UsersSnapshotService(
+            usersRepository, usersSnapshotProperties, usersUploadProperties, transactionManager);
+    usersRepository.deleteAll();
+  }
+
+  @AfterEach
+  void tearDown() {
+    usersSnapshotService.stop();
+    usersRepository.deleteAll();
+  }
+
+  @Test
+  @DisplayName("Starting should load the users written to the snapshot")
+  void startLoadsSnapshot() {
+    givenUsersInDatabase(250);
+    usersSnapshotService.writeSnapshot();
+    usersRepository.deleteAll();
+
+    usersSnapshotService.start();
+
+    assertEquals(250, usersRepository.count());
+    assertEquals("name7", usersRepository.findById("u0000007").orElseThrow().getName());
+  }
+
+  @Test
+  @DisplayName("Starting with a corrupted snapshot should leave the users table unchanged")
+  void startIgnoresCorruptedSnapshot() throws IOException {
+    givenUsersInDatabase(250);
+    usersSnapshotService.writeSnapshot();
+    usersRepository.deleteAll();
+    Path file = directory.resolve("users.snapshot");
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(file, bytes);
+
+    usersSnapshotService.start();
+
+    assertEquals(0, usersRepository.count());
+  }
+
+  private void givenUsersInDatabase(int count) {
+    List<Users> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      users.add(
+          new Users(String.format("u%07d", i), "login" + i, "name" + i, 2000 + i, new Date()));
+    }
+    usersRepository.upsertAll(users);
+  }
+}
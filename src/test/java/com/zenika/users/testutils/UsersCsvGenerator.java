@@ -0,0 +1,155 @@
+package com.zenika.users.testutils;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates valid upload files of any size in the {@code UsersCsvDto} schema. The content only
+ * depends on the settings, so the same seed always produces the same file.
+ *
+ * <p>Ids are {@code e<number>}. A row updates an existing user with probability {@code updateRatio}
+ * and takes the ids {@code 0 .. existingUsers - 1} from a random start without repeating them.
+ * Other rows insert new users numbered from {@code firstNewId}. Logins are derived from the id so
+ * that they stay unique across inserts and updates. Rows are generated while the file is read, so
+ * arbitrarily large files are never held in memory.
+ */
+@Builder
+@Getter
+public class UsersCsvGenerator {
+
+  private static final String HEADER = "id,login,name,salary,startDate\n";
+  private static final DateTimeFormatter SHORT_DATE_FORMAT =
+      DateTimeFormatter.ofPattern("dd-MMM-yy", Locale.ENGLISH);
+
+  @Builder.Default private final long seed = 42;
+  @Builder.Default private final long rows = 1000;
+  /** Users {@code e0 .. e<existingUsers - 1>} assumed to be stored already. */
+  @Builder.Default private final long existingUsers = 0;
+  /** First id number of inserted users, {@code existingUsers} when negative. */
+  @Builder.Default private final long firstNewId = -1;
+  /** Share of rows updating an existing user, as long as existing users are left. */
+  @Builder.Default private final double updateRatio = 0;
+  /** Share of start dates written {@code yyyy-MM-dd} rather than {@code dd-MMM-yy}. */
+  @Builder.Default private final double isoDateRatio = 0.5;
+  /** Probability of a comment line before a row. */
+  @Builder.Default private final double commentRatio = 0.01;
+
+  /** Returns a new stream over the generated file. */
+  public InputStream toInputStream() {
+    return new GeneratedCsvInputStream();
+  }
+
+  public void writeTo(OutputStream outputStream) throws IOException {
+    try (InputStream inputStream = toInputStream()) {
+      inputStream.transferTo(outputStream);
+    }
+  }
+
+  /** Number of rows of the file updating an existing user. */
+  public long updatedRows() {
+    long updatedRows = 0;
+    RowSource rowSource = new RowSource();
+    while (rowSource.hasNext()) {
+      rowSource.next(new StringBuilder());
+      updatedRows += rowSource.lastRowUpdate ? 1 : 0;
+    }
+    return updatedRows;
+  }
+
+  /** Produces the header, then one row with its optional comment line per call. */
+  private final class RowSource {
+    private final Random random = new Random(seed);
+    private final long updateStart =
+        existingUsers > 0 ? Math.floorMod(random.nextLong(), existingUsers) : 0;
+    private long row = -1;
+    private long updates;
+    private long inserts;
+    private boolean lastRowUpdate;
+
+    private boolean hasNext() {
+      return row < rows;
+    }
+
+    private void next(StringBuilder line) {
+      if (row++ < 0) {
+        line.append(HEADER);
+        return;
+      }
+      if (random.nextDouble() < commentRatio) {
+        line.append("# generated with seed ").append(seed).append(", row ").append(row).append('\n');
+      }
+      lastRowUpdate = updates < existingUsers && random.nextDouble() < updateRatio;
+      long id =
+          lastRowUpdate
+              ? (updateStart + updates++) % existingUsers
+              : (firstNewId < 0 ? existingUsers : firstNewId) + inserts++;
+      LocalDate startDate = LocalDate.ofEpochDay(10_000 + random.nextInt(10_000));
+      line.append('e')
+          .append(id)
+          .append(",login")
+          .append(id)
+          .append(",name")
+          .append(random.nextInt(10_000))
+          .append(',')
+          .append(1000 + random.nextInt(10_000_000) / 100.0)
+          .append(',')
+          .append(
+              random.nextDouble() < isoDateRatio
+                  ? startDate.toString()
+                  : SHORT_DATE_FORMAT.format(startDate))
+          .append('\n');
+    }
+  }
+
+  private final class GeneratedCsvInputStream extends InputStream {
+    private final RowSource rowSource = new RowSource();
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buffer = new byte[0];
+    private int position;
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      int read = 0;
+      while (read < length && fill()) {
+        int count = Math.min(length - read, buffer.length - position);
+        System.arraycopy(buffer, position, bytes, offset + read, count);
+        position += count;
+        read += count;
+      }
+      return read == 0 ? -1 : read;
+    }
+
+    private boolean fill() {
+      while (position == buffer.length) {
+        if (!rowSource.hasNext()) {
+          return false;
+        }
+        line.setLength(0);
+        rowSource.next(line);
+        buffer = line.toString().getBytes(StandardCharsets.UTF_8);
+        position = 0;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.zenika.users.testutils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.utils.CsvToBeanConverter;
+import com.zenika.users.utils.UsersCsvParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UsersCsvGeneratorTest {
+
+  @Test
+  @DisplayName("The same settings should always generate the same file")
+  void generateIsDeterministic() throws IOException {
+    UsersCsvGenerator usersCsvGenerator = UsersCsvGenerator.builder().seed(7).rows(500).build();
+
+    assertArrayEquals(generate(usersCsvGenerator), generate(usersCsvGenerator));
+    assertFalse(
+        Arrays.equals(
+            generate(usersCsvGenerator),
+            generate(UsersCsvGenerator.builder().seed(8).rows(500).build())));
+  }
+
+  @Test
+  @DisplayName("Generated files should be parsed alike by both parsers with unique ids and logins")
+  void generateValidUploadFile() throws IOException {
+    UsersCsvGenerator usersCsvGenerator =
+        UsersCsvGenerator.builder().rows(2_000).commentRatio(0.1).build();
+    byte[] csv = generate(usersCsvGenerator);
+    String content = new String(csv, StandardCharsets.UTF_8);
+
+    List<UsersCsvDto> users = UsersCsvParser.parse(usersCsvGenerator.toInputStream());
+
+    assertEquals(2_000, users.size());
+    assertEquals(
+        users.toString(),
+        CsvToBeanConverter.convertCsvToBean(usersCsvGenerator.toInputStream(), UsersCsvDto.class)
+            .toString());
+    assertEquals(2_000, users.stream().map(UsersCsvDto::getId).distinct().count());
+    assertEquals(2_000, users.stream().map(UsersCsvDto::getLogin).distinct().count());
+    assertTrue(content.contains("\n# generated"));
+    assertTrue(content.matches("(?s).*,\\d{4}-\\d{2}-\\d{2}\n.*"));
+    assertTrue(content.matches("(?s).*,\\d{2}-[A-Z][a-z]{2}-\\d{2}\n.*"));
+  }
+
+  @Test
+  @DisplayName("Updates should reuse existing ids without repeating them and inserts use new ids")
+  void generateUpdatesAndInserts() {
+    UsersCsvGenerator usersCsvGenerator =
+        UsersCsvGenerator.builder()
+            .rows(1_000)
+            .existingUsers(300)
+            .firstNewId(10_000)
+            .updateRatio(0.5)
+            .build();
+
+    Set<Long> ids =
+        UsersCsvParser.parse(usersCsvGenerator.toInputStream()).stream()
+            .map(usersCsvDto -> Long.parseLong(usersCsvDto.getId().substring(1)))
+            .collect(Collectors.toSet());
+    long updatedRows = usersCsvGenerator.updatedRows();
+
+    assertEquals(1_000, ids.size());
+    assertEquals(updatedRows, ids.stream().filter(id -> id < 300).count());
+    assertEquals(1_000 - updatedRows, ids.stream().filter(id -> id >= 10_000).count());
+    assertTrue(updatedRows > 250 && updatedRows <= 300, "updated rows " + updatedRows);
+  }
+
+  private byte[] generate(UsersCsvGenerator usersCsvGenerator) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    usersCsvGenerator.writeTo(outputStream);
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,188 @@
+package utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.utils.CheckpointedUsersCsvReader;
+import com.zenika.users.utils.UsersCsvParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CheckpointedUsersCsvReaderTest {
+
+  private static final String HEADER = "id,login,name,salary,startDate\n";
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "\n",
+        "id,login,name,salary\ne1,l,n,12\n",
+        "ID,LOGIN,NAME,SALARY,STARTDATE\re1,l,n,12,2001-01-01\re2,l,n,12,2001-01-01",
+        "\"id\",login,\"na\nme\",salary,startDate\r\ne1,l,n,12,2001-01-01\r\n",
+        "id,login,name,salary,startDate",
+        "e1,l,n,12,2001-01-01\n#,\"unterminated\n",
+        "e1,l,n,12,2001-01-01\ne2,l,\"n\n\",12,2001-01-01\ne3,l,n,12,2001-01-01\n",
+        "e1,l,n,12\n",
+        "e1,l,n,-12,16-Nov-01\n"
+      })
+  @DisplayName("Read small inputs in chunks with the same result or error message as UsersCsvParser")
+  void readSmallInputsLikeUsersCsvParser(String csv) throws Exception {
+    String content = csv.startsWith("e") ? HEADER + csv : csv;
+    assertEquals(
+        outcome(() -> UsersCsvParser.parse(toInputStream(content))),
+        outcome(() -> readInChunks(toInputStream(content), null, 0, 2)));
+  }
+
+  @Test
+  @DisplayName("Resuming from any checkpoint should read the same rows with the same line numbers")
+  void resumeFromEveryCheckpoint() throws Exception {
+    String csv = givenCsv(50, "e9,l,n,-1,2001-01-01\n");
+    byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+    String expected = outcome(() -> UsersCsvParser.parse(toInputStream(csv)));
+
+    CheckpointedUsersCsvReader reader = new CheckpointedUsersCsvReader(toInputStream(csv), null, 0);
+    List<UsersCsvDto> rowsBefore = new ArrayList<>();
+    int checkpoints = 0;
+    while (true) {
+      long offset = reader.getBytesRead();
+      String header = reader.getHeader();
+      long linesRead = reader.getLinesRead();
+      List<UsersCsvDto> rowsSoFar = new ArrayList<>(rowsBefore);
+      String resumed =
+          outcome(
+              () -> {
+                rowsSoFar.addAll(
+                    readInChunks(
+                        new ByteArrayInputStream(bytes, (int) offset, bytes.length - (int) offset),
+                        header,
+                        linesRead,
+                        3));
+                return rowsSoFar;
+              });
+      assertEquals(expected, resumed, "resumed from byte " + offset);
+      checkpoints++;
+      try {
+        if (!reader.nextChunk(4)) {
+          break;
+        }
+      } catch (InvalidUserDataException ex) {
+        break;
+      }
+      rowsBefore.addAll(reader.getRows());
+    }
+    assertTrue(checkpoints > 5);
+  }
+
+  @Test
+  @DisplayName("Track the bytes and lines of the whole records read, comment lines included")
+  void trackBytesAndLinesOfChunks() throws Exception {
+    String csv = HEADER + "# comment\ne1,l1,\"n\n1\",12,2001-01-01\r\ne2,l2,n,12,2001-01-01";
+    CheckpointedUsersCsvReader reader = new CheckpointedUsersCsvReader(toInputStream(csv), null, 0);
+
+    assertTrue(reader.nextChunk(2));
+    assertEquals(1, reader.getRows().size());
+    assertEquals(csv.indexOf("e2"), reader.getBytesRead());
+    assertEquals(4, reader.getLinesRead());
+    assertTrue(reader.nextChunk(2));
+    assertEquals("e2", reader.getRows().get(0).getId());
+    assertEquals(csv.length(), reader.getBytesRead());
+    assertEquals(5, reader.getLinesRead());
+    assertFalse(reader.nextChunk(2));
+  }
+
+  @Test
+  @DisplayName("A record cut by a failed read should never be returned")
+  void truncatedRecordIsNotReturned() throws Exception {
+    InputStream failingInputStream =
+        new SequenceInputStream(
+            toInputStream(HEADER + "e1,l1,n,12,2001-01-01\ne2,l2,n,1"),
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("Connection reset");
+              }
+            });
+    CheckpointedUsersCsvReader reader = new CheckpointedUsersCsvReader(failingInputStream, null, 0);
+
+    assertTrue(reader.nextChunk(1));
+    assertEquals("e1", reader.getRows().get(0).getId());
+    long checkpoint = reader.getBytesRead();
+    assertThrows(IOException.class, () -> reader.nextChunk(1));
+    assertEquals(checkpoint, reader.getBytesRead());
+  }
+
+  @Test
+  @DisplayName("The escape character should be rejected with its line number")
+  void escapeCharacterIsRejected() {
+    String csv = HEADER + "e1,l1,n,12,2001-01-01\ne2,l\\\"2,n,12,2001-01-01\n";
+
+    InvalidUserDataException ex =
+        assertThrows(
+            InvalidUserDataException.class,
+            () -> readInChunks(toInputStream(csv), null, 0, 10));
+    assertEquals(
+        "The escape character \\ is not supported by resumable uploads, found on line 3",
+        ex.getMessage());
+  }
+
+  private List<UsersCsvDto> readInChunks(
+      InputStream inputStream, String header, long linesBefore, int maxRecords)
+      throws IOException {
+    CheckpointedUsersCsvReader reader =
+        new CheckpointedUsersCsvReader(inputStream, header, linesBefore);
+    List<UsersCsvDto> rows = new ArrayList<>();
+    while (reader.nextChunk(maxRecords)) {
+      rows.addAll(reader.getRows());
+    }
+    return rows;
+  }
+
+  /** Builds rows with quoted multi-line names and comments, the invalid row near the end. */
+  private String givenCsv(int rowCount, String invalidRow) {
+    StringBuilder csv = new StringBuilder(HEADER);
+    for (int i = 0; i < rowCount; i++) {
+      if (i == rowCount - 3) {
+        csv.append(invalidRow);
+      }
+      if (i % 7 == 0) {
+        csv.append("# comment ").append(i).append('\n');
+      }
+      csv.append('e').append(i).append(",l").append(i).append(',');
+      if (i % 5 == 0) {
+        csv.append("\"name ").append(i).append("\n\"\"quoted\"\"\r\n\"");
+      } else {
+        csv.append("name").append(i);
+      }
+      csv.append(',').append(1000 + i).append(".5,2001-01-0").append(i % 9 + 1).append('\n');
+    }
+    return csv.toString();
+  }
+
+  private String outcome(Callable<List<UsersCsvDto>> parser) throws Exception {
+    try {
+      return parser.call().toString();
+    } catch (InvalidUserDataException ex) {
+      return "InvalidUserDataException: " + ex.getMessage();
+    }
+  }
+
+  private InputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,103 @@
+package utils;
+
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.utils.CsvCompression;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CsvCompressionTest {
+
+  private static final String CSV =
+      "id,login,name,salary,startDate\ne1,l1,\"n\n1\",12,2001-01-01\ne2,l2,n,12,2001-01-01\n";
+
+  @ParameterizedTest
+  @CsvSource(
+      value = {
+        "gzip, , GZIP",
+        "X-GZIP, , GZIP",
+        "deflate, text/csv, DEFLATE",
+        "'identity, gzip', , GZIP",
+        "identity, application/gzip, GZIP",
+        ", application/x-gzip; charset=binary, GZIP",
+        ", application/zlib, DEFLATE",
+        ", text/csv, AUTO",
+        ", , AUTO"
+      })
+  @DisplayName("The compression should be declared by Content-Encoding, then by the content type")
+  void compressionOfHeaders(String contentEncoding, String contentType, CsvCompression expected) {
+    assertEquals(expected, CsvCompression.of(contentEncoding, contentType));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"br", "gzip, deflate"})
+  @DisplayName("Unsupported or stacked content encodings should be rejected")
+  void unsupportedContentEncoding(String contentEncoding) {
+    assertThrows(InvalidUserDataException.class, () -> CsvCompression.of(contentEncoding, null));
+  }
+
+  @Test
+  @DisplayName("Gzip, zlib and raw deflate content should be inflated to the original file")
+  void decompressCompressedContent() throws IOException {
+    assertEquals(CSV, read(CsvCompression.AUTO.decompress(gzip(CSV))));
+    assertEquals(CSV, read(CsvCompression.GZIP.decompress(gzip(CSV))));
+    assertEquals(CSV, read(CsvCompression.AUTO.decompress(deflate(CSV, false))));
+    assertEquals(CSV, read(CsvCompression.DEFLATE.decompress(deflate(CSV, false))));
+    assertEquals(CSV, read(CsvCompression.DEFLATE.decompress(deflate(CSV, true))));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "x", "x yz\n", "x?,login\n", CSV})
+  @DisplayName("Content without magic bytes should be read as is unless declared compressed")
+  void readUncompressedContentAsIs(String content) throws IOException {
+    assertEquals(content, read(CsvCompression.AUTO.decompress(toInputStream(content))));
+  }
+
+  @Test
+  @DisplayName("Content declared gzip without the gzip magic bytes should fail to read")
+  void declaredGzipWithoutMagicBytes() {
+    assertThrows(IOException.class, () -> CsvCompression.GZIP.decompress(toInputStream(CSV)));
+  }
+
+  private InputStream gzip(String content) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+      outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return new ByteArrayInputStream(compressed.toByteArray());
+  }
+
+  private InputStream deflate(String content, boolean raw) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream outputStream =
+        new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+      outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return new ByteArrayInputStream(compressed.toByteArray());
+  }
+
+  private String read(InputStream inputStream) throws IOException {
+    try (inputStream) {
+      return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private InputStream toInputStream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.zenika.users.testutils.TestFileReader.*;
@@ -26,6 +27,30 @@ public class CsvToBeanConverterTest {
     assertEquals(EXPECTED_USER_COUNT, usersCsvDtos.size());
   }
 
+  @Test
+  @DisplayName("Return users in chunks of the given size when input stream is valid")
+  void convertCsvToBeanInChunksGivenValidInputStream() throws IOException {
+    List<Integer> chunkSizes = new ArrayList<>();
+    long userCount =
+        CsvToBeanConverter.convertCsvToBeanInChunks(
+            readFile(VALID_CSV_DATA_SOURCE),
+            UsersCsvDto.class,
+            3,
+            chunk -> chunkSizes.add(chunk.size()));
+    assertEquals(EXPECTED_USER_COUNT, userCount);
+    assertEquals(List.of(3, 3, 2), chunkSizes);
+  }
+
+  @Test
+  @DisplayName("Throw InvalidUserDataException when input stream is invalid while converting in chunks")
+  void convertCsvToBeanInChunksGivenInvalidInputStream() {
+    Executable executable =
+        () ->
+            CsvToBeanConverter.convertCsvToBeanInChunks(
+                readFile(INVALID_DATA_TYPE_CSV_DATA_SOURCE), UsersCsvDto.class, 3, chunk -> {});
+    assertThrows(InvalidUserDataException.class, executable);
+  }
+
   @Test
   @DisplayName("Throw InvalidUserDataException when input stream is invalid")
   void convertCsvToBeanGivenInvalidInputStream() {
@@ -0,0 +1,149 @@
+package utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.utils.ParallelUsersCsvParser;
+import com.zenika.users.utils.UsersCsvParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelUsersCsvParserTest {
+
+  private static final String HEADER = "id,login,name,salary,startDate\n";
+
+  private final ParallelUsersCsvParser parallelUsersCsvParser =
+      new ParallelUsersCsvParser(4, 0, 256);
+
+  @AfterEach
+  void tearDown() {
+    parallelUsersCsvParser.close();
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "\n",
+        "id,login,name,salary\ne1,l,n,12\n",
+        "ID,LOGIN,NAME,SALARY,STARTDATE\re1,l,n,12,2001-01-01\re2,l,n,12,2001-01-01",
+        "\"id\",login,\"na\nme\",salary,startDate\r\ne1,l,n,12,2001-01-01\r\n",
+        "id,login,name,salary,startDate",
+        "e1,l,n,12,2001-01-01\n#,\"unterminated\n",
+        "e1,l,n,12,2001-01-01\ne2,l\\\"x,\"n\n\",12,2001-01-01\n",
+        "e1,l,n,12\n",
+        "e1,l,n,-12,16-Nov-01\n"
+      })
+  @DisplayName("Parse small inputs with the same result or error message as UsersCsvParser")
+  void parseSmallInputsLikeUsersCsvParser(String csv) throws Exception {
+    String content = csv.startsWith("e") ? HEADER + csv : csv;
+    assertSameOutcome(content);
+  }
+
+  @Test
+  @DisplayName("Parse a large input split in many ranges with the rows and chunks in file order")
+  void parseLargeInputInFileOrder() throws Exception {
+    String csv = givenLargeCsv(5_000, "");
+    List<Integer> chunkSizes = new ArrayList<>();
+    List<UsersCsvDto> rows = new ArrayList<>();
+
+    long rowCount =
+        parallelUsersCsvParser.parseInChunks(
+            toInputStream(csv),
+            1000,
+            chunk -> {
+              chunkSizes.add(chunk.size());
+              rows.addAll(chunk);
+            });
+
+    assertEquals(5_000, rowCount);
+    assertEquals(List.of(1000, 1000, 1000, 1000, 1000), chunkSizes);
+    assertEquals(UsersCsvParser.parse(toInputStream(csv)).toString(), rows.toString());
+  }
+
+  @Test
+  @DisplayName("Parse spooled content again with the same rows without reading the input twice")
+  void parseSpooledInputTwice() throws Exception {
+    String csv = givenLargeCsv(2_000, "");
+    InputStream inputStream = toInputStream(csv);
+    List<UsersCsvDto> firstRows = new ArrayList<>();
+    List<UsersCsvDto> secondRows = new ArrayList<>();
+
+    try (ParallelUsersCsvParser.SpooledCsv spooledCsv = parallelUsersCsvParser.spool(inputStream)) {
+      assertEquals(-1, inputStream.read());
+      spooledCsv.parseInChunks(500, firstRows::addAll);
+      spooledCsv.parseInChunks(500, secondRows::addAll);
+    }
+
+    assertEquals(UsersCsvParser.parse(toInputStream(csv)).toString(), firstRows.toString());
+    assertEquals(firstRows.toString(), secondRows.toString());
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "e9,l,n,-1,2001-01-01\n",
+        "e9,l,\"multi\nline\n\",x,2001-01-01\n",
+        "e9,,n,1,2001-01-01\r\n",
+        "\"e9,l,n,1,2001-01-01\n"
+      })
+  @DisplayName("Report the first invalid row of a large input with the line number in the file")
+  void parseLargeInputWithInvalidRow(String invalidRow) throws Exception {
+    assertSameOutcome(givenLargeCsv(3_000, invalidRow));
+  }
+
+  /** Builds rows with quoted multi-line names and comments, the invalid row in the middle. */
+  private String givenLargeCsv(int rowCount, String invalidRow) {
+    StringBuilder csv = new StringBuilder(HEADER);
+    for (int i = 0; i < rowCount; i++) {
+      if (i == rowCount / 2) {
+        csv.append(invalidRow);
+      }
+      if (i % 97 == 0) {
+        csv.append("# comment ").append(i).append('\n');
+      }
+      csv.append('e').append(i).append(",l").append(i).append(',');
+      if (i % 5 == 0) {
+        csv.append("\"name ").append(i).append("\n\"\"quoted\"\"\r\n\"");
+      } else {
+        csv.append("name").append(i);
+      }
+      csv.append(',').append(1000 + i).append(".5,2001-01-0").append(i % 9 + 1).append('\n');
+    }
+    return csv.toString();
+  }
+
+  private void assertSameOutcome(String csv) throws Exception {
+    assertEquals(
+        outcome(() -> UsersCsvParser.parse(toInputStream(csv))),
+        outcome(
+            () -> {
+              List<UsersCsvDto> rows = new ArrayList<>();
+              parallelUsersCsvParser.parseInChunks(toInputStream(csv), 7, rows::addAll);
+              return rows;
+            }));
+  }
+
+  private String outcome(Callable<List<UsersCsvDto>> parser) throws Exception {
+    try {
+      return parser.call().toString();
+    } catch (InvalidUserDataException ex) {
+      return "InvalidUserDataException: " + ex.getMessage();
+    }
+  }
+
+  private InputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,153 @@
+package utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.exception.InvalidUserDataException;
+import com.zenika.users.utils.CsvToBeanConverter;
+import com.zenika.users.utils.UsersCsvParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static com.zenika.users.testutils.TestFileReader.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UsersCsvParserTest {
+
+  private static final String HEADER = "id,login,name,salary,startDate\n";
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        VALID_CSV_DATA_SOURCE,
+        INVALID_DATA_TYPE_CSV_DATA_SOURCE,
+        NEGATIVE_SALARY_CSV_DATA_SOURCE,
+        DUPLICATE_ID_CSV_DATA_SOURCE
+      })
+  @DisplayName("Parse test files with the same result as CsvToBeanConverter")
+  void parseTestFilesLikeCsvToBeanConverter(String source) throws Exception {
+    assertSameOutcome(
+        () -> CsvToBeanConverter.convertCsvToBean(readFile(source), UsersCsvDto.class),
+        () -> UsersCsvParser.parse(readFile(source)));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "id,login,name,salary\ne1,l,n,12\n",
+        " id ,login,name,salary,startDate\ne1,l,n,12,2001-01-01\n",
+        "ID,LOGIN,NAME,SALARY,STARTDATE\ne1,l,n,12,2001-01-01\n",
+        "startDate,salary,name,login,id,extra\n2001-01-01,12,n,l,e1,zz\n",
+        "id,id,login,name,salary,startDate\na,e1,l,n,12,2001-01-01\n",
+        HEADER + "e1,l,n,12,2001-01-01\r\ne2,l2,n,13,2001-01-02\r\n",
+        HEADER + "e1,l,n,12,2001-01-01\re2,l2,n,13,2001-01-02",
+        HEADER + "e1,l,n,12\n",
+        HEADER + "e1,l,n,12,2001-01-01,x\n",
+        HEADER + "e1,l,n,12,2001-01-01\n\ne2,l2,n,12,2001-01-01\n",
+        HEADER + "#c\n  #c2,x\n",
+        HEADER + "#\n\"#e1\",l,n,12,2001-01-01\n",
+        HEADER + "e1,,n,12,2001-01-01\n",
+        HEADER + " e1 , ,n,12,2001-01-01\n",
+        HEADER + "e1,l,n,,2001-01-01\n",
+        HEADER + "e1,l,n,\"\",2001-01-01\n",
+        HEADER + "\"e,1\",\"l\"\"x\",n, 12 ,2001-01-01\n",
+        HEADER + "e1,l,\"multi\nline\",12,2001-01-01\ne2,l2,n,$1,2001-01-01\n",
+        HEADER + "e1,l,n,12,2001-01-01\n#,\"unterminated\n",
+        HEADER + "e1,l\"x,n,12,2001-01-01\n",
+        HEADER + "e1,\"l\"x,n,12,2001-01-01\n",
+        HEADER + "e1,l\\x,n,12,2001-01-01\n",
+        HEADER + "e1,l,n,$12,16-Nov-01\n",
+        HEADER + "e1,l,n,-12,16-Nov-01\n",
+        HEADER + "e1,l,n,-0.0,2001-01-01\n",
+        HEADER + "e1,l,n,NaN,2001-01-01\n",
+        HEADER + "e1,l,n,Infinity,2001-01-01\n",
+        HEADER + "e1,l,n,0x10,2001-01-01\n",
+        HEADER + "e1,l,n,0x1p4,2001-01-01\n",
+        HEADER + "e1,l,n,12d,2001-01-01\n",
+        HEADER + "e1,l,n,1e3,2001-01-01\n",
+        HEADER + "e1,l,n,1_0,2001-01-01\n",
+        HEADER + "e1,l,n,+5,2001-01-01\n",
+        HEADER + "e1,l,n,.5,2001-01-01\n",
+        HEADER + "e1,l,n,5.,2001-01-01\n",
+        HEADER + "e1,l,n,-,2001-01-01\n",
+        HEADER + "e1,l,n,0.1,2001-01-01\n",
+        HEADER + "e1,l,n,123456789012345.6,2001-01-01\n",
+        HEADER + "e1,l,n,0.0000000000000000000001,2001-01-01\n",
+        HEADER + "e1,l,n,0.00000000000000000000001,2001-01-01\n",
+        HEADER + "e1,l,n,9007199254740993,2001-01-01\n",
+        HEADER + "e1,l,n,12,2001-13-01\n",
+        HEADER + "e1,l,n,12,2001-02-30\n",
+        HEADER + "e1,l,n,12,2000-02-29\n",
+        HEADER + "e1,l,n,12,0000-01-01\n",
+        HEADER + "e1,l,n,12,0001-01-01\n",
+        HEADER + "e1,l,n,12,2001-02-32\n",
+        HEADER + "e1,l,n,12,2001-1-1\n",
+        HEADER + "e1,l,n,12, 2001-02-03\n",
+        HEADER + "e1,l,n,12,+2001-01-01\n",
+        HEADER + "e1,l,n,12,02001-01-01\n",
+        HEADER + "e1,l,n,12,30-Feb-01\n",
+        HEADER + "e1,l,n,12,01-Jan-99\n",
+        HEADER + "e1,l,n,12,16-nov-01\n",
+        HEADER + "e1,l,n,12,16-NOV-01\n",
+        HEADER + "e1,l,n,12,2001-02-0312-Jan-01\n"
+      })
+  @DisplayName("Parse edge cases with the same result or error message as CsvToBeanConverter")
+  void parseEdgeCasesLikeCsvToBeanConverter(String csv) throws Exception {
+    assertSameOutcome(
+        () -> CsvToBeanConverter.convertCsvToBean(toInputStream(csv), UsersCsvDto.class),
+        () -> UsersCsvParser.parse(toInputStream(csv)));
+  }
+
+  @Test
+  @DisplayName("Return users in chunks of the given size and read lines longer than the buffer")
+  void parseInChunksGivenLongLines() {
+    StringBuilder csv = new StringBuilder(HEADER);
+    String longName = "n".repeat(200_000);
+    for (int i = 0; i < 10; i++) {
+      csv.append("e").append(i).append(",l").append(i).append(',').append(longName);
+      csv.append(",1.5,2001-01-0").append(i % 9 + 1).append('\n');
+    }
+    List<Integer> chunkSizes = new ArrayList<>();
+    List<UsersCsvDto> rows = new ArrayList<>();
+    long rowCount =
+        UsersCsvParser.parseInChunks(
+            toInputStream(csv.toString()),
+            4,
+            chunk -> {
+              chunkSizes.add(chunk.size());
+              rows.addAll(chunk);
+            });
+    assertEquals(10, rowCount);
+    assertEquals(List.of(4, 4, 2), chunkSizes);
+    assertEquals(longName, rows.get(9).getName());
+    assertEquals(
+        CsvToBeanConverter.convertCsvToBean(toInputStream(csv.toString()), UsersCsvDto.class)
+            .toString(),
+        rows.toString());
+  }
+
+  private void assertSameOutcome(
+      Callable<List<UsersCsvDto>> expected, Callable<List<UsersCsvDto>> actual) throws Exception {
+    assertEquals(outcome(expected), outcome(actual));
+  }
+
+  private String outcome(Callable<List<UsersCsvDto>> parser) throws Exception {
+    try {
+      return parser.call().toString();
+    } catch (InvalidUserDataException ex) {
+      return "InvalidUserDataException: " + ex.getMessage();
+    }
+  }
+
+  private InputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,79 @@
+package utils;
+
+import com.zenika.users.dto.UsersCsvDto;
+import com.zenika.users.entity.Users;
+import com.zenika.users.mapper.UsersCsvDtoToUsersMapper;
+import com.zenika.users.utils.CsvToBeanConverter;
+import com.zenika.users.utils.UsersCsvParser;
+import com.zenika.users.utils.UsersCsvWriter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UsersCsvWriterTest {
+
+  private final UsersCsvDtoToUsersMapper usersCsvDtoToUsersMapper =
+      Mappers.getMapper(UsersCsvDtoToUsersMapper.class);
+
+  @Test
+  @DisplayName("Written users should be parsed back unchanged by both parsers")
+  void writeRoundTripsThroughParsers() throws IOException {
+    List<Users> users =
+        List.of(
+            givenUser("e1", "plain", "Harry Potter", 1234.5, "2001-11-16"),
+            givenUser("e2", "comma,login", "Potter, Harry", 0, "1970-01-01"),
+            givenUser("e3", "quote\"login", "\"Quoted\" name", 10_000_000, "2099-12-31"),
+            givenUser("e4", "back\\slash", "ends with \\", 0.01, "2000-02-29"),
+            givenUser("e5", "multi", "line\nbreak\nname", 123456789.123, "1999-01-01"),
+            givenUser("e6", "#hash", "Zoë \\\"mixed\\\", name", 42, "2020-06-15"));
+    String csv = write(users);
+    assertEquals(
+        users, usersCsvDtoToUsersMapper.mapToUsers(UsersCsvParser.parse(toInputStream(csv))));
+    assertEquals(
+        users,
+        usersCsvDtoToUsersMapper.mapToUsers(
+            CsvToBeanConverter.convertCsvToBean(toInputStream(csv), UsersCsvDto.class)));
+  }
+
+  @Test
+  @DisplayName("Salaries should be written without exponent and dates as yyyy-MM-dd")
+  void writePlainValues() throws IOException {
+    String csv = write(List.of(givenUser("e1", "l", "n", 12_345_678_901.25, "2001-11-16")));
+
+    assertEquals(UsersCsvWriter.HEADER + "\ne1,l,n,12345678901.25,2001-11-16\n", csv);
+  }
+
+  private String write(List<Users> users) throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    UsersCsvWriter usersCsvWriter = new UsersCsvWriter(stringWriter);
+    usersCsvWriter.writeHeader();
+    for (Users user : users) {
+      usersCsvWriter.write(user);
+    }
+    return stringWriter.toString();
+  }
+
+  private Users givenUser(String id, String login, String name, double salary, String startDate) {
+    return new Users(
+        id,
+        login,
+        name,
+        salary,
+        Date.from(LocalDate.parse(startDate).atStartOfDay(ZoneOffset.UTC).toInstant()));
+  }
+
+  private ByteArrayInputStream toInputStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+  }
+}